@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.example;
+
+import android.app.Application;
+import android.content.Context;
+
+import com.jompon.bitmapmanager.BitmapManager;
+
+/**
+ * Own one bitmap manager of example roots for whole process,
+ * so rotation does not rebuild its workers and caches and save which is still running is never stopped.
+ */
+public class ExampleApplication extends Application {
+
+    private BitmapManager bitmapManager;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        bitmapManager = new BitmapManager.Builder(this)
+                .rootExt(Constant.rootExt)
+                .rootInt(Constant.rootInt)
+                .build();
+    }
+
+    public static BitmapManager getBitmapManager(Context context)
+    {
+        return ((ExampleApplication) context.getApplicationContext()).bitmapManager;
+    }
+}
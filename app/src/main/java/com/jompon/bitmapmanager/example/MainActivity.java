@@ -40,9 +40,13 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.jompon.bitmapmanager.BitmapCallback;
 import com.jompon.bitmapmanager.BitmapManager;
+import com.jompon.bitmapmanager.Priority;
+import com.jompon.bitmapmanager.Transformation;
 
 import java.io.File;
+import java.util.concurrent.Callable;
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener{
 
@@ -73,9 +77,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
     private void bindingData( )
     {
-        bitmapManager = BitmapManager.getInstance(getApplicationContext());
-        bitmapManager.setRootExt(Constant.rootExt);
-        bitmapManager.setRootInt(Constant.rootInt);
+        bitmapManager = ExampleApplication.getBitmapManager(this);
         btnPhoto.setOnClickListener(this);
         fab.setOnClickListener(this);
     }
@@ -174,22 +176,37 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         }
     }
 
-    private void save(Uri uri){
-
-        try{
-            int minSize = 600;
-            Bitmap oriBitmap = bitmapManager.load(uri);
-            Bitmap bitmap = bitmapManager.getRealRotate(oriBitmap, uri);
-            double ratio = (double)bitmap.getWidth()/bitmap.getHeight();
-            int width = (bitmap.getWidth() <= bitmap.getHeight())? minSize: (int)(minSize*ratio);
-            int height = (bitmap.getWidth() <= bitmap.getHeight())? (int)(minSize/ratio): minSize;
-            bitmapManager.save(uri, 100, bitmapManager.matrixResize(bitmap, width, height, rotate));
-            bitmapManager.scanMediaFile(new File(bitmapManager.getRealPath(uri)));
-            oriBitmap.recycle();
-            bitmap.recycle();
-        }catch (Exception e){
-            Toast.makeText(getApplicationContext(), e.getMessage()+"", Toast.LENGTH_LONG).show();
-        }
+    private void save(final Uri uri){
+
+        final float rotate = this.rotate;
+        bitmapManager.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                int minSize = 600;
+                Transformation transformation = new Transformation.Builder()
+                        .fill(minSize, minSize)
+                        .rotate(rotate)
+                        .build();
+                Bitmap bitmap = bitmapManager.transform(uri, transformation).getBitmap();
+                try {
+                    bitmapManager.save(uri, 100, bitmap);
+                    bitmapManager.scanMediaFile(new File(bitmapManager.getRealPath(uri)));
+                } finally {
+                    bitmapManager.release(bitmap);
+                }
+                return null;
+            }
+        }, Priority.HIGH, TAG, new BitmapCallback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                Toast.makeText(getApplicationContext(), R.string.alert_saved, Toast.LENGTH_LONG).show();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Toast.makeText(getApplicationContext(), e.getMessage()+"", Toast.LENGTH_LONG).show();
+            }
+        });
     }
 
     private void reset( )
@@ -244,7 +261,6 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
             save(mPhotoURI);
             reset();
-            Toast.makeText(getApplicationContext(), R.string.alert_saved, Toast.LENGTH_LONG).show();
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.jompon.bitmapmanager.BitmapManager;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmark of decode, transform and save path of {@link BitmapManager} on device.
+ * Result is written to benchmark.tsv under external files directory, it can be pulled and passed back
+ * as instrumentation argument "baseline" to compare next run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapManagerBenchmark {
+
+    private static final String TAG = BitmapManagerBenchmark.class.getSimpleName();
+    private static final int MAX_SIZE = 1024;
+    private static final AllocationMeter ALLOCATION_METER = new AllocationMeter() {
+        @Override
+        public long getAllocatedBytes() {
+            // pixels of bitmap are in native heap since API 26
+            return AllocationMeter.HEAP.getAllocatedBytes() + Debug.getNativeHeapAllocatedSize();
+        }
+    };
+
+    private static Context context;
+    private static BitmapManager bitmapManager;
+    private static List<Uri> corpus;
+    private static BenchmarkRunner runner;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        context = InstrumentationRegistry.getTargetContext();
+        bitmapManager = BitmapManager.getInstance(context);
+        corpus = SyntheticCorpus.create(new File(context.getCacheDir(), "corpus"));
+        runner = new BenchmarkRunner(BenchmarkRunner.DEFAULT_WARMUP_COUNT, BenchmarkRunner.DEFAULT_MEASURE_COUNT, ALLOCATION_METER);
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        BaselineReport report = new BaselineReport(BaselineReport.DEFAULT_THRESHOLD);
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String baseline = arguments.getString("baseline");
+        if( baseline != null && !baseline.isEmpty() ){
+            FileReader reader = new FileReader(baseline);
+            try {
+                report.readBaseline(reader);
+            } finally {
+                reader.close();
+            }
+        }
+
+        StringWriter text = new StringWriter();
+        int regressions = report.writeReport(runner.getResults(), text);
+        for (String line : text.toString().split("\n")) {
+            Log.i(TAG, line);
+        }
+
+        File output = new File(context.getExternalFilesDir(null), "benchmark.tsv");
+        Writer writer = new FileWriter(output);
+        try {
+            BaselineReport.writeBaseline(runner.getResults(), writer);
+        } finally {
+            writer.close();
+        }
+        assertEquals("Regression against baseline " + baseline, 0, regressions);
+    }
+
+    @Test
+    public void decodeFile() throws Exception {
+        for (final Uri uri : corpus) {
+            final File file = new File(uri.getPath());
+            runner.run("decodeFile " + file.getName(), new DecodeOperation(uri) {
+                @Override
+                Bitmap decode() throws Exception {
+                    return bitmapManager.decodeFile(file);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void load() throws Exception {
+        for (final Uri uri : corpus) {
+            String name = new File(uri.getPath()).getName();
+            runner.run("load " + name, new DecodeOperation(uri) {
+                @Override
+                Bitmap decode() throws Exception {
+                    return bitmapManager.load(uri);
+                }
+            });
+            runner.run("load maxSize " + name, new DecodeOperation(uri) {
+                @Override
+                Bitmap decode() throws Exception {
+                    return bitmapManager.load(uri, MAX_SIZE * MAX_SIZE);
+                }
+            });
+            runner.run("load bounds " + name, new DecodeOperation(uri) {
+                @Override
+                Bitmap decode() throws Exception {
+                    return bitmapManager.load(uri, 1, MAX_SIZE, MAX_SIZE);
+                }
+            });
+        }
+    }
+
+    @Test
+    public void getRealRotate() throws Exception {
+        for (final Uri uri : corpus) {
+            final Bitmap bitmap = bitmapManager.load(uri, 1, MAX_SIZE, MAX_SIZE);
+            runner.run("getRealRotate " + new File(uri.getPath()).getName(), new BitmapOperation() {
+                @Override
+                public void setUp() {
+                    // orientation is read from header on every run instead of cache
+                    bitmapManager.getMetadataResolver().invalidate(uri);
+                }
+
+                @Override
+                Bitmap apply() {
+                    return bitmapManager.getRealRotate(bitmap, uri);
+                }
+            }.of(bitmap));
+        }
+    }
+
+    @Test
+    public void resize() throws Exception {
+        Uri uri = corpus.get(corpus.size() - SyntheticCorpus.FORMATS.length);
+        final Bitmap bitmap = bitmapManager.load(uri, 1, 4096, 4096);
+        runner.run("matrixResize", new BitmapOperation() {
+            @Override
+            Bitmap apply() {
+                return bitmapManager.matrixResize(bitmap, MAX_SIZE, MAX_SIZE);
+            }
+        }.of(bitmap));
+        runner.run("matrixResize angle", new BitmapOperation() {
+            @Override
+            Bitmap apply() {
+                return bitmapManager.matrixResize(bitmap, MAX_SIZE, MAX_SIZE, 90);
+            }
+        }.of(bitmap));
+        runner.run("createScaledBitmapMaxSize", new BitmapOperation() {
+            @Override
+            Bitmap apply() {
+                return bitmapManager.createScaledBitmapMaxSize(bitmap, MAX_SIZE);
+            }
+        }.of(bitmap));
+    }
+
+    @Test
+    public void save() throws Exception {
+        final Bitmap bitmap = bitmapManager.load(corpus.get(0));
+        final File dir = new File(context.getCacheDir(), "save");
+        if( !dir.exists() && !dir.mkdirs() )    throw new IOException("Cannot create " + dir);
+        for (final Bitmap.CompressFormat format : SyntheticCorpus.FORMATS) {
+            final Uri uri = Uri.fromFile(new File(dir, "save." + format.name().toLowerCase()));
+            runner.run("save " + format.name(), new Operation() {
+                @Override
+                public void setUp() {
+                }
+
+                @Override
+                public void run() throws Exception {
+                    bitmapManager.save(uri, 90, bitmap, format);
+                }
+            });
+        }
+    }
+
+    /**
+     * Decode uncached bitmap then give it back to pool like caller which is done with it.
+     */
+    private abstract static class DecodeOperation implements Operation {
+
+        private final Uri uri;
+
+        DecodeOperation(Uri uri)
+        {
+            this.uri = uri;
+        }
+
+        abstract Bitmap decode( ) throws Exception;
+
+        @Override
+        public void setUp() {
+            bitmapManager.invalidate(uri);
+        }
+
+        @Override
+        public void run() throws Exception {
+            bitmapManager.release(decode());
+        }
+    }
+
+    /**
+     * Transform source bitmap, result which is new bitmap is given back to pool.
+     */
+    private abstract static class BitmapOperation implements Operation {
+
+        private Bitmap source;
+
+        abstract Bitmap apply( );
+
+        BitmapOperation of(Bitmap source)
+        {
+            this.source = source;
+            return this;
+        }
+
+        @Override
+        public void setUp() {
+        }
+
+        @Override
+        public void run() {
+            Bitmap bitmap = apply();
+            if( bitmap != source )  bitmapManager.getBitmapPool().put(bitmap);
+        }
+    }
+}
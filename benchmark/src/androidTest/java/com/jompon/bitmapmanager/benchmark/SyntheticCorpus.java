@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed set of generated images, so every run decode same bytes.
+ * Content is gradient with noise which is compressed like photo rather than flat color.
+ */
+final class SyntheticCorpus {
+
+    static final int[][] RESOLUTIONS = { {640, 480}, {1920, 1080}, {4032, 3024} };
+    static final Bitmap.CompressFormat[] FORMATS = { Bitmap.CompressFormat.JPEG, Bitmap.CompressFormat.PNG, Bitmap.CompressFormat.WEBP };
+    private static final int QUALITY = 90;
+    private static final long SEED = 20180101L;
+
+    private SyntheticCorpus( )
+    {
+    }
+
+    /**
+     * Write every resolution in every format under directory, file which exists is kept.
+     * @param dir of corpus
+     * @return uri of every image
+     * @throws IOException if image cannot be written
+     */
+    static List<Uri> create(File dir) throws IOException
+    {
+        if( !dir.exists() && !dir.mkdirs() )    throw new IOException("Cannot create " + dir);
+        List<Uri> uris = new ArrayList<>();
+        for (int[] resolution : RESOLUTIONS) {
+            Bitmap bitmap = null;
+            for (Bitmap.CompressFormat format : FORMATS) {
+                File file = new File(dir, resolution[0] + "x" + resolution[1] + "." + format.name().toLowerCase());
+                if( !file.exists() ){
+                    if( bitmap == null )    bitmap = draw(resolution[0], resolution[1]);
+                    write(bitmap, format, file);
+                }
+                uris.add(Uri.fromFile(file));
+            }
+            if( bitmap != null )    bitmap.recycle();
+        }
+        return uris;
+    }
+
+    private static Bitmap draw(int width, int height)
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, width, height, Color.rgb(200, 60, 30), Color.rgb(20, 90, 220), Shader.TileMode.CLAMP));
+        canvas.drawRect(0, 0, width, height, paint);
+
+        Random random = new Random(SEED);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += 2) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32) - 16;
+                int c = row[x];
+                row[x] = Color.rgb(clamp(Color.red(c) + noise), clamp(Color.green(c) + noise), clamp(Color.blue(c) + noise));
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    private static int clamp(int value)
+    {
+        return value < 0? 0: (value > 255? 255: value);
+    }
+
+    private static void write(Bitmap bitmap, Bitmap.CompressFormat format, File file) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            if( !bitmap.compress(format, QUALITY, out) )   throw new IOException("Cannot Save");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+/**
+ * Count of bytes which are allocated by current process.
+ * Android implementation include native heap since pixels of bitmap live there on API 26+.
+ */
+public interface AllocationMeter {
+
+    AllocationMeter HEAP = new AllocationMeter() {
+        @Override
+        public long getAllocatedBytes() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    };
+
+    /**
+     * @return bytes which are allocated now
+     */
+    long getAllocatedBytes( );
+}
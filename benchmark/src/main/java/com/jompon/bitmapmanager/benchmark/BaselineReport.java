@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compare result with baseline of previous run.
+ * Baseline is one line per operation: name, p50, p90, p99 in nanoseconds and allocated bytes per op,
+ * separated by tab. Operation is regression when median or allocation grow more than threshold,
+ * value which baseline is 0, e.g. allocation of operation which allocated nothing, may grow by absolute tolerance instead.
+ */
+public class BaselineReport {
+
+    public static final double DEFAULT_THRESHOLD = 0.10;
+    public static final long DEFAULT_ZERO_TOLERANCE = 1024;
+
+    private final Map<String, long[]> baseline = new LinkedHashMap<>();
+    private final double threshold;
+    private final long zeroTolerance;
+
+    /**
+     * @param threshold ratio which median or allocation may grow, e.g. 0.1 for 10%
+     */
+    public BaselineReport(double threshold)
+    {
+        this(threshold, DEFAULT_ZERO_TOLERANCE);
+    }
+
+    /**
+     * @param threshold ratio which median or allocation may grow, e.g. 0.1 for 10%
+     * @param zeroTolerance nanoseconds or bytes which value may grow when its baseline is 0
+     */
+    public BaselineReport(double threshold, long zeroTolerance)
+    {
+        this.threshold = threshold;
+        this.zeroTolerance = zeroTolerance;
+    }
+
+    /**
+     * Read baseline which was written by {@link #writeBaseline(Collection, Writer)}.
+     * @param reader of baseline
+     * @throws IOException if reader failed or line is invalid
+     */
+    public void readBaseline(Reader reader) throws IOException
+    {
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            if( line.trim().isEmpty() || line.startsWith("#") )    continue;
+            String[] fields = line.split("\t");
+            if( fields.length != 5 )    throw new IOException("Invalid baseline line " + line);
+            long[] values = new long[4];
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Long.parseLong(fields[i + 1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid baseline line " + line, e);
+            }
+            baseline.put(fields[0], values);
+        }
+    }
+
+    /**
+     * Write results so it can be used as baseline of next run.
+     * @param results of run
+     * @param writer of baseline
+     * @throws IOException if writer failed
+     */
+    public static void writeBaseline(Collection<BenchmarkResult> results, Writer writer) throws IOException
+    {
+        writer.write("# name\tp50\tp90\tp99\talloc\n");
+        for (BenchmarkResult result : results) {
+            writer.write(result.getName() + '\t' + result.getMedian() + '\t' + result.getPercentile(90)
+                    + '\t' + result.getPercentile(99) + '\t' + result.getAllocatedBytesPerOp() + '\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * @param result of run
+     * @return true if median or allocation of result grow more than threshold from baseline
+     */
+    public boolean isRegression(BenchmarkResult result)
+    {
+        long[] values = baseline.get(result.getName());
+        if( values == null )    return false;
+        return exceeds(result.getMedian(), values[0]) || exceeds(result.getAllocatedBytesPerOp(), values[3]);
+    }
+
+    /**
+     * Write one line per result with change of median and allocation from baseline.
+     * @param results of run
+     * @param writer of report
+     * @return number of regression
+     * @throws IOException if writer failed
+     */
+    public int writeReport(Collection<BenchmarkResult> results, Writer writer) throws IOException
+    {
+        int regressions = 0;
+        for (BenchmarkResult result : results) {
+            long[] values = baseline.get(result.getName());
+            writer.write(result.toString());
+            if( values == null ){
+                writer.write(" [new]");
+            } else {
+                writer.write(" p50 " + formatChange(result.getMedian(), values[0]));
+                writer.write(" alloc " + formatChange(result.getAllocatedBytesPerOp(), values[3]));
+                if( isRegression(result) ){
+                    writer.write(" [REGRESSION]");
+                    regressions++;
+                }
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+        return regressions;
+    }
+
+    private boolean exceeds(long current, long base)
+    {
+        if( base == 0 )     return current > zeroTolerance;
+        return change(current, base) > threshold;
+    }
+
+    /**
+     * @return change in percent, or absolute change when base is 0 which has no ratio
+     */
+    private static String formatChange(long current, long base)
+    {
+        if( base == 0 )     return String.format(Locale.US, "%+d", current);
+        return String.format(Locale.US, "%+.1f%%", change(current, base) * 100);
+    }
+
+    private static double change(long current, long base)
+    {
+        return (double) (current - base) / base;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Latency percentiles, allocation and throughput of one operation.
+ */
+public class BenchmarkResult {
+
+    private final String name;
+    private final long[] samples;
+    private final long allocatedBytesPerOp;
+
+    /**
+     * @param name of operation
+     * @param samples latency of every measured run in nanoseconds
+     * @param allocatedBytesPerOp average bytes which were allocated by one run
+     */
+    public BenchmarkResult(String name, long[] samples, long allocatedBytesPerOp)
+    {
+        if( samples.length == 0 )   throw new IllegalArgumentException("No sample");
+        this.name = name;
+        this.samples = samples.clone();
+        this.allocatedBytesPerOp = allocatedBytesPerOp;
+        Arrays.sort(this.samples);
+    }
+
+    public String getName( )
+    {
+        return name;
+    }
+
+    public int getCount( )
+    {
+        return samples.length;
+    }
+
+    /**
+     * Get latency by nearest rank.
+     * @param percentile from 0 to 100
+     * @return latency in nanoseconds
+     */
+    public long getPercentile(double percentile)
+    {
+        if( percentile < 0 || percentile > 100 )    throw new IllegalArgumentException("Invalid percentile " + percentile);
+        int rank = (int) Math.ceil(percentile / 100 * samples.length);
+        return samples[Math.max(0, rank - 1)];
+    }
+
+    public long getMedian( )
+    {
+        return getPercentile(50);
+    }
+
+    public long getMin( )
+    {
+        return samples[0];
+    }
+
+    public long getMax( )
+    {
+        return samples[samples.length - 1];
+    }
+
+    public long getMean( )
+    {
+        long sum = 0;
+        for (long sample : samples) {
+            sum += sample;
+        }
+        return sum / samples.length;
+    }
+
+    public long getAllocatedBytesPerOp( )
+    {
+        return allocatedBytesPerOp;
+    }
+
+    /**
+     * @return operation per second by mean latency
+     */
+    public double getThroughput( )
+    {
+        long mean = getMean();
+        return mean > 0? 1e9 / mean: 0;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return String.format(Locale.US, "%s: p50=%.3fms p90=%.3fms p99=%.3fms alloc=%dB/op %.1fop/s",
+                name, getMedian() / 1e6, getPercentile(90) / 1e6, getPercentile(99) / 1e6,
+                allocatedBytesPerOp, getThroughput());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run operation for warm up then measure latency and allocation of every run.
+ * Garbage is collected before measurement so allocation of warm up is not counted.
+ */
+public class BenchmarkRunner {
+
+    public static final int DEFAULT_WARMUP_COUNT = 5;
+    public static final int DEFAULT_MEASURE_COUNT = 30;
+
+    private final int warmupCount;
+    private final int measureCount;
+    private final AllocationMeter allocationMeter;
+    private final List<BenchmarkResult> results = new ArrayList<>();
+
+    public BenchmarkRunner( )
+    {
+        this(DEFAULT_WARMUP_COUNT, DEFAULT_MEASURE_COUNT, AllocationMeter.HEAP);
+    }
+
+    /**
+     * @param warmupCount run which is not measured
+     * @param measureCount run which is measured
+     * @param allocationMeter of process
+     */
+    public BenchmarkRunner(int warmupCount, int measureCount, AllocationMeter allocationMeter)
+    {
+        if( measureCount <= 0 )     throw new IllegalArgumentException("Invalid measure count " + measureCount);
+        this.warmupCount = warmupCount;
+        this.measureCount = measureCount;
+        this.allocationMeter = allocationMeter;
+    }
+
+    /**
+     * Measure operation and keep result.
+     * @param name of operation
+     * @param operation which is measured
+     * @return result of operation
+     * @throws Exception if operation failed
+     */
+    public BenchmarkResult run(String name, Operation operation) throws Exception
+    {
+        for (int i = 0; i < warmupCount; i++) {
+            operation.setUp();
+            operation.run();
+        }
+        System.gc();
+
+        long[] samples = new long[measureCount];
+        long allocated = 0;
+        int allocationCount = 0;
+        for (int i = 0; i < measureCount; i++) {
+            operation.setUp();
+            long before = allocationMeter.getAllocatedBytes();
+            long start = System.nanoTime();
+            operation.run();
+            samples[i] = System.nanoTime() - start;
+            // collection during run make delta negative, such run is not counted
+            long delta = allocationMeter.getAllocatedBytes() - before;
+            if( delta >= 0 ){
+                allocated += delta;
+                allocationCount++;
+            }
+        }
+
+        BenchmarkResult result = new BenchmarkResult(name, samples, allocationCount > 0? allocated / allocationCount: 0);
+        results.add(result);
+        return result;
+    }
+
+    /**
+     * @return result of every operation in order of run
+     */
+    public List<BenchmarkResult> getResults( )
+    {
+        return Collections.unmodifiableList(results);
+    }
+}
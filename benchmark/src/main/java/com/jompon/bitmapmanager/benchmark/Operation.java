@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+/**
+ * One operation which is measured by {@link BenchmarkRunner}.
+ */
+public interface Operation {
+
+    /**
+     * Called before every measured run and not measured, e.g. to invalidate cache.
+     */
+    void setUp( ) throws Exception;
+
+    /**
+     * Measured work of operation.
+     */
+    void run( ) throws Exception;
+}
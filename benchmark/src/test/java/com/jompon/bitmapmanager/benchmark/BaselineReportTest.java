@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager.benchmark;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BaselineReportTest {
+
+    private static BenchmarkResult result(String name, long alloc, long... samples) {
+        return new BenchmarkResult(name, samples, alloc);
+    }
+
+    @Test
+    public void percentileByNearestRank() throws Exception {
+        BenchmarkResult result = result("op", 0, 50, 10, 40, 20, 30, 100, 90, 80, 70, 60);
+        assertEquals(10, result.getMin());
+        assertEquals(50, result.getMedian());
+        assertEquals(90, result.getPercentile(90));
+        assertEquals(100, result.getPercentile(99));
+        assertEquals(55, result.getMean());
+        assertEquals(1e9 / 55, result.getThroughput(), 1e-6);
+    }
+
+    @Test
+    public void runnerMeasuresEveryRun() throws Exception {
+        final int[] counts = new int[2];
+        BenchmarkRunner runner = new BenchmarkRunner(2, 3, AllocationMeter.HEAP);
+        BenchmarkResult result = runner.run("count", new Operation() {
+            @Override
+            public void setUp() {
+                counts[0]++;
+            }
+
+            @Override
+            public void run() {
+                counts[1]++;
+            }
+        });
+        assertEquals(5, counts[0]);
+        assertEquals(5, counts[1]);
+        assertEquals(3, result.getCount());
+        assertEquals(1, runner.getResults().size());
+    }
+
+    @Test
+    public void runnerAveragesCountedRunsOnly() throws Exception {
+        // second run see collection so its delta is negative
+        final long[] readings = { 0, 100, 500, 200, 200, 300 };
+        final int[] index = new int[1];
+        BenchmarkRunner runner = new BenchmarkRunner(0, 3, new AllocationMeter() {
+            @Override
+            public long getAllocatedBytes() {
+                return readings[index[0]++];
+            }
+        });
+        BenchmarkResult result = runner.run("alloc", new Operation() {
+            @Override
+            public void setUp() {
+            }
+
+            @Override
+            public void run() {
+            }
+        });
+        assertEquals(100, result.getAllocatedBytesPerOp());
+    }
+
+    @Test
+    public void zeroBaselineUsesAbsoluteTolerance() throws Exception {
+        StringWriter baseline = new StringWriter();
+        BaselineReport.writeBaseline(Arrays.asList(result("draw", 0, 100)), baseline);
+
+        BaselineReport report = new BaselineReport(0.10, 64);
+        report.readBaseline(new StringReader(baseline.toString()));
+
+        assertFalse(report.isRegression(result("draw", 64, 100)));
+        assertTrue(report.isRegression(result("draw", 65, 100)));
+
+        StringWriter text = new StringWriter();
+        report.writeReport(Arrays.asList(result("draw", 32, 100)), text);
+        assertTrue(text.toString().contains("alloc +32"));
+    }
+
+    @Test
+    public void baselineRoundTripAndRegression() throws Exception {
+        List<BenchmarkResult> before = Arrays.asList(result("decode", 1000, 100, 100, 100), result("save", 0, 200));
+        StringWriter baseline = new StringWriter();
+        BaselineReport.writeBaseline(before, baseline);
+
+        BaselineReport report = new BaselineReport(0.10);
+        report.readBaseline(new StringReader(baseline.toString()));
+
+        assertFalse(report.isRegression(result("decode", 1050, 109, 109, 109)));
+        assertTrue(report.isRegression(result("decode", 1000, 120, 120, 120)));
+        assertTrue(report.isRegression(result("decode", 2000, 100, 100, 100)));
+        assertFalse(report.isRegression(result("unknown", 0, 1000)));
+
+        StringWriter text = new StringWriter();
+        List<BenchmarkResult> after = Arrays.asList(result("decode", 1000, 150), result("save", 0, 190), result("new", 0, 1));
+        assertEquals(1, report.writeReport(after, text));
+        String[] lines = text.toString().split("\n");
+        assertTrue(lines[0].endsWith("[REGRESSION]"));
+        assertTrue(lines[1].contains("p50 -5.0%"));
+        assertTrue(lines[2].endsWith("[new]"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.net.Uri;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of every item of batch with aggregate throughput.
+ */
+public class BatchResult {
+
+    private final List<Item> items;
+    private final long elapsedMillis;
+
+    BatchResult(List<Item> items, long elapsedMillis)
+    {
+        this.items = Collections.unmodifiableList(items);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return result of every item in order of request
+     */
+    public List<Item> getItems( )
+    {
+        return items;
+    }
+
+    public long getElapsedMillis( )
+    {
+        return elapsedMillis;
+    }
+
+    public int getSuccessCount( )
+    {
+        int count = 0;
+        for (Item item : items) {
+            if( item.isSuccess() )  count++;
+        }
+        return count;
+    }
+
+    public int getFailureCount( )
+    {
+        return items.size() - getSuccessCount();
+    }
+
+    /**
+     * @return successful images per second of whole batch
+     */
+    public double getImagesPerSecond( )
+    {
+        if( elapsedMillis <= 0 )    return 0;
+        return getSuccessCount() * 1000.0 / elapsedMillis;
+    }
+
+    public static class Item {
+
+        private final Uri uri;
+        private final File file;
+        private final int width;
+        private final int height;
+        private final long bytes;
+        private final long elapsedMillis;
+        private final Exception error;
+
+        Item(Uri uri, File file, int width, int height, long bytes, long elapsedMillis, Exception error)
+        {
+            this.uri = uri;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedMillis;
+            this.error = error;
+        }
+
+        public Uri getUri( )
+        {
+            return uri;
+        }
+
+        /**
+         * @return written file or null if item was failed
+         */
+        public File getFile( )
+        {
+            return file;
+        }
+
+        public int getWidth( )
+        {
+            return width;
+        }
+
+        public int getHeight( )
+        {
+            return height;
+        }
+
+        /**
+         * @return size of written file
+         */
+        public long getBytes( )
+        {
+            return bytes;
+        }
+
+        public long getElapsedMillis( )
+        {
+            return elapsedMillis;
+        }
+
+        public boolean isSuccess( )
+        {
+            return error == null;
+        }
+
+        /**
+         * @return cause of failure or null if item was successful
+         */
+        public Exception getError( )
+        {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two tier cache of decoded bitmap.
+ * First tier is memory LRU which budgeted by bytes of bitmap,
+ * second tier is downsampled encoding which kept under cache directory of {@link FileManager} root.
+ * Encoding of second tier is written on its own worker so request which missed never wait for it.
+ * Every entry of memory tier and every write of disk tier hold its own reference of bitmap in {@link RequestCoalescer},
+ * so bitmap is given back to pool only when it was evicted, written and released by all of its consumers.
+ */
+public class BitmapCache {
+
+    private static final String TAG = BitmapCache.class.getSimpleName();
+    private static final int DISK_JPEG_QUALITY = 90;
+    private static final String TEMP_PREFIX = ".put";
+    public static final long DEFAULT_DISK_CACHE_SIZE = 50L * 1024 * 1024;
+
+    private final FileManager fileManager;
+    private final RequestCoalescer requestCoalescer;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final long maxDiskSize;
+    private final AtomicInteger memoryHitCount = new AtomicInteger();
+    private final AtomicInteger diskHitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    // lookup and retain of memory tier are atomic against release of evicted entry
+    private final Object referenceLock = new Object();
+    private final AtomicInteger diskEvictionCount = new AtomicInteger();
+    private final BitmapExecutor diskExecutor = new BitmapExecutor(1);
+    private volatile BitmapEventListener eventListener;
+    private File diskDir;
+    private long diskSize;
+
+    /**
+     * Create cache which memory tier use 1/8 of max heap.
+     * @param fileManager owner of cache directory
+     */
+    public BitmapCache(FileManager fileManager)
+    {
+        this(fileManager, (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8), DEFAULT_DISK_CACHE_SIZE);
+    }
+
+    /**
+     * @param fileManager owner of cache directory
+     * @param maxMemorySize of memory tier in bytes
+     * @param maxDiskSize of disk tier in bytes, 0 for disable disk tier
+     */
+    public BitmapCache(FileManager fileManager, int maxMemorySize, long maxDiskSize)
+    {
+        this(fileManager, new RequestCoalescer(), maxMemorySize, maxDiskSize);
+    }
+
+    /**
+     * @param fileManager owner of cache directory
+     * @param requestCoalescer which count references of cached bitmap
+     * @param maxMemorySize of memory tier in bytes
+     * @param maxDiskSize of disk tier in bytes, 0 for disable disk tier
+     */
+    public BitmapCache(FileManager fileManager, final RequestCoalescer requestCoalescer, int maxMemorySize, long maxDiskSize)
+    {
+        this.fileManager = fileManager;
+        this.requestCoalescer = requestCoalescer;
+        this.maxDiskSize = maxDiskSize;
+        this.memoryCache = new LruCache<String, Bitmap>(maxMemorySize){
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapUtils.getByteCount(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                synchronized (referenceLock) {
+                    requestCoalescer.release(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Build cache key of decode request.
+     * @param uri of image file path
+     * @param rotation of bitmap in degree
+     * @param size parameters of decode request
+     * @return key of cache
+     */
+    public static String key(Uri uri, int rotation, int... size)
+    {
+        StringBuilder builder = new StringBuilder(uri.toString());
+        builder.append('|').append(rotation);
+        for (int s : size) {
+            builder.append('|').append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Build cache key of decode request which include version of file,
+     * so file which was changed outside of manager, e.g. by camera or other app, is decoded again.
+     * @param uri of image file path
+     * @param metadata of file, its modified time and size are version of file
+     * @param rotation of bitmap in degree
+     * @param size parameters of decode request
+     * @return key of cache
+     */
+    public static String key(Uri uri, ImageMetadata metadata, int rotation, int... size)
+    {
+        StringBuilder builder = new StringBuilder(uri.toString());
+        builder.append('|').append(metadata.getLastModified()).append(':').append(metadata.getSize());
+        builder.append('|').append(rotation);
+        for (int s : size) {
+            builder.append('|').append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get bitmap from memory tier then disk tier, bitmap is retained for caller who must release it when it is done.
+     * @param key of cache
+     * @param useDisk true if disk tier should be looked up when memory tier missed
+     * @return bitmap or null if missed
+     */
+    public Bitmap get(String key, boolean useDisk)
+    {
+        Bitmap bitmap;
+        synchronized (referenceLock) {
+            bitmap = memoryCache.get(key);
+            if( bitmap != null && !bitmap.isRecycled() )    requestCoalescer.retain(bitmap);
+        }
+        BitmapEventListener listener = eventListener;
+        if( bitmap != null && !bitmap.isRecycled() ){
+            memoryHitCount.incrementAndGet();
+            if( listener != null )  listener.onCache(true);
+            return bitmap;
+        }
+        if( bitmap != null )    memoryCache.remove(key);
+
+        if( useDisk && maxDiskSize > 0 ){
+            bitmap = getFromDisk(key);
+            if( bitmap != null ){
+                diskHitCount.incrementAndGet();
+                requestCoalescer.retain(bitmap);
+                memoryCache.put(key, requestCoalescer.retain(bitmap));
+                if( listener != null )  listener.onCache(true);
+                return bitmap;
+            }
+        }
+        missCount.incrementAndGet();
+        if( listener != null )  listener.onCache(false);
+        return null;
+    }
+
+    /**
+     * @param listener which is told every hit and miss, null for disable
+     */
+    public void setEventListener(BitmapEventListener listener)
+    {
+        this.eventListener = listener;
+    }
+
+    /**
+     * Put bitmap to memory tier and disk tier, disk tier is written later on worker of cache.
+     * @param key of cache
+     * @param bitmap source
+     * @param useDisk true if bitmap should be written to disk tier also
+     */
+    public void put(String key, Bitmap bitmap, boolean useDisk)
+    {
+        if( bitmap == null || bitmap.isRecycled() )     return;
+        memoryCache.put(key, requestCoalescer.retain(bitmap));
+        if( useDisk && maxDiskSize > 0 ){
+            // write hold bitmap until it is encoded, so it is never pooled while being read
+            requestCoalescer.retain(bitmap);
+            try {
+                diskExecutor.submit(new DiskWrite(key, bitmap), Priority.LOW, null, null);
+            } catch (RejectedExecutionException e) {
+                requestCoalescer.release(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Stop worker of disk tier, write which is still waiting is dropped.
+     */
+    public void shutdown( )
+    {
+        diskExecutor.shutdown();
+    }
+
+    /**
+     * Remove every entry of uri from both tier, e.g. when file was overwritten.
+     * @param uri of image file path
+     */
+    public void invalidate(Uri uri)
+    {
+        String prefix = uri.toString() + '|';
+        for (String key : memoryCache.snapshot().keySet()) {
+            if( key.startsWith(prefix) )    memoryCache.remove(key);
+        }
+
+        synchronized (this) {
+            File dir = getDiskDir();
+            String filePrefix = BitmapUtils.md5(uri.toString()) + '_';
+            File[] files = dir.listFiles();
+            if( files == null )     return;
+            for (File file : files) {
+                if( file.getName().startsWith(filePrefix) ){
+                    long length = file.length();
+                    if( file.delete() )     diskSize -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Shrink memory tier, e.g. when system is low on memory. Disk tier is kept.
+     * @param ratio of max size which is kept, 0 for clear
+     */
+    public void trimMemory(float ratio)
+    {
+        if( ratio <= 0 ){
+            memoryCache.evictAll();
+        } else {
+            memoryCache.trimToSize((int) (memoryCache.maxSize() * Math.min(1, ratio)));
+        }
+    }
+
+    /**
+     * Remove every entry of both tier.
+     */
+    public synchronized void clear( )
+    {
+        memoryCache.evictAll();
+        File[] files = getDiskDir().listFiles();
+        if( files != null ){
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        diskSize = 0;
+    }
+
+    public int getMemoryHitCount( )
+    {
+        return memoryHitCount.get();
+    }
+
+    public int getDiskHitCount( )
+    {
+        return diskHitCount.get();
+    }
+
+    public int getMissCount( )
+    {
+        return missCount.get();
+    }
+
+    public int getMemoryEvictionCount( )
+    {
+        return memoryCache.evictionCount();
+    }
+
+    public int getDiskEvictionCount( )
+    {
+        return diskEvictionCount.get();
+    }
+
+    /**
+     * @return bytes of bitmap in memory tier
+     */
+    public int getMemorySize( )
+    {
+        return memoryCache.size();
+    }
+
+    /**
+     * @return bytes of file in disk tier
+     */
+    public synchronized long getDiskSize( )
+    {
+        getDiskDir();
+        return diskSize;
+    }
+
+    private String getFileName(String key)
+    {
+        int index = key.indexOf('|');
+        return BitmapUtils.md5(key.substring(0, index)) + '_' + BitmapUtils.md5(key);
+    }
+
+    private Bitmap getFromDisk(String key)
+    {
+        File file;
+        synchronized (this) {
+            file = new File(getDiskDir(), getFileName(key));
+        }
+        if( !file.exists() )    return null;
+
+        // file is replaced by rename only, so it can be decoded without lock
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), null);
+        if( bitmap == null ){
+            synchronized (this) {
+                long length = file.length();
+                if( file.delete() )     diskSize -= length;
+            }
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Encode bitmap into temp file without lock, lock is held only to move it in place and count size.
+     */
+    private void putToDisk(String key, Bitmap bitmap)
+    {
+        File dir;
+        synchronized (this) {
+            dir = getDiskDir();
+        }
+        File temp = null;
+        OutputStream out = null;
+        try {
+            temp = File.createTempFile(TEMP_PREFIX, ".tmp", dir);
+            out = new BufferedOutputStream(new FileOutputStream(temp));
+            Bitmap.CompressFormat format = bitmap.hasAlpha()? Bitmap.CompressFormat.PNG: Bitmap.CompressFormat.JPEG;
+            if( !bitmap.compress(format, DISK_JPEG_QUALITY, out) ){
+                throw new IOException("Cannot Save");
+            }
+            out.close();
+            out = null;
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, e.getMessage(), e);
+            BitmapUtils.closeQuietly(out);
+            if( temp != null )  temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            File file = new File(dir, getFileName(key));
+            long oldLength = file.length();
+            long length = temp.length();
+            // root may be changed while it was encoded
+            if( !dir.equals(diskDir) || !temp.renameTo(file) ){
+                temp.delete();
+                return;
+            }
+            diskSize += length - oldLength;
+            trimDisk();
+        }
+    }
+
+    private void trimDisk( )
+    {
+        if( diskSize <= maxDiskSize )   return;
+
+        File[] files = listEntries(getDiskDir());
+        if( files == null )     return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long m1 = f1.lastModified();
+                long m2 = f2.lastModified();
+                return m1 < m2? -1: (m1 == m2? 0: 1);
+            }
+        });
+        for (File file : files) {
+            if( diskSize <= maxDiskSize )   break;
+            long length = file.length();
+            if( file.delete() ){
+                diskSize -= length;
+                diskEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private File getDiskDir( )
+    {
+        File dir = fileManager.getCacheDirectory();
+        if( !dir.equals(diskDir) ){
+            // root was changed so size of directory have to be measured again
+            diskDir = dir;
+            diskSize = 0;
+            File[] files = listEntries(dir);
+            if( files != null ){
+                for (File file : files) {
+                    diskSize += file.length();
+                }
+            }
+        }
+        return diskDir;
+    }
+
+    /**
+     * @return every entry of disk tier, temp file of write which is still running is not counted
+     */
+    private static File[] listEntries(File dir)
+    {
+        return dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().startsWith(TEMP_PREFIX);
+            }
+        });
+    }
+
+    private class DiskWrite implements Callable<Void> {
+
+        final String key;
+        final Bitmap bitmap;
+
+        DiskWrite(String key, Bitmap bitmap)
+        {
+            this.key = key;
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                if( !bitmap.isRecycled() )  putToDisk(key, bitmap);
+            } finally {
+                requestCoalescer.release(bitmap);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compress bitmap into pooled output buffer then write it to stream in one go.
+ * Format can be chosen by content and alpha of bitmap, and output can be targeted to max byte size
+ * by binary search over quality which stops early once output is close enough under target.
+ */
+public class BitmapEncoder {
+
+    /** Search stops once output reaches this ratio of max bytes. */
+    private static final float EARLY_EXIT_RATIO = 0.9f;
+    /** Bitmap is sampled on grid of this many pixels per side to tell graphic from photo. */
+    private static final int SAMPLE_GRID = 64;
+    /** Sampled bitmap which has at most this many colors is graphic, e.g. screenshot or logo. */
+    private static final int GRAPHIC_MAX_COLORS = 256;
+    private static final int MAX_POOLED_BUFFERS = 2;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private final ArrayDeque<OutputBuffer> buffers = new ArrayDeque<>();
+    private final int maxPooledBufferSize;
+    private final AtomicInteger encodeCount = new AtomicInteger();
+    private final AtomicInteger passCount = new AtomicInteger();
+
+    public BitmapEncoder( )
+    {
+        this(DEFAULT_MAX_POOLED_BUFFER_SIZE);
+    }
+
+    /**
+     * @param maxPooledBufferSize buffer which grew larger than this is not kept in pool
+     */
+    public BitmapEncoder(int maxPooledBufferSize)
+    {
+        this.maxPooledBufferSize = maxPooledBufferSize;
+    }
+
+    /**
+     * Encode bitmap by spec and write output to stream, stream is not closed.
+     * @param bitmap source
+     * @param spec of format, quality and max bytes
+     * @param out stream of output
+     * @return format, quality and size of output
+     * @throws IOException if bitmap cannot be compressed or stream cannot be written
+     */
+    public EncodeResult encode(Bitmap bitmap, EncodeSpec spec, OutputStream out) throws IOException
+    {
+        OutputBuffer buffer = obtain();
+        OutputBuffer best = null;
+        try {
+            Bitmap.CompressFormat format = selectFormat(bitmap, spec);
+            long maxBytes = spec.getMaxBytes();
+            int passes = 1;
+            compress(bitmap, format, spec.getQuality(), buffer);
+            EncodeResult result;
+            if( maxBytes <= 0 || buffer.size() <= maxBytes ){
+                result = new EncodeResult(format, spec.getQuality(), buffer.size(), passes, true);
+            } else {
+                Bitmap.CompressFormat tried = format;
+                if( format == Bitmap.CompressFormat.PNG && spec.getFormat() == null ){
+                    // lossless output of auto selection is too big, lossy one can reach target
+                    format = selectLossyFormat(bitmap, spec);
+                }
+                if( format == Bitmap.CompressFormat.PNG ){
+                    result = new EncodeResult(format, spec.getQuality(), buffer.size(), passes, false);
+                } else {
+                    best = obtain();
+                    int bestQuality = -1;
+                    int low = spec.getMinQuality();
+                    // quality of spec was tried in lossless format only
+                    int high = format == tried? spec.getQuality() - 1: spec.getQuality();
+                    while (low <= high) {
+                        int quality = (low + high) >>> 1;
+                        compress(bitmap, format, quality, buffer);
+                        passes++;
+                        if( buffer.size() <= maxBytes ){
+                            OutputBuffer swap = best;
+                            best = buffer;
+                            buffer = swap;
+                            bestQuality = quality;
+                            if( best.size() >= maxBytes * EARLY_EXIT_RATIO )   break;
+                            low = quality + 1;
+                        } else {
+                            high = quality - 1;
+                        }
+                    }
+                    if( bestQuality >= 0 ){
+                        OutputBuffer swap = best;
+                        best = buffer;
+                        buffer = swap;
+                        result = new EncodeResult(format, bestQuality, buffer.size(), passes, true);
+                    } else {
+                        // nothing fits, smallest output of min quality is kept
+                        if( buffer.quality != spec.getMinQuality() || buffer.format != format ){
+                            compress(bitmap, format, spec.getMinQuality(), buffer);
+                            passes++;
+                        }
+                        result = new EncodeResult(format, spec.getMinQuality(), buffer.size(), passes, false);
+                    }
+                }
+            }
+            buffer.writeTo(out);
+            encodeCount.incrementAndGet();
+            passCount.addAndGet(passes);
+            return result;
+        } finally {
+            recycle(buffer);
+            recycle(best);
+        }
+    }
+
+    /**
+     * Choose format of spec, or by content when spec does not define it:
+     * bitmap with alpha is WEBP if it is allowed otherwise PNG, graphic with few colors is PNG, photo is WEBP or JPEG.
+     * @param bitmap source
+     * @param spec of encode
+     * @return format of output
+     */
+    public static Bitmap.CompressFormat selectFormat(Bitmap bitmap, EncodeSpec spec)
+    {
+        if( spec.getFormat() != null )  return spec.getFormat();
+        if( bitmap.hasAlpha() )     return canWebpAlpha(spec)? Bitmap.CompressFormat.WEBP: Bitmap.CompressFormat.PNG;
+        if( isGraphic(bitmap) )     return Bitmap.CompressFormat.PNG;
+        return selectLossyFormat(bitmap, spec);
+    }
+
+    /**
+     * @return lossy format of bitmap, or PNG for bitmap with alpha where WEBP alpha is not supported
+     */
+    private static Bitmap.CompressFormat selectLossyFormat(Bitmap bitmap, EncodeSpec spec)
+    {
+        // jpeg has no alpha so transparent image is never turned into it
+        if( bitmap.hasAlpha() )     return canWebpAlpha(spec)? Bitmap.CompressFormat.WEBP: Bitmap.CompressFormat.PNG;
+        return spec.isAllowWebp()? Bitmap.CompressFormat.WEBP: Bitmap.CompressFormat.JPEG;
+    }
+
+    private static boolean canWebpAlpha(EncodeSpec spec)
+    {
+        return spec.isAllowWebp() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+    }
+
+    /**
+     * Sample pixels on grid and count distinct colors, e.g. screenshot and diagram have few colors while photo has many.
+     * @param bitmap source
+     * @return true if bitmap look like graphic which is smaller and sharper in lossless format
+     */
+    static boolean isGraphic(Bitmap bitmap)
+    {
+        // pixels of hardware bitmap cannot be read
+        if( ConfigPolicy.isHardware(bitmap.getConfig()) )   return false;
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int stepX = Math.max(1, width / SAMPLE_GRID);
+        int stepY = Math.max(1, height / SAMPLE_GRID);
+        int[] row = new int[width];
+        Set<Integer> colors = new HashSet<>();
+        for (int y = 0; y < height; y += stepY) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x += stepX) {
+                if( colors.add(row[x]) && colors.size() > GRAPHIC_MAX_COLORS )    return false;
+            }
+        }
+        return true;
+    }
+
+    private static void compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality, OutputBuffer buffer) throws IOException
+    {
+        buffer.reset();
+        buffer.format = format;
+        buffer.quality = quality;
+        if( !bitmap.compress(format, quality, buffer) )     throw new IOException("Cannot compress " + format);
+    }
+
+    private OutputBuffer obtain( )
+    {
+        synchronized (buffers) {
+            OutputBuffer buffer = buffers.poll();
+            if( buffer != null )    return buffer;
+        }
+        return new OutputBuffer();
+    }
+
+    private void recycle(OutputBuffer buffer)
+    {
+        if( buffer == null || buffer.capacity() > maxPooledBufferSize )    return;
+        buffer.reset();
+        synchronized (buffers) {
+            if( buffers.size() < MAX_POOLED_BUFFERS )   buffers.push(buffer);
+        }
+    }
+
+    /**
+     * Drop every pooled buffer, e.g. on memory pressure.
+     */
+    public void trim( )
+    {
+        synchronized (buffers) {
+            buffers.clear();
+        }
+    }
+
+    /**
+     * @return number of bitmap which were encoded
+     */
+    public int getEncodeCount( )
+    {
+        return encodeCount.get();
+    }
+
+    /**
+     * @return number of compress of every encode, including search of target size
+     */
+    public int getPassCount( )
+    {
+        return passCount.get();
+    }
+
+    /**
+     * Growable buffer which is reset and reused instead of allocated per encode.
+     */
+    private static class OutputBuffer extends ByteArrayOutputStream {
+
+        Bitmap.CompressFormat format;
+        int quality = -1;
+
+        OutputBuffer( )
+        {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        int capacity( )
+        {
+            return buf.length;
+        }
+    }
+}
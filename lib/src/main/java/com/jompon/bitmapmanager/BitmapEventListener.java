@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.net.Uri;
+
+/**
+ * Listener of every stage of decode, transform and encode, e.g. to record metrics in production.
+ * It is called on thread which run the stage so it has to be cheap and thread safe.
+ * Nothing is measured while no listener is set.
+ * @see BitmapMetrics
+ */
+public interface BitmapEventListener {
+
+    enum Stage {
+        OPEN,
+        BOUNDS,
+        DECODE,
+        ROTATE,
+        SCALE,
+        TRANSFORM,
+        COMPRESS
+    }
+
+    /**
+     * @param stage which was finished
+     * @param nanos elapsed time of stage
+     */
+    void onStage(Stage stage, long nanos);
+
+    /**
+     * @param sampleSize which was used to decode
+     * @param bitmapBytes allocation of decoded bitmap
+     */
+    void onDecode(int sampleSize, long bitmapBytes);
+
+    /**
+     * @param bytes which were read from source of one decode session
+     */
+    void onBytesRead(long bytes);
+
+    /**
+     * @param bytes which were written to file
+     */
+    void onBytesWritten(long bytes);
+
+    /**
+     * @param hit true if bitmap was found in cache
+     */
+    void onCache(boolean hit);
+
+    /**
+     * @param stage which was failed
+     * @param uri of image file path
+     * @param e cause of failure, can be null if decoder return null
+     */
+    void onFailure(Stage stage, Uri uri, Exception e);
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded worker pool which sized to CPU count and take request by {@link Priority}.
+ * Requests can be cancelled by tag, or by target which keep only latest request of it
+ * e.g. ImageView in scrolling list.
+ */
+public class BitmapExecutor {
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<Object, Set<BitmapTask<?>>> tagTasks = new HashMap<>();
+    private final Map<Object, BitmapTask<?>> targetTasks = new WeakHashMap<>();
+
+    public BitmapExecutor( )
+    {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param threadCount number of worker thread
+     */
+    public BitmapExecutor(int threadCount)
+    {
+        executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new WorkerThreadFactory("BitmapManager"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submit request to worker pool.
+     * @param callable work of request which run on worker thread
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread, can be null
+     * @param <T> type of result
+     * @return task of request
+     */
+    public <T> BitmapTask<T> submit(Callable<T> callable, Priority priority, Object tag, BitmapCallback<T> callback)
+    {
+        BitmapTask<T> task = new BitmapTask<>(callable, priority, tag, callback);
+        task.setExecutor(this);
+        if( tag != null ){
+            synchronized (tagTasks) {
+                Set<BitmapTask<?>> tasks = tagTasks.get(tag);
+                if( tasks == null ){
+                    tasks = new HashSet<>();
+                    tagTasks.put(tag, tasks);
+                }
+                tasks.add(task);
+            }
+        }
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Submit request for target, previous request of same target is cancelled.
+     * Target is weakly referenced so it is not leaked by pending request.
+     * @param target of result e.g. ImageView
+     * @param callable work of request which run on worker thread
+     * @param priority of request
+     * @param callback which is called on main thread, can be null
+     * @param <T> type of result
+     * @return task of request
+     */
+    public <T> BitmapTask<T> submitForTarget(Object target, Callable<T> callable, Priority priority, BitmapCallback<T> callback)
+    {
+        cancelTarget(target);
+        BitmapTask<T> task = submit(callable, priority, null, callback);
+        synchronized (targetTasks) {
+            if( !task.isDone() )    targetTasks.put(target, task);
+        }
+        return task;
+    }
+
+    /**
+     * Cancel every pending and running request of tag.
+     * @param tag of request
+     * @return number of cancelled request
+     */
+    public int cancel(Object tag)
+    {
+        List<BitmapTask<?>> tasks;
+        synchronized (tagTasks) {
+            Set<BitmapTask<?>> set = tagTasks.remove(tag);
+            if( set == null )   return 0;
+            tasks = new ArrayList<>(set);
+        }
+        int count = 0;
+        for (BitmapTask<?> task : tasks) {
+            if( cancelTask(task) )  count++;
+        }
+        return count;
+    }
+
+    /**
+     * Cancel request of target.
+     * @param target of request
+     * @return true if request was cancelled
+     */
+    public boolean cancelTarget(Object target)
+    {
+        BitmapTask<?> task;
+        synchronized (targetTasks) {
+            task = targetTasks.remove(target);
+        }
+        return task != null && cancelTask(task);
+    }
+
+    /**
+     * @return number of request which is waiting for worker
+     */
+    public int getQueueSize( )
+    {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown( )
+    {
+        executor.shutdownNow();
+    }
+
+    private boolean cancelTask(BitmapTask<?> task)
+    {
+        boolean cancelled = task.cancel(true);
+        // drop it from queue now instead of when worker take it
+        executor.remove(task);
+        return cancelled;
+    }
+
+    void onTaskDone(BitmapTask<?> task)
+    {
+        Object tag = task.getTag();
+        if( tag != null ){
+            synchronized (tagTasks) {
+                Set<BitmapTask<?>> tasks = tagTasks.get(tag);
+                if( tasks != null && tasks.remove(task) && tasks.isEmpty() )
+                    tagTasks.remove(tag);
+            }
+        }
+        synchronized (targetTasks) {
+            targetTasks.values().remove(task);
+        }
+    }
+}
@@ -16,175 +16,1046 @@
 
 package com.jompon.bitmapmanager;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.database.Cursor;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
-import android.media.ExifInterface;
+import android.graphics.Rect;
 import android.net.Uri;
-import android.provider.MediaStore;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.IntRange;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Load, transform and save bitmap of one feature with its own roots, caches, workers and memory budget.
+ * Instance is immutable after it was built so every method can be called from many threads at the same time,
+ * create one per feature by {@link Builder} or use shared default instance of {@link #getInstance(Context)}.
+ */
 public class BitmapManager extends FileManager{
 
-    private static final String TAG = BitmapManager.class.getSimpleName();
-    public static BitmapManager getInstance(Context context)
+    private static final String TAG = BitmapManager.class.getSimpleName();
+    private static final int DECODE_FILE_REQUIRED_SIZE = 600;
+    private static final float PREVIEW_RATIO_TOLERANCE = 0.05f;
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final String DUPLICATE_INDEX_FILE = ".phash";
+    private static final int DUPLICATE_INDEX_SAVE_BATCH = 32;
+    public static final int DEFAULT_PREVIEW_SIZE = 256;
+    private static volatile BitmapManager instance;
+    private final BitmapCache bitmapCache;
+    private final BitmapPool bitmapPool;
+    private final BitmapExecutor bitmapExecutor;
+    private final TileDecoder tileDecoder;
+    private final EncodeQueue encodeQueue;
+    private final MetadataResolver metadataResolver;
+    private final BitmapEventListener eventListener;
+    private final MemoryGovernor memoryGovernor;
+    private final RequestCoalescer requestCoalescer;
+    private final ConfigPolicy configPolicy;
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final Downscaler downscaler;
+    private final DuplicateIndex duplicateIndex;
+    private final ComponentCallbacks2 duplicateIndexCallbacks;
+    private final ThumbnailGenerator thumbnailGenerator;
+    private final RenditionGenerator renditionGenerator;
+
+    /**
+     * Get shared instance of default configuration, it is created once even when many threads ask for it at the same time.
+     * @param context of application
+     * @return shared bitmap manager
+     */
+    public static BitmapManager getInstance(Context context)
+    {
+        BitmapManager manager = instance;
+        if( manager == null ){
+            synchronized (BitmapManager.class) {
+                manager = instance;
+                if( manager == null ){
+                    manager = new Builder(context).build();
+                    instance = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    private BitmapManager(Builder builder)
+    {
+        super(builder.context, builder.rootExt, builder.rootInt, builder.fileCopier);
+        requestCoalescer = new RequestCoalescer(new RequestCoalescer.Recycler() {
+            @Override
+            public void recycle(Bitmap bitmap) {
+                BitmapManager.this.recycle(bitmap);
+            }
+        });
+        bitmapCache = new BitmapCache(this, requestCoalescer, builder.memoryCacheSize, builder.diskCacheSize);
+        bitmapPool = new BitmapPool(builder.poolSize);
+        bitmapExecutor = new BitmapExecutor(builder.decodeThreads);
+        encodeQueue = new EncodeQueue(builder.encodeThreads);
+        tileDecoder = new TileDecoder(context.getContentResolver(), bitmapPool, builder.maxTileDecoders);
+        metadataResolver = new MetadataResolver(context.getContentResolver());
+        memoryGovernor = new MemoryGovernor(bitmapCache, bitmapPool, tileDecoder, builder.memoryBudget, builder.largeDecodeBytes);
+        configPolicy = builder.configPolicy;
+        downscaler = builder.downscaleFilter != null? new Downscaler(builder.downscaleFilter): null;
+        duplicateIndex = new DuplicateIndex(getPrivateFile(DUPLICATE_INDEX_FILE));
+        thumbnailGenerator = new ThumbnailGenerator(this);
+        renditionGenerator = new RenditionGenerator(this);
+        eventListener = builder.eventListener;
+        bitmapCache.setEventListener(eventListener);
+        encodeQueue.setEventListener(eventListener);
+        context.registerComponentCallbacks(memoryGovernor);
+        // shared instance is never shut down, index is written when app go to background instead
+        duplicateIndexCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if( level >= TRIM_MEMORY_UI_HIDDEN && duplicateIndex.getUnsavedCount() > 0 ){
+                    bitmapExecutor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            saveDuplicateIndex();
+                            return null;
+                        }
+                    }, Priority.LOW, null, null);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+            }
+        };
+        context.registerComponentCallbacks(duplicateIndexCallbacks);
+    }
+
+    /**
+     * Stop workers, close decoders and stop listening memory pressure, e.g. when feature which own this instance is closed.
+     * Shared instance of {@link #getInstance(Context)} should never be shut down.
+     */
+    @Override
+    public void shutdown( )
+    {
+        context.unregisterComponentCallbacks(memoryGovernor);
+        context.unregisterComponentCallbacks(duplicateIndexCallbacks);
+        bitmapExecutor.shutdown();
+        encodeQueue.shutdown();
+        thumbnailGenerator.shutdown();
+        renditionGenerator.shutdown();
+        tileDecoder.closeAll();
+        bitmapCache.shutdown();
+        saveDuplicateIndex();
+        super.shutdown();
+    }
+
+    /**
+     * Get coalescer which share decode of concurrent requests and count consumers of shared bitmap.
+     * @return coalescer of request
+     */
+    public RequestCoalescer getRequestCoalescer( )
+    {
+        return requestCoalescer;
+    }
+
+    /**
+     * Get governor which track issued bitmap, throttle large decode and trim cache on memory pressure.
+     * @return governor of memory
+     */
+    public MemoryGovernor getMemoryGovernor( )
+    {
+        return memoryGovernor;
+    }
+
+    /**
+     * Get cache which every load method look up before decode.
+     * @return cache of bitmap
+     */
+    public BitmapCache getBitmapCache( )
+    {
+        return bitmapCache;
+    }
+
+    /**
+     * Remove every cached bitmap of uri, call it when file of uri was modified outside this class.
+     * @param uri of image file path
+     */
+    public void invalidate(Uri uri)
+    {
+        bitmapCache.invalidate(uri);
+        metadataResolver.invalidate(uri);
+        tileDecoder.close(uri);
+    }
+
+    public BitmapEventListener getEventListener( )
+    {
+        return eventListener;
+    }
+
+    /**
+     * @return downscaler which reduce small bitmap of scale methods, null if scale methods use native filter only
+     */
+    public Downscaler getDownscaler( )
+    {
+        return downscaler;
+    }
+
+    /**
+     * @return policy of bitmap config
+     */
+    public ConfigPolicy getConfigPolicy( )
+    {
+        return configPolicy;
+    }
+
+    /**
+     * @return bytes of heap which bitmap config of every decode of this manager saved compared with ARGB_8888
+     */
+    public long getSavedBytes( )
+    {
+        return savedBytes.get();
+    }
+
+    /**
+     * Get pool which supply bitmap to every decode and transform.
+     * @return pool of bitmap
+     */
+    public BitmapPool getBitmapPool( )
+    {
+        return bitmapPool;
+    }
+
+    /**
+     * Give bitmap back to pool so next decode or transform can reuse its memory.
+     * Bitmap which is shared by several requests or held by cache is given back only when its last reference was released.
+     * Bitmap must not be used after it was released.
+     * @param bitmap which is no longer used
+     */
+    public void release(Bitmap bitmap)
+    {
+        requestCoalescer.release(bitmap);
+    }
+
+    /**
+     * Get worker pool which run asynchronous request.
+     * @return executor of request
+     */
+    public BitmapExecutor getExecutor( )
+    {
+        return bitmapExecutor;
+    }
+
+    /**
+     * Run any work e.g. load, transform and save on worker thread.
+     * @param callable work of request
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread, can be null
+     * @return task of request
+     */
+    public <T> BitmapTask<T> submit(Callable<T> callable, Priority priority, Object tag, BitmapCallback<T> callback)
+    {
+        return bitmapExecutor.submit(callable, priority, tag, callback);
+    }
+
+    /**
+     * Get bitmap from uri according to size of pixel on worker thread.
+     * @param uri of image file path
+     * @param maxSize of pixel
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread
+     * @return task of request
+     */
+    public BitmapTask<Bitmap> loadAsync(final Uri uri, final int maxSize, Priority priority, Object tag, BitmapCallback<Bitmap> callback)
+    {
+        return bitmapExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return load(uri, maxSize);
+            }
+        }, priority, tag, callback);
+    }
+
+    /**
+     * Get bitmap with real rotate by Exif angle which according to define pixel size on worker thread.
+     * @param uri of image file path
+     * @param maxSize of pixel
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread
+     * @return task of request
+     */
+    public BitmapTask<Bitmap> loadRealRotateAsync(final Uri uri, final int maxSize, Priority priority, Object tag, BitmapCallback<Bitmap> callback)
+    {
+        return bitmapExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loadRealRotate(uri, maxSize);
+            }
+        }, priority, tag, callback);
+    }
+
+    /**
+     * Get bitmap with real rotate for target e.g. ImageView of list item,
+     * previous request of same target is cancelled so recycled view never decode off-screen image.
+     * @param target of result
+     * @param uri of image file path
+     * @param maxSize of pixel
+     * @param callback which is called on main thread
+     * @return task of request
+     */
+    public BitmapTask<Bitmap> loadInto(Object target, final Uri uri, final int maxSize, BitmapCallback<Bitmap> callback)
+    {
+        return bitmapExecutor.submitForTarget(target, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loadRealRotate(uri, maxSize);
+            }
+        }, Priority.HIGH, callback);
+    }
+
+    /**
+     * Cancel every asynchronous request of tag.
+     * @param tag of request
+     * @return number of cancelled request
+     */
+    public int cancel(Object tag)
+    {
+        return bitmapExecutor.cancel(tag);
+    }
+
+    /**
+     * Cancel asynchronous request of target.
+     * @param target of request
+     * @return true if request was cancelled
+     */
+    public boolean cancelTarget(Object target)
+    {
+        return bitmapExecutor.cancelTarget(target);
+    }
+
+    // Decodes image and scales it to reduce memory consumption
+    public Bitmap decodeFile(final File f) {
+        // both side are kept at least required size, unlike max pixels of load so it has its own key
+        String key = cacheKey(Uri.fromFile(f), 0, DECODE_FILE_REQUIRED_SIZE) + "|fill";
+        try {
+            return loadShared(key, true, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return decodeFileInternal(f);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private Bitmap decodeFileInternal(File f) {
+        // descriptor of local file is decoded directly, it is opened once for both bounds and pixels
+        DecodeSession session = null;
+        try {
+            session = DecodeSession.open(f, eventListener);
+            BitmapFactory.Options o = session.decodeBounds();
+
+            // Both side are kept at least required size
+            BitmapFactory.Options o2 = new BitmapFactory.Options();
+            SizePlan.fill(o.outWidth, o.outHeight, DECODE_FILE_REQUIRED_SIZE, DECODE_FILE_REQUIRED_SIZE).apply(o2);
+            return decode(session, o2);
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Get bitmap from uri in full resolution.
+     * @param uri of image file path
+     * @return bitmap
+     * @throws IOException if file not exist
+     */
+    public Bitmap load(Uri uri) throws IOException
+    {
+        return load(ImageSource.fromUri(uri));
+    }
+
+    /**
+     * Get bitmap from source in full resolution.
+     * @param source of image
+     * @return bitmap
+     * @throws IOException if source cannot be read
+     */
+    public Bitmap load(final ImageSource source) throws IOException
+    {
+        String key = cacheKey(source);
+        if( key == null )   return loadInternal(source);
+        return loadShared(key, false, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loadInternal(source);
+            }
+        });
+    }
+
+    private Bitmap loadInternal(ImageSource source) throws IOException
+    {
+        DecodeSession session = source.open(context, eventListener);
+        try {
+            return decode(session, new BitmapFactory.Options());
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Get bitmap from uri according to size of pixel.
+     * Decoder produce bitmap which number of pixels is close to but not over maxSize, ratio is kept.
+     * @param uri of image file path
+     * @param maxSize of pixel, e.g. width * height
+     * @return bitmap
+     */
+    public Bitmap load(Uri uri, int maxSize) {
+
+        return load(ImageSource.fromUri(uri), maxSize);
+    }
+
+    /**
+     * Get bitmap from source according to size of pixel.
+     * @param source of image
+     * @param maxSize of pixel, e.g. width * height
+     * @return bitmap or null if source cannot be read
+     */
+    public Bitmap load(final ImageSource source, final int maxSize) {
+
+        String key = cacheKey(source, maxSize);
+        if( key == null )   return loadInternal(source, maxSize);
+        try {
+            return loadShared(key, true, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return loadInternal(source, maxSize);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private Bitmap loadInternal(ImageSource source, int maxSize) {
+
+        DecodeSession session = null;
+        try {
+            session = source.open(context, eventListener);
+
+            // Decode image size
+            BitmapFactory.Options o = session.decodeBounds();
+
+            // sample and density scale are done by decoder, no intermediate bitmap is created
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            SizePlan.maxPixels(o.outWidth, o.outHeight, maxSize).apply(options);
+            return decode(session, options);
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Get bitmap from uri according to baseSampleSize and image size.
+     * @param uri of image file path
+     * @param baseSampleSize of miniaturize minimum
+     * @param width of pixel size
+     * @param height of pixel size
+     * @return bitmap which cover width and height by keeping ratio, it is never upscaled
+     * for example
+     * define width = 1080 but bitmap width = 1200 -> new bitmap width = 1080 by density scale of decoder
+     * define width = 1080 but bitmap width = 2200 -> new bitmap width = 1080 because inSampleSize = 2 then density scale
+     * define width = 1080 but bitmap width = 2160 -> new bitmap width = 1080 because inSampleSize = 2
+     * baseSampleSize which is larger than needed sample size win, e.g. bitmap is smaller than defined size
+     */
+    public Bitmap load(Uri uri, int baseSampleSize, int width, int height)
+    {
+        return load(ImageSource.fromUri(uri), baseSampleSize, width, height);
+    }
+
+    /**
+     * Get bitmap from source according to baseSampleSize and image size,
+     * same as {@link #load(Uri, int, int, int)}.
+     * @param source of image
+     * @param baseSampleSize of miniaturize minimum
+     * @param width of pixel size
+     * @param height of pixel size
+     * @return bitmap or null if source cannot be read
+     */
+    public Bitmap load(final ImageSource source, final int baseSampleSize, final int width, final int height)
+    {
+        String key = cacheKey(source, baseSampleSize, width, height);
+        if( key == null )   return loadInternal(source, baseSampleSize, width, height);
+        try {
+            return loadShared(key, true, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return loadInternal(source, baseSampleSize, width, height);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private Bitmap loadInternal(ImageSource source, int baseSampleSize, int width, int height)
+    {
+        DecodeSession session = null;
+        try{
+            session = source.open(context, eventListener);
+
+            // First we get the the dimensions of the file on disk
+            BitmapFactory.Options bounds = session.decodeBounds();
+
+            int outHeight = bounds.outHeight;
+            int outWidth = bounds.outWidth;
+            SizePlan plan = width > 0 && height > 0
+                    ? SizePlan.fill(outWidth, outHeight, width, height)
+                    : SizePlan.fit(outWidth, outHeight, outWidth, outHeight);
+
+            // Now we will load the image and have BitmapFactory resize it for us.
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            plan.withMinSampleSize(baseSampleSize).apply(options);
+
+            return decode(session, options);
+        }catch (IOException e){
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Source which has no uri, e.g. memory or stream, is never cached.
+     * @return key of cache or null if source is not cached
+     */
+    private String cacheKey(ImageSource source, int... size)
+    {
+        Uri uri = source.getUri();
+        return uri != null? cacheKey(uri, 0, size): null;
+    }
+
+    /**
+     * Key of cache which include modified time and size of file, so file which was changed outside of manager is decoded again.
+     */
+    private String cacheKey(Uri uri, int rotation, int... size)
+    {
+        return BitmapCache.key(uri, metadataResolver.resolve(uri), rotation, size);
+    }
+
+    /**
+     * Get bitmap from cache, or decode it once for every concurrent request of same key and config,
+     * every consumer hold its own reference of shared bitmap until it is released.
+     * @param key of cache
+     * @param useDisk true if disk tier of cache is used
+     * @param decoder which is called only by first request
+     * @return shared bitmap
+     */
+    private Bitmap loadShared(final String key, final boolean useDisk, final Callable<Bitmap> decoder) throws IOException
+    {
+        Bitmap bitmap = bitmapCache.get(key, useDisk);
+        if( bitmap != null )    return bitmap;
+        // cache is filled before request is done so late request hit it instead of decode again
+        return requestCoalescer.execute(key + '|' + configPolicy.key(), decoder, new RequestCoalescer.Publisher<Bitmap>() {
+            @Override
+            public void publish(Bitmap bitmap) {
+                bitmapCache.put(key, bitmap, useDisk);
+            }
+        });
+    }
+
+    /**
+     * Decode by config of default purpose, bitmap of load can be rotated or scaled later so it is never HARDWARE.
+     */
+    private Bitmap decode(DecodeSession session, BitmapFactory.Options options) throws IOException
+    {
+        ConfigPolicy policy = configPolicy;
+        BitmapFactory.Options bounds = session.decodeBounds();
+        policy.apply(options, null, bounds.outMimeType, true);
+        long granted = 0;
+        try {
+            granted = memoryGovernor.acquire(BitmapUtils.estimateByteCount(bounds, options));
+            Bitmap bitmap = session.decode(options, bitmapPool);
+            savedBytes.addAndGet(ConfigPolicy.getSavedBytes(bitmap));
+            return memoryGovernor.track(bitmap);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory budget");
+        } finally {
+            memoryGovernor.release(granted);
+        }
+    }
+
+    /**
+     * Give bitmap which was created by manager back to pool and stop tracking it.
+     */
+    private void recycle(Bitmap bitmap)
+    {
+        memoryGovernor.untrack(bitmap);
+        bitmapPool.put(bitmap);
+    }
+
+    /**
+     * Load image by applying every step of transformation in one pass,
+     * the only bitmaps which are created are sampled decode and output.
+     * @param uri of image file path
+     * @param transformation steps of request
+     * @return output bitmap with peak memory of request
+     * @throws IOException if file not exist or cannot be decoded
+     */
+    public TransformResult transform(Uri uri, Transformation transformation) throws IOException
+    {
+        return transform(ImageSource.fromUri(uri), transformation);
+    }
+
+    /**
+     * Load image from source by applying every step of transformation in one pass.
+     * @param source of image
+     * @param transformation steps of request
+     * @return output bitmap with peak memory of request
+     * @throws IOException if source cannot be read or decoded
+     */
+    public TransformResult transform(final ImageSource source, final Transformation transformation) throws IOException
+    {
+        Uri uri = source.getUri();
+        if( uri == null )   return transformInternal(source, transformation);
+        String key = BitmapCache.key(uri, 0) + '|' + transformation.key() + '|' + configPolicy.key();
+        return requestCoalescer.execute(key, new Callable<TransformResult>() {
+            @Override
+            public TransformResult call() throws Exception {
+                return transformInternal(source, transformation);
+            }
+        });
+    }
+
+    private TransformResult transformInternal(ImageSource source, Transformation transformation) throws IOException
+    {
+        DecodeSession session = source.open(context, eventListener);
+        try {
+            return transform(session, transformation, null);
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Load image by applying every step of transformation,
+     * decode waits until its estimated bytes are available in budget.
+     * Bytes of output are still held in budget after it returns, caller release {@link TransformResult#getHeldBytes()}
+     * when it is done with output, e.g. after it was encoded.
+     */
+    TransformResult transform(Uri uri, Transformation transformation, MemoryBudget budget) throws IOException
+    {
+        DecodeSession session = DecodeSession.open(context.getContentResolver(), uri, eventListener);
+        try {
+            return transform(session, transformation, budget);
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    private TransformResult transform(DecodeSession session, Transformation transformation, MemoryBudget budget) throws IOException
+    {
+        Uri uri = session.getUri();
+        Bitmap decoded;
+        long granted = 0;
+        long held = 0;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        try {
+            BitmapFactory.Options bounds = session.decodeBounds();
+            ImageMetadata metadata = transformation.isOrient()? getMetadata(session): null;
+            int orientation = metadata != null? metadata.getRotationDegrees(): 0;
+            boolean flip = metadata != null && metadata.isFlipped();
+            SizePlan plan = transformation.plan(bounds.outWidth, bounds.outHeight, orientation);
+            plan.apply(options);
+            ConfigPolicy policy = configPolicy;
+            policy.apply(options, transformation.getPurpose(), bounds.outMimeType, transformation.needsDraw(plan, orientation, flip));
+            long decodedBytes = BitmapUtils.estimateByteCount(bounds, options);
+            long outputBytes = transformation.getScaleType() == Transformation.ScaleType.NONE? decodedBytes:
+                    Math.min(decodedBytes, 4L * transformation.getWidth() * transformation.getHeight());
+            // budget of caller, e.g. batch, is nested under budget of governor so it draws from same bytes
+            granted = budget != null? budget.acquire(decodedBytes + outputBytes): memoryGovernor.acquire(decodedBytes + outputBytes);
+            decoded = session.decode(options, bitmapPool);
+            if( decoded == null )   throw new IOException("Cannot decode " + uri);
+            savedBytes.addAndGet(ConfigPolicy.getSavedBytes(decoded));
+
+            long start = BitmapUtils.startStage(eventListener);
+            Bitmap output = transformation.apply(decoded, orientation, flip, bitmapPool);
+            BitmapUtils.endStage(eventListener, BitmapEventListener.Stage.TRANSFORM, start);
+            long peakBytes = BitmapUtils.getByteCount(decoded);
+            if( output != decoded ){
+                peakBytes += BitmapUtils.getByteCount(output);
+                bitmapPool.put(decoded);
+            }
+            // budget of caller keep output until caller is done with it, e.g. encode of batch
+            if( budget != null )    held = Math.min(granted, BitmapUtils.getByteCount(output));
+            return new TransformResult(memoryGovernor.track(output), options.inSampleSize, peakBytes, held);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for memory budget");
+        } finally {
+            if( budget != null ){
+                budget.release(granted - held);
+            } else {
+                memoryGovernor.release(granted);
+            }
+        }
+    }
+
+    /**
+     * Load image by applying every step of transformation on worker thread.
+     * @param uri of image file path
+     * @param transformation steps of request
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread
+     * @return task of request
+     */
+    public BitmapTask<TransformResult> transformAsync(final Uri uri, final Transformation transformation, Priority priority, Object tag, BitmapCallback<TransformResult> callback)
+    {
+        return bitmapExecutor.submit(new Callable<TransformResult>() {
+            @Override
+            public TransformResult call() throws Exception {
+                return transform(uri, transformation);
+            }
+        }, priority, tag, callback);
+    }
+
+    /**
+     * Load image from source by applying every step of transformation on worker thread.
+     * Source which cannot be opened again, e.g. stream, must not be submitted twice.
+     * @param source of image
+     * @param transformation steps of request
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread
+     * @return task of request
+     */
+    public BitmapTask<TransformResult> transformAsync(final ImageSource source, final Transformation transformation, Priority priority, Object tag, BitmapCallback<TransformResult> callback)
+    {
+        return bitmapExecutor.submit(new Callable<TransformResult>() {
+            @Override
+            public TransformResult call() throws Exception {
+                return transform(source, transformation);
+            }
+        }, priority, tag, callback);
+    }
+
+    /**
+     * Load image progressively on worker thread, same as {@link #loadProgressive(Uri, Transformation, int, Priority, Object, ProgressiveCallback)}
+     * which preview is at most {@link #DEFAULT_PREVIEW_SIZE} pixels.
+     */
+    public BitmapTask<TransformResult> loadProgressive(Uri uri, Transformation transformation, Priority priority, Object tag, ProgressiveCallback callback)
+    {
+        return loadProgressive(uri, transformation, DEFAULT_PREVIEW_SIZE, priority, tag, callback);
+    }
+
+    /**
+     * Load image progressively on worker thread.
+     * Preview is delivered first, it is embedded exif thumbnail or decode of very high sample size,
+     * then image of transformation is decoded from same opened source and bounds.
+     * Caller should release preview when result arrives.
+     * @param uri of image file path
+     * @param transformation steps of result
+     * @param previewSize max size of preview side in pixel
+     * @param priority of request
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread, preview and result are not delivered after cancel
+     * @return task of request
+     */
+    public BitmapTask<TransformResult> loadProgressive(final Uri uri, final Transformation transformation, final int previewSize,
+                                                      Priority priority, Object tag, final ProgressiveCallback callback)
+    {
+        final BitmapTask<?>[] holder = new BitmapTask<?>[1];
+        BitmapTask<TransformResult> task = bitmapExecutor.submit(new Callable<TransformResult>() {
+            @Override
+            public TransformResult call() throws Exception {
+                DecodeSession session = DecodeSession.open(context.getContentResolver(), uri, eventListener);
+                try {
+                    final Bitmap preview = decodePreview(session, previewSize);
+                    if( preview != null ){
+                        MAIN_HANDLER.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                BitmapTask<?> task = holder[0];
+                                if( task != null && task.isCancelled() )    release(preview);
+                                else    callback.onPreview(preview);
+                            }
+                        });
+                    }
+                    return transform(session, transformation, null);
+                } finally {
+                    BitmapUtils.closeQuietly(session);
+                }
+            }
+        }, priority, tag, callback);
+        holder[0] = task;
+        return task;
+    }
+
+    /**
+     * Decode small oriented preview, embedded exif thumbnail is preferred when it has same ratio as image.
+     */
+    private Bitmap decodePreview(DecodeSession session, int previewSize) throws IOException
+    {
+        BitmapFactory.Options bounds = session.decodeBounds();
+        ImageMetadata metadata = getMetadata(session);
+        Bitmap preview = null;
+        byte[] thumbnail = session.readExif().getThumbnail();
+        if( thumbnail != null ){
+            preview = BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+            // some camera pad thumbnail of other ratio with black bar
+            if( preview != null && Math.abs((float) preview.getWidth() / preview.getHeight()
+                    - (float) bounds.outWidth / bounds.outHeight) > PREVIEW_RATIO_TOLERANCE ){
+                preview.recycle();
+                preview = null;
+            }
+        }
+        if( preview == null ){
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            // sample size only, decoder skips most of work of large jpeg
+            options.inSampleSize = SizePlan.fit(bounds.outWidth, bounds.outHeight, previewSize, previewSize).getSampleSize();
+            configPolicy.apply(options, ConfigPolicy.Purpose.DISPLAY, bounds.outMimeType, true);
+            preview = session.decode(options, bitmapPool);
+            if( preview == null )   return null;
+        }
+
+        if( metadata.getRotationDegrees() != 0 || metadata.isFlipped() ){
+            Matrix matrix = new Matrix();
+            matrix.postRotate(metadata.getRotationDegrees());
+            if( metadata.isFlipped() )  matrix.postScale(-1, 1);
+            Bitmap oriented = BitmapUtils.createBitmap(bitmapPool, preview, matrix, true);
+            if( oriented != preview )   bitmapPool.put(preview);
+            preview = oriented;
+        }
+        return memoryGovernor.track(preview);
+    }
+
+    /**
+     * Get decoder of region which keep region decoder of recently used image open.
+     * @return decoder of tile
+     */
+    public TileDecoder getTileDecoder( )
     {
-        if( fileManager == null )      fileManager = new BitmapManager(context);
-        return (BitmapManager) fileManager;
+        return tileDecoder;
     }
 
-    private BitmapManager(Context context)
+    /**
+     * Decode only region of image, memory depends on region and sample size instead of size of image.
+     * @param uri of image file path
+     * @param region in coordinate of full size image
+     * @param sampleSize of decoder
+     * @return bitmap of region or null if region is outside image
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public Bitmap loadRegion(Uri uri, Rect region, int sampleSize) throws IOException
     {
-        super(context);
+        return memoryGovernor.track(tileDecoder.decodeRegion(uri, region, sampleSize));
     }
 
-    // Decodes image and scales it to reduce memory consumption
-    public Bitmap decodeFile(File f) {
-        try {
-            // Decode image size
-            BitmapFactory.Options o = new BitmapFactory.Options();
-            o.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(new FileInputStream(f), null, o);
-
-            // The new size we want to scale to
-            final int REQUIRED_SIZE=600;
-
-            // Find the correct scale value. It should be the power of 2.
-            int scale = 1;
-            while(o.outWidth / scale > REQUIRED_SIZE &&
-                    o.outHeight / scale > REQUIRED_SIZE) {
-                scale *= 2;
-            }
+    /**
+     * Create grid of tile over image for zoomable viewer.
+     * @param uri of image file path
+     * @param tileSize of decoded tile in pixel
+     * @return grid of image
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public TileGrid createTileGrid(Uri uri, int tileSize) throws IOException
+    {
+        return tileDecoder.createGrid(uri, tileSize);
+    }
 
-            // Decode with inSampleSize
-            BitmapFactory.Options o2 = new BitmapFactory.Options();
-            o2.inSampleSize = scale;
-            return BitmapFactory.decodeStream(new FileInputStream(f), null, o2);
-        } catch (FileNotFoundException e) {}
-        return null;
+    /**
+     * Decode tile of grid.
+     * @param uri of image file path
+     * @param tile of grid
+     * @return bitmap of tile
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public Bitmap loadTile(Uri uri, Tile tile) throws IOException
+    {
+        return memoryGovernor.track(tileDecoder.decodeTile(uri, tile));
     }
 
     /**
-     * Get bitmap from uri with MediaStore class.
+     * Decode tile of grid on worker thread, tiles which were scrolled away can be cancelled by tag.
      * @param uri of image file path
-     * @return bitmap
-     * @throws IOException if file not exist
+     * @param tile of grid
+     * @param tag which is used to cancel, can be null
+     * @param callback which is called on main thread
+     * @return task of request
      */
-    public Bitmap load(Uri uri) throws IOException
+    public BitmapTask<Bitmap> loadTileAsync(final Uri uri, final Tile tile, Object tag, BitmapCallback<Bitmap> callback)
     {
-        return MediaStore.Images.Media.getBitmap(context.getContentResolver(), uri);
+        return bitmapExecutor.submit(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return loadTile(uri, tile);
+            }
+        }, Priority.HIGH, tag, callback);
     }
 
     /**
-     * Get bitmap from uri according to size of pixel.
+     * Generate thumbnail of many images across every core, e.g. at import time.
+     * Thumbnail is written under thumbnail directory of root.
+     * @param uris of image file path
+     * @param maxSize of longer side of thumbnail in pixel
+     * @return result of every uri with aggregate throughput
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public BatchResult generateThumbnails(Collection<Uri> uris, int maxSize) throws InterruptedException
+    {
+        return thumbnailGenerator.generate(uris, maxSize);
+    }
+
+    /**
+     * Generate every size of image from single decode, e.g. thumbnail, medium and large of upload.
+     * @param source of image
+     * @param renditions sizes with their own encode spec
+     * @return file and size of every rendition in same order
+     * @throws IOException if source cannot be read or decoded
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public RenditionResult generateRenditions(ImageSource source, List<Rendition> renditions) throws IOException, InterruptedException
+    {
+        return renditionGenerator.generate(source, renditions);
+    }
+
+    /**
+     * Get index of perceptual hash of every image which was hashed, it is kept in files directory of app
+     * and written after every batch of new hashes, when app go to background and on {@link #shutdown()}.
+     * @return index of perceptual hash
+     */
+    public DuplicateIndex getDuplicateIndex( )
+    {
+        return duplicateIndex;
+    }
+
+    /**
+     * Get perceptual hash of image, it is computed from tiny sampled decode once per modification time of file.
      * @param uri of image file path
-     * @param maxSize of pixel
-     * @return bitmap
+     * @return difference hash of oriented image
+     * @throws IOException if file not exist or cannot be decoded
      */
-    public Bitmap load(Uri uri, int maxSize) {
+    public long getPerceptualHash(Uri uri) throws IOException
+    {
+        return getPerceptualHash(ImageSource.fromUri(uri));
+    }
+
+    /**
+     * Get perceptual hash of image, source without uri is hashed every time and is not indexed.
+     * @param source of image
+     * @return difference hash of oriented image
+     * @throws IOException if source cannot be read or decoded
+     */
+    public long getPerceptualHash(ImageSource source) throws IOException
+    {
+        Uri uri = source.getUri();
+        String key = uri != null? uri.toString(): null;
+        long lastModified = uri != null? metadataResolver.resolve(uri).getLastModified(): 0;
+        if( key != null && duplicateIndex.contains(key, lastModified) )     return duplicateIndex.getHash(key);
 
-        InputStream in = null;
-        Bitmap b = null;
+        DecodeSession session = source.open(context, eventListener);
+        long hash;
         try {
-            in = context.getContentResolver().openInputStream(uri);
+            hash = computePerceptualHash(session);
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+        if( key != null ){
+            duplicateIndex.put(key, lastModified, hash);
+            if( duplicateIndex.getUnsavedCount() >= DUPLICATE_INDEX_SAVE_BATCH )    saveDuplicateIndex();
+        }
+        return hash;
+    }
 
-            // Decode image size
-            BitmapFactory.Options o = new BitmapFactory.Options();
-            o.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(in, null, o);
-            in.close();
-
-            int scale = 1;
-            while ((o.outWidth * o.outHeight) * (1 / Math.pow(scale, 2)) > maxSize) {
-                scale++;
-            }
-            //Log.d(TAG, "scale = " + scale + ", orig-width: " + o.outWidth + ", orig-height: " + o.outHeight);
-
-            in = context.getContentResolver().openInputStream(uri);
-            if (scale > 1) {
-                scale--;
-                // scale to max possible inSampleSize that still yields an image
-                // larger than target
-                o = new BitmapFactory.Options();
-                o.inSampleSize = scale;
-                b = BitmapFactory.decodeStream(in, null, o);
-
-                // resize to desired dimensions
-                int height = b.getHeight();
-                int width = b.getWidth();
-                //Log.d(TAG, "1th scale operation dimenions - width: " + width + ", height: " + height);
-
-                double y = Math.sqrt(maxSize / (((double) width) / height));
-                double x = (y / height) * width;
-
-                Bitmap scaledBitmap = Bitmap.createScaledBitmap(b, (int) x, (int) y, true);
-                if( !b.isRecycled() )
-                    b.recycle();
-                b = scaledBitmap;
-
-                System.gc();
-            } else {
-                b = BitmapFactory.decodeStream(in);
-            }
-            in.close();
-            //Log.d(TAG, "bitmap size - width: " +b.getWidth() + ", height: " + b.getHeight());
-            return b;
-        } catch (Exception e) {
+    private void saveDuplicateIndex( )
+    {
+        try {
+            duplicateIndex.save();
+        } catch (IOException e) {
             Log.e(TAG, e.getMessage(), e);
-            return b;
         }
     }
 
     /**
-     * Get bitmap from uri according to baseSampleSize and image size.
-     * @param uri of image file path
-     * @param baseSampleSize of miniaturize minimum
-     * @param width of pixel size
-     * @param height of pixel size
-     * @return bitmap according to defined size but size is not exactly
-     * because it calculate according by multiple
-     * for example
-     * define width = 1080 but bitmap width = 1200 -> new bitmap width = 1200 because inSampleSize = 1
-     * define width = 1080 but bitmap width = 2200 -> new bitmap width = 1100 because inSampleSize = 2
-     * define width = 1080 but bitmap width = 2160 -> new bitmap width = 1080 because inSampleSize = 2
+     * Find indexed images which look like image, e.g. to skip upload or encode of copy which is already there.
+     * Only images which were hashed before are found, source itself is never in result.
+     * @param source of image
+     * @param maxDistance of Hamming distance, e.g. {@link PerceptualHash#DEFAULT_MAX_DISTANCE}
+     * @return matches from nearest
+     * @throws IOException if source cannot be read or decoded
      */
-    public Bitmap load(Uri uri, int baseSampleSize, int width, int height)
+    public List<DuplicateIndex.Match> findDuplicates(ImageSource source, int maxDistance) throws IOException
     {
-        Bitmap bitmap = null;
-        try{
-            // First we get the the dimensions of the file on disk
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            bitmap = BitmapFactory.decodeStream(context.getContentResolver().openInputStream(uri), null, options);
-
-            int outHeight = options.outHeight;
-            int outWidth = options.outWidth;
-            int inSampleSize = baseSampleSize;
-
-            if (outHeight > height || outWidth > width)
-            {
-                inSampleSize *= outWidth > outHeight
-                        ? outHeight / height
-                        : outWidth / width;
+        long hash = getPerceptualHash(source);
+        List<DuplicateIndex.Match> matches = duplicateIndex.findNear(hash, maxDistance);
+        Uri uri = source.getUri();
+        if( uri != null ){
+            String key = uri.toString();
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                if( matches.get(i).getKey().equals(key) )   matches.remove(i);
             }
+        }
+        return matches;
+    }
 
-            // Now we will load the image and have BitmapFactory resize it for us.
-            options.inSampleSize = inSampleSize;
-            options.inJustDecodeBounds = false;
+    /**
+     * Decode image by sample size only which is just enough for hash grid, then hash oriented pixels.
+     */
+    private long computePerceptualHash(DecodeSession session) throws IOException
+    {
+        BitmapFactory.Options bounds = session.decodeBounds();
+        ImageMetadata metadata = getMetadata(session);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = SizePlan.fill(bounds.outWidth, bounds.outHeight,
+                PerceptualHash.SAMPLE_SIZE, PerceptualHash.SAMPLE_SIZE).getSampleSize();
+        // pixels are read back so it must not be HARDWARE
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = session.decode(options, bitmapPool);
+        if( bitmap == null )    throw new IOException("Cannot decode " + session.getUri());
 
-            return BitmapFactory.decodeStream(context.getContentResolver().openInputStream(uri), null, options);
-        }catch (FileNotFoundException e){
-            Log.e(TAG, e.getMessage(), e);
-            return bitmap;
+        if( metadata.getRotationDegrees() != 0 || metadata.isFlipped() ){
+            Matrix matrix = new Matrix();
+            matrix.postRotate(metadata.getRotationDegrees());
+            if( metadata.isFlipped() )  matrix.postScale(-1, 1);
+            Bitmap oriented = BitmapUtils.createBitmap(bitmapPool, bitmap, matrix, true);
+            if( oriented != bitmap )    bitmapPool.put(bitmap);
+            bitmap = oriented;
+        }
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            return PerceptualHash.dHash(pixels, width, height);
+        } finally {
+            bitmapPool.put(bitmap);
         }
     }
 
@@ -196,8 +1067,17 @@ public class BitmapManager extends FileManager{
      */
     public Bitmap loadRealRotate(Uri uri) throws IOException
     {
-        Bitmap bitmap = load(uri);
-        return getRealRotate(bitmap, uri);
+        int rotate = getRealRotateDegree(uri);
+        if( rotate == 0 )   return load(uri);
+
+        final ImageSource source = ImageSource.fromUri(uri);
+        final int degree = rotate;
+        return loadShared(cacheKey(uri, rotate), false, new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return rotateAndRelease(loadInternal(source), degree);
+            }
+        });
     }
 
     /**
@@ -206,10 +1086,24 @@ public class BitmapManager extends FileManager{
      * @param maxSize of pixel
      * @return bitmap rotated which according to defined size
      */
-    public Bitmap loadRealRotate(Uri uri, int maxSize)
+    public Bitmap loadRealRotate(Uri uri, final int maxSize)
     {
-        Bitmap bitmap = load(uri, maxSize);
-        return getRealRotate(bitmap, uri);
+        int rotate = getRealRotateDegree(uri);
+        if( rotate == 0 )   return load(uri, maxSize);
+
+        final ImageSource source = ImageSource.fromUri(uri);
+        final int degree = rotate;
+        try {
+            return loadShared(cacheKey(uri, rotate, maxSize), true, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return rotateAndRelease(loadInternal(source, maxSize), degree);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
     }
 
     /**
@@ -220,10 +1114,24 @@ public class BitmapManager extends FileManager{
      * @param height of pixel size
      * @return bitmap rotated which according to defined baseSampleSize and size
      */
-    public Bitmap loadRealRotate(Uri uri, int baseSampleSize, int width, int height)
+    public Bitmap loadRealRotate(Uri uri, final int baseSampleSize, final int width, final int height)
     {
-        Bitmap bitmap = load(uri, baseSampleSize, width, height);
-        return getRealRotate(bitmap, uri);
+        int rotate = getRealRotateDegree(uri);
+        if( rotate == 0 )   return load(uri, baseSampleSize, width, height);
+
+        final ImageSource source = ImageSource.fromUri(uri);
+        final int degree = rotate;
+        try {
+            return loadShared(cacheKey(uri, rotate, baseSampleSize, width, height), true, new Callable<Bitmap>() {
+                @Override
+                public Bitmap call() throws Exception {
+                    return rotateAndRelease(loadInternal(source, baseSampleSize, width, height), degree);
+                }
+            });
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage(), e);
+            return null;
+        }
     }
 
     /**
@@ -234,36 +1142,106 @@ public class BitmapManager extends FileManager{
      */
     public Bitmap getRealRotate(Bitmap bitmap, Uri uri)
     {
-        int rotate = 0;
-        try {
-            String path = getRealPath(uri);
-            File imageFile = new File(path);
-            ExifInterface exif = new ExifInterface(imageFile.getAbsolutePath());
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotate = 270;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotate = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotate = 90;
-                    break;
-            }
+        return rotate(bitmap, getRealRotateDegree(uri));
+    }
 
-            Matrix matrix = new Matrix();
-            matrix.postRotate(rotate);
-            Bitmap rotateBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-            //bitmap.recycle();
-            return rotateBitmap;
+    /**
+     * Get angle of image by exif orientation.
+     * Only header of image is read, from content uri directly without looking up real path.
+     * @param uri of file
+     * @return angle in degree, 0 if exif is not available
+     */
+    public int getRealRotateDegree(Uri uri)
+    {
+        try {
+            return getMetadata(uri).getRotationDegrees();
         } catch (IOException e) {
-            e.printStackTrace();
-            return bitmap;
+            Log.e(TAG, e.getMessage(), e);
+            return 0;
         }
     }
 
+    /**
+     * Get resolver which cache real path and metadata of uri.
+     * @return resolver of metadata
+     */
+    public MetadataResolver getMetadataResolver( )
+    {
+        return metadataResolver;
+    }
+
+    /**
+     * Get path, size, bounds and exif orientation of image, it is resolved once and cached until file is modified.
+     * @param uri of file
+     * @return metadata of image
+     * @throws IOException if file not exist or it is not image
+     */
+    public ImageMetadata getMetadata(Uri uri) throws IOException
+    {
+        ImageMetadata metadata = metadataResolver.resolve(uri);
+        if( metadata.hasBounds() && metadata.getOrientation() > 0 )    return metadata;
+
+        DecodeSession session = DecodeSession.open(context.getContentResolver(), uri, eventListener);
+        try {
+            return getMetadata(session);
+        } finally {
+            BitmapUtils.closeQuietly(session);
+        }
+    }
+
+    /**
+     * Get metadata of many uris, e.g. every item of list, by one query per MediaStore table.
+     * Image itself is not read so bounds are only those which MediaStore know,
+     * orientation is known only for image which exif was read before.
+     * @param uris of file
+     * @return metadata of every uri in same order
+     */
+    public Map<Uri, ImageMetadata> getMetadata(Collection<Uri> uris)
+    {
+        return metadataResolver.resolve(uris);
+    }
+
+    private ImageMetadata getMetadata(DecodeSession session) throws IOException
+    {
+        Uri uri = session.getUri();
+        ImageMetadata metadata = uri != null? metadataResolver.resolve(uri): null;
+        if( metadata != null && metadata.hasBounds() && metadata.getOrientation() > 0 )    return metadata;
+
+        // orientation is always from exif, orientation column of MediaStore has no mirror
+        BitmapFactory.Options bounds = session.decodeBounds();
+        ExifInfo exif = session.readExif();
+        metadata = new ImageMetadata(null, 0, 0, bounds.outMimeType, bounds.outWidth, bounds.outHeight, exif.getOrientation());
+        // source in memory has nothing to resolve
+        return uri != null? metadataResolver.put(uri, metadata): metadata;
+    }
+
+    private Bitmap rotateAndRelease(Bitmap bitmap, int rotate)
+    {
+        Bitmap rotateBitmap = rotate(bitmap, rotate);
+        if( rotateBitmap != bitmap )    recycle(bitmap);
+        return rotateBitmap;
+    }
+
+    private Bitmap rotate(Bitmap bitmap, int rotate)
+    {
+        if( bitmap == null )    return null;
+        long start = BitmapUtils.startStage(eventListener);
+        Matrix matrix = new Matrix();
+        matrix.postRotate(rotate);
+        Bitmap rotateBitmap = BitmapUtils.createBitmap(bitmapPool, bitmap, matrix, true);
+        BitmapUtils.endStage(eventListener, BitmapEventListener.Stage.ROTATE, start);
+        return memoryGovernor.track(rotateBitmap);
+    }
+
+    /**
+     * Get queue which compress and write file of save on worker thread.
+     * @return queue of encode
+     */
+    public EncodeQueue getEncodeQueue( )
+    {
+        return encodeQueue;
+    }
+
     /**
      * save image jpeg according to define quality to uri file path.
      * @param uri source
@@ -271,18 +1249,7 @@ public class BitmapManager extends FileManager{
      */
     public void save(Uri uri, @IntRange(from=0, to=100) int quality) throws Exception{
 
-        Bitmap bitmap = load(uri);
-        Bitmap image = getRealRotate(bitmap, uri);
-        String path = getRealPath(uri);
-        File pictureFile = new File(path);
-        FileOutputStream fos = new FileOutputStream(pictureFile);
-        if( !image.compress(Bitmap.CompressFormat.JPEG, quality, fos) ){
-            fos.flush();
-            fos.close();
-            throw new Exception("Cannot Save");
-        }
-        fos.flush();
-        fos.close();
+        save(uri, quality, Bitmap.CompressFormat.JPEG);
     }
 
     /**
@@ -293,16 +1260,7 @@ public class BitmapManager extends FileManager{
      */
     public void save(Uri uri, @IntRange(from=0, to=100) int quality, Bitmap image) throws Exception{
 
-        String path = getRealPath(uri);
-        File pictureFile = new File(path);
-        FileOutputStream fos = new FileOutputStream(pictureFile);
-        if( !image.compress(Bitmap.CompressFormat.JPEG, quality, fos) ){
-            fos.flush();
-            fos.close();
-            throw new Exception("Cannot Save");
-        }
-        fos.flush();
-        fos.close();
+        save(uri, quality, image, Bitmap.CompressFormat.JPEG);
     }
 
     /**
@@ -314,21 +1272,20 @@ public class BitmapManager extends FileManager{
     public void save(Uri uri, @IntRange(from=0, to=100) int quality, Bitmap.CompressFormat compressFormat) throws Exception{
 
         Bitmap bitmap = load(uri);
-        Bitmap image = getRealRotate(bitmap, uri);
-        String path = getRealPath(uri);
-        File pictureFile = new File(path);
-        FileOutputStream fos = new FileOutputStream(pictureFile);
-        if( !image.compress(compressFormat, quality, fos) ){
-            fos.flush();
-            fos.close();
-            throw new Exception("Cannot Save");
+        Bitmap image = null;
+        try {
+            image = getRealRotate(bitmap, uri);
+            save(uri, quality, image, compressFormat);
+        } finally {
+            if( image != null && image != bitmap )  recycle(image);
+            // loaded bitmap can be shared with other request, its consumer count decide whether it is pooled
+            release(bitmap);
         }
-        fos.flush();
-        fos.close();
     }
 
     /**
      * save image according to define quality, bitmap and compressFormat to uri file path.
+     * File is replaced atomically so it is never left half written.
      * @param uri source
      * @param quality of image
      * @param image source of bitmap type
@@ -336,16 +1293,136 @@ public class BitmapManager extends FileManager{
      */
     public void save(Uri uri, @IntRange(from=0, to=100) int quality, Bitmap image, Bitmap.CompressFormat compressFormat) throws Exception{
 
+        save(uri, image, EncodeSpec.of(compressFormat, quality));
+    }
+
+    /**
+     * save image by spec to uri file path, e.g. max bytes of upload.
+     * File is replaced atomically so it is never left half written.
+     * Name and MediaStore type of file are kept, so spec must have format,
+     * use {@link #encode(Bitmap, EncodeSpec, OutputStream)} for auto format and name file by format of its result.
+     * @param uri source
+     * @param image source of bitmap type
+     * @param spec of encode which format is set
+     * @return format, quality and size of written file
+     * @throws IOException if image cannot be compressed or file cannot be written
+     * @throws IllegalArgumentException if format of spec is auto
+     */
+    public EncodeResult save(Uri uri, Bitmap image, EncodeSpec spec) throws IOException{
+
+        checkInPlaceSpec(spec);
         String path = getRealPath(uri);
         File pictureFile = new File(path);
-        FileOutputStream fos = new FileOutputStream(pictureFile);
-        if( !image.compress(compressFormat, quality, fos) ){
-            fos.flush();
-            fos.close();
-            throw new Exception("Cannot Save");
+        try {
+            return encodeQueue.write(pictureFile, image, spec);
+        } finally {
+            invalidate(uri);
+        }
+    }
+
+    /**
+     * File which is replaced in place keeps its extension and MediaStore type, so auto format could make them lie about content.
+     */
+    private static void checkInPlaceSpec(EncodeSpec spec)
+    {
+        if( spec.getFormat() == null )
+            throw new IllegalArgumentException("auto format cannot be saved in place, set format of spec");
+    }
+
+    /**
+     * Encode image by spec into stream without file, e.g. body of upload.
+     * Output is compressed into pooled buffer so search of target size never touch stream.
+     * @param image source of bitmap type
+     * @param spec of encode
+     * @param out stream of output, it is not closed
+     * @return format, quality and size of output
+     * @throws IOException if image cannot be compressed or stream cannot be written
+     */
+    public EncodeResult encode(Bitmap image, EncodeSpec spec, OutputStream out) throws IOException{
+
+        return encodeQueue.getEncoder().encode(image, spec, out);
+    }
+
+    /**
+     * save oriented image of source to file, e.g. to import image from stream or asset.
+     * File is replaced atomically so it is never left half written.
+     * @param source of image
+     * @param target file
+     * @param quality of image
+     * @param compressFormat type
+     * @throws IOException if source cannot be read or file cannot be written
+     */
+    public void save(ImageSource source, File target, @IntRange(from=0, to=100) int quality, Bitmap.CompressFormat compressFormat) throws IOException{
+
+        save(source, target, EncodeSpec.of(compressFormat, quality));
+    }
+
+    /**
+     * save oriented image of source to file by spec.
+     * @param source of image
+     * @param target file
+     * @param spec of encode
+     * @return format, quality and size of written file
+     * @throws IOException if source cannot be read or file cannot be written
+     */
+    public EncodeResult save(ImageSource source, File target, EncodeSpec spec) throws IOException{
+
+        Transformation transformation = new Transformation.Builder()
+                .purpose(ConfigPolicy.Purpose.ENCODE)
+                .build();
+        Bitmap image = transform(source, transformation).getBitmap();
+        try {
+            return encodeQueue.write(target, image, spec);
+        } finally {
+            // output of coalesced transform can be used by other caller too
+            release(image);
+            invalidate(Uri.fromFile(target));
         }
-        fos.flush();
-        fos.close();
+    }
+
+    /**
+     * save image according to define quality, bitmap and compressFormat to uri file path on worker thread.
+     * Saves of same file which are still waiting are merged into one write of latest bitmap.
+     * Caller must not recycle or modify bitmap until callback is called.
+     * @param uri source
+     * @param quality of image
+     * @param image source of bitmap type
+     * @param compressFormat type
+     * @param callback which is called on main thread, can be null
+     * @return task of save
+     */
+    public BitmapTask<File> saveAsync(Uri uri, @IntRange(from=0, to=100) int quality, Bitmap image, Bitmap.CompressFormat compressFormat, BitmapCallback<File> callback)
+    {
+        return saveAsync(uri, image, EncodeSpec.of(compressFormat, quality), callback);
+    }
+
+    /**
+     * save image by spec to uri file path on worker thread.
+     * Caller must not recycle or modify bitmap until callback is called.
+     * @param uri source
+     * @param image source of bitmap type
+     * @param spec of encode which format is set, file keeps its name
+     * @param callback which is called on main thread, can be null
+     * @return task of save
+     * @throws IllegalArgumentException if format of spec is auto
+     */
+    public BitmapTask<File> saveAsync(final Uri uri, Bitmap image, EncodeSpec spec, final BitmapCallback<File> callback)
+    {
+        checkInPlaceSpec(spec);
+        File pictureFile = new File(getRealPath(uri));
+        return encodeQueue.enqueue(pictureFile, image, spec, new BitmapCallback<File>() {
+            @Override
+            public void onSuccess(File result) {
+                invalidate(uri);
+                if( callback != null )  callback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                invalidate(uri);
+                if( callback != null )  callback.onFailure(e);
+            }
+        });
     }
 
     /**
@@ -357,17 +1434,25 @@ public class BitmapManager extends FileManager{
      */
     public Bitmap matrixResize(Bitmap bitmap, int newWidth, int newHeight)
     {
+        long start = BitmapUtils.startStage(eventListener);
         int width = bitmap.getWidth();
         int height = bitmap.getHeight();
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        // CREATE A MATRIX FOR THE MANIPULATION
-        Matrix matrix = new Matrix();
-        // RESIZE THE BIT MAP
-        matrix.postScale(scaleWidth, scaleHeight);
+        Bitmap resizedBitmap;
+        if( BitmapUtils.canDownscale(downscaler, bitmap, newWidth, newHeight) ){
+            resizedBitmap = BitmapUtils.downscale(downscaler, bitmapPool, bitmap, newWidth, newHeight);
+        } else {
+            float scaleWidth = ((float) newWidth) / width;
+            float scaleHeight = ((float) newHeight) / height;
+            // CREATE A MATRIX FOR THE MANIPULATION
+            Matrix matrix = new Matrix();
+            // RESIZE THE BIT MAP
+            matrix.postScale(scaleWidth, scaleHeight);
 
-        // "RECREATE" THE NEW BITMAP
-        return Bitmap.createBitmap(bitmap, 0, 0, width, height, matrix, true);
+            // "RECREATE" THE NEW BITMAP
+            resizedBitmap = BitmapUtils.createBitmap(bitmapPool, bitmap, matrix, newWidth, newHeight, true);
+        }
+        BitmapUtils.endStage(eventListener, BitmapEventListener.Stage.SCALE, start);
+        return memoryGovernor.track(resizedBitmap);
     }
 
     /**
@@ -380,10 +1465,21 @@ public class BitmapManager extends FileManager{
      */
     public Bitmap matrixResize(Bitmap bitmap, int newWidth, int newHeight, float angle)
     {
-        Bitmap image = matrixResize(bitmap, newWidth, newHeight);
+        long start = BitmapUtils.startStage(eventListener);
         Matrix matrix = new Matrix();
+        Bitmap source = bitmap;
+        if( BitmapUtils.canDownscale(downscaler, bitmap, newWidth, newHeight) ){
+            // reduce by filter first, rotate of same size does not alias
+            source = BitmapUtils.downscale(downscaler, bitmapPool, bitmap, newWidth, newHeight);
+        } else {
+            // scale and rotate by one matrix so no intermediate bitmap is created
+            matrix.postScale(((float) newWidth) / bitmap.getWidth(), ((float) newHeight) / bitmap.getHeight());
+        }
         matrix.postRotate(angle);
-        return Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
+        Bitmap resizedBitmap = BitmapUtils.createBitmap(bitmapPool, source, matrix, true);
+        if( source != bitmap && resizedBitmap != source )   bitmapPool.put(source);
+        BitmapUtils.endStage(eventListener, BitmapEventListener.Stage.SCALE, start);
+        return memoryGovernor.track(resizedBitmap);
     }
 
     /**
@@ -404,7 +1500,7 @@ public class BitmapManager extends FileManager{
             height = maxSize;
             width = (int) (height * bitmapRatio);
         }
-        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+        return createScaledBitmap(bitmap, width, height);
     }
 
     /**
@@ -425,7 +1521,26 @@ public class BitmapManager extends FileManager{
             width = minSize;
             height = (int) (width / bitmapRatio);
         }
-        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+        return createScaledBitmap(bitmap, width, height);
+    }
+
+    private Bitmap createScaledBitmap(Bitmap bitmap, int width, int height)
+    {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if( width == bitmap.getWidth() && height == bitmap.getHeight() )    return bitmap;
+
+        long start = BitmapUtils.startStage(eventListener);
+        Bitmap scaledBitmap;
+        if( BitmapUtils.canDownscale(downscaler, bitmap, width, height) ){
+            scaledBitmap = BitmapUtils.downscale(downscaler, bitmapPool, bitmap, width, height);
+        } else {
+            Matrix matrix = new Matrix();
+            matrix.postScale((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+            scaledBitmap = BitmapUtils.createBitmap(bitmapPool, bitmap, matrix, width, height, true);
+        }
+        BitmapUtils.endStage(eventListener, BitmapEventListener.Stage.SCALE, start);
+        return memoryGovernor.track(scaledBitmap);
     }
 
     /**
@@ -434,20 +1549,161 @@ public class BitmapManager extends FileManager{
      * @return real path of uri
      */
     public String getRealPath(Uri uri) {
-        Cursor cursor = null;
-        try {
-            String[] proj = { MediaStore.Images.Media.DATA };
-            cursor = context.getContentResolver().query(uri, proj, null, null, null);
-            int column_index = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-            cursor.moveToFirst();
-            String path = cursor.getString(column_index);
-            return path;
-        } catch (Exception e){
-            return uri.getPath();
-        } finally{
-            if (cursor != null) {
-                cursor.close();
-            }
+        String path = metadataResolver.resolve(uri).getPath();
+        return path != null? path: uri.getPath();
+    }
+
+    public static class Builder extends FileManager.Builder {
+
+        private int memoryCacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        private long diskCacheSize = BitmapCache.DEFAULT_DISK_CACHE_SIZE;
+        private int poolSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+        private int decodeThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        private int encodeThreads = 1;
+        private int maxTileDecoders = TileDecoder.DEFAULT_MAX_DECODERS;
+        private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+        private long largeDecodeBytes = MemoryGovernor.DEFAULT_LARGE_DECODE_BYTES;
+        private ConfigPolicy configPolicy = ConfigPolicy.DEFAULT;
+        private BitmapEventListener eventListener;
+        private Downscaler.Filter downscaleFilter;
+
+        /**
+         * @param context of application
+         */
+        public Builder(Context context)
+        {
+            super(context);
+        }
+
+        @Override
+        public Builder rootExt(String path)
+        {
+            super.rootExt(path);
+            return this;
+        }
+
+        @Override
+        public Builder rootInt(String path)
+        {
+            super.rootInt(path);
+            return this;
+        }
+
+        @Override
+        public Builder fileCopier(FileCopier fileCopier)
+        {
+            super.fileCopier(fileCopier);
+            return this;
+        }
+
+        /**
+         * @param bytes of memory tier of cache, default is 1/8 of max heap
+         */
+        public Builder memoryCacheSize(int bytes)
+        {
+            if( bytes <= 0 )    throw new IllegalArgumentException("bytes must be positive");
+            this.memoryCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes of disk tier of cache, 0 for disable, default is {@link BitmapCache#DEFAULT_DISK_CACHE_SIZE}
+         */
+        public Builder diskCacheSize(long bytes)
+        {
+            if( bytes < 0 )     throw new IllegalArgumentException("bytes must not be negative");
+            this.diskCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes of bitmap pool, default is 1/16 of max heap
+         */
+        public Builder poolSize(int bytes)
+        {
+            if( bytes < 0 )     throw new IllegalArgumentException("bytes must not be negative");
+            this.poolSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param threadCount of asynchronous request, default is number of processor
+         */
+        public Builder decodeThreads(int threadCount)
+        {
+            if( threadCount <= 0 )  throw new IllegalArgumentException("threadCount must be positive");
+            this.decodeThreads = threadCount;
+            return this;
+        }
+
+        /**
+         * @param threadCount of asynchronous save, default is 1
+         */
+        public Builder encodeThreads(int threadCount)
+        {
+            if( threadCount <= 0 )  throw new IllegalArgumentException("threadCount must be positive");
+            this.encodeThreads = threadCount;
+            return this;
+        }
+
+        /**
+         * @param maxDecoders of tile which are kept open, default is {@link TileDecoder#DEFAULT_MAX_DECODERS}
+         */
+        public Builder maxTileDecoders(int maxDecoders)
+        {
+            if( maxDecoders <= 0 )  throw new IllegalArgumentException("maxDecoders must be positive");
+            this.maxTileDecoders = maxDecoders;
+            return this;
+        }
+
+        /**
+         * @param budgetBytes which large decodes can allocate at the same time, default is 1/4 of max heap
+         * @param largeDecodeBytes decode which is at least this size is throttled, default is {@link MemoryGovernor#DEFAULT_LARGE_DECODE_BYTES}
+         */
+        public Builder memoryBudget(long budgetBytes, long largeDecodeBytes)
+        {
+            if( budgetBytes <= 0 || largeDecodeBytes < 0 )  throw new IllegalArgumentException("budgetBytes must be positive");
+            this.memoryBudget = budgetBytes;
+            this.largeDecodeBytes = largeDecodeBytes;
+            return this;
+        }
+
+        /**
+         * @param policy which pick bitmap config of every decode, e.g. RGB_565 for display of opaque image,
+         *               default is {@link ConfigPolicy#DEFAULT}
+         */
+        public Builder configPolicy(ConfigPolicy policy)
+        {
+            if( policy == null )    throw new IllegalArgumentException("policy must not be null");
+            this.configPolicy = policy;
+            return this;
+        }
+
+        /**
+         * @param listener of every stage of decode, transform and save, e.g. {@link BitmapMetrics},
+         *                 stage is not timed while listener is null
+         */
+        public Builder eventListener(BitmapEventListener listener)
+        {
+            this.eventListener = listener;
+            return this;
+        }
+
+        /**
+         * Reduce bitmap of scale methods by pure Java filter which every source pixel contributes to, instead of native bilinear draw.
+         * Pixels are copied to heap so only source up to 2 megapixels is reduced by it, larger one use native filter.
+         * @param filter which reduce bitmap of scale methods, default is null for native filter only
+         */
+        public Builder downscaleFilter(Downscaler.Filter filter)
+        {
+            this.downscaleFilter = filter;
+            return this;
+        }
+
+        @Override
+        public BitmapManager build( )
+        {
+            return new BitmapManager(this);
         }
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.net.Uri;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Listener which aggregate every event into histograms and counters.
+ * Set it by {@link BitmapManager.Builder#eventListener(BitmapEventListener)} then export {@link #snapshot()}.
+ */
+public class BitmapMetrics implements BitmapEventListener {
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final Map<Stage, Histogram> stageNanos = new EnumMap<>(Stage.class);
+    private final AtomicLongArray failures = new AtomicLongArray(STAGES.length);
+    private final Histogram sampleSizes = new Histogram();
+    private final Histogram bitmapBytes = new Histogram();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    public BitmapMetrics( )
+    {
+        for (Stage stage : STAGES) {
+            stageNanos.put(stage, new Histogram());
+        }
+    }
+
+    @Override
+    public void onStage(Stage stage, long nanos) {
+        stageNanos.get(stage).record(nanos);
+    }
+
+    @Override
+    public void onDecode(int sampleSize, long bytes) {
+        sampleSizes.record(sampleSize);
+        bitmapBytes.record(bytes);
+    }
+
+    @Override
+    public void onBytesRead(long bytes) {
+        bytesRead.addAndGet(bytes);
+    }
+
+    @Override
+    public void onBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    @Override
+    public void onCache(boolean hit) {
+        (hit? cacheHits: cacheMisses).incrementAndGet();
+    }
+
+    @Override
+    public void onFailure(Stage stage, Uri uri, Exception e) {
+        failures.incrementAndGet(stage.ordinal());
+    }
+
+    /**
+     * @return copy of every histogram and counter
+     */
+    public Snapshot snapshot( )
+    {
+        Map<Stage, Histogram.Snapshot> stages = new EnumMap<>(Stage.class);
+        long[] failureCounts = new long[STAGES.length];
+        for (Stage stage : STAGES) {
+            stages.put(stage, stageNanos.get(stage).snapshot());
+            failureCounts[stage.ordinal()] = failures.get(stage.ordinal());
+        }
+        return new Snapshot(stages, failureCounts, sampleSizes.snapshot(), bitmapBytes.snapshot(),
+                bytesRead.get(), bytesWritten.get(), cacheHits.get(), cacheMisses.get());
+    }
+
+    public void reset( )
+    {
+        for (Stage stage : STAGES) {
+            stageNanos.get(stage).reset();
+            failures.set(stage.ordinal(), 0);
+        }
+        sampleSizes.reset();
+        bitmapBytes.reset();
+        bytesRead.set(0);
+        bytesWritten.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+    }
+
+    public static final class Snapshot {
+
+        private final Map<Stage, Histogram.Snapshot> stages;
+        private final long[] failures;
+        private final Histogram.Snapshot sampleSizes;
+        private final Histogram.Snapshot bitmapBytes;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long cacheHits;
+        private final long cacheMisses;
+
+        private Snapshot(Map<Stage, Histogram.Snapshot> stages, long[] failures, Histogram.Snapshot sampleSizes, Histogram.Snapshot bitmapBytes,
+                         long bytesRead, long bytesWritten, long cacheHits, long cacheMisses)
+        {
+            this.stages = stages;
+            this.failures = failures;
+            this.sampleSizes = sampleSizes;
+            this.bitmapBytes = bitmapBytes;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+        }
+
+        /**
+         * @param stage of request
+         * @return elapsed time of stage in nanoseconds
+         */
+        public Histogram.Snapshot getStage(Stage stage)
+        {
+            return stages.get(stage);
+        }
+
+        public long getFailureCount(Stage stage)
+        {
+            return failures[stage.ordinal()];
+        }
+
+        /**
+         * @return inSampleSize of every decode
+         */
+        public Histogram.Snapshot getSampleSizes( )
+        {
+            return sampleSizes;
+        }
+
+        /**
+         * @return allocation of every decoded bitmap in bytes
+         */
+        public Histogram.Snapshot getBitmapBytes( )
+        {
+            return bitmapBytes;
+        }
+
+        public long getBytesRead( )
+        {
+            return bytesRead;
+        }
+
+        public long getBytesWritten( )
+        {
+            return bytesWritten;
+        }
+
+        public long getCacheHits( )
+        {
+            return cacheHits;
+        }
+
+        public long getCacheMisses( )
+        {
+            return cacheMisses;
+        }
+
+        /**
+         * @return one line per stage and counter, e.g. to write into log or report
+         */
+        @Override
+        public String toString( )
+        {
+            StringBuilder builder = new StringBuilder();
+            for (Stage stage : STAGES) {
+                Histogram.Snapshot snapshot = stages.get(stage);
+                if( snapshot.getCount() == 0 && failures[stage.ordinal()] == 0 )    continue;
+                builder.append(stage).append(" ns: ").append(snapshot)
+                        .append(" failure=").append(failures[stage.ordinal()]).append('\n');
+            }
+            builder.append("sampleSize: ").append(sampleSizes).append('\n');
+            builder.append("bitmapBytes: ").append(bitmapBytes).append('\n');
+            builder.append("bytesRead=").append(bytesRead).append(" bytesWritten=").append(bytesWritten)
+                    .append(" cacheHits=").append(cacheHits).append(" cacheMisses=").append(cacheMisses);
+            return builder.toString();
+        }
+    }
+}
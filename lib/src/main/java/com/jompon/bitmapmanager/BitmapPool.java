@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmap which is bucketed by config and size and budgeted by bytes.
+ * Bitmap of pool is reused as {@link BitmapFactory.Options#inBitmap} of decoder
+ * and as destination of transform so steady state does not allocate new pixels.
+ * Since KitKat, bitmap which is big enough can be reconfigured to any smaller size,
+ * before that only bitmap of exactly same size can be reused.
+ */
+public class BitmapPool {
+
+    // do not reuse bitmap which is much bigger than request, it waste memory until it is released
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final Map<Bitmap.Config, TreeMap<Long, ArrayDeque<Bitmap>>> buckets = new HashMap<>();
+    private final LinkedHashSet<Bitmap> order = new LinkedHashSet<>();
+    private final int maxSize;
+    private int currentSize;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * Create pool which use 1/16 of max heap.
+     */
+    public BitmapPool( )
+    {
+        this((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16));
+    }
+
+    /**
+     * @param maxSize of pool in bytes
+     */
+    public BitmapPool(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    private static boolean canReconfigure( )
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config)
+    {
+        if( config == Bitmap.Config.ALPHA_8 )   return 1;
+        if( config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444 )  return 2;
+        return 4;
+    }
+
+    private static long getSizeKey(int width, int height, Bitmap.Config config)
+    {
+        if( canReconfigure() )  return (long) width * height * getBytesPerPixel(config);
+        return ((long) width << 32) | height;
+    }
+
+    private static long getSizeKey(Bitmap bitmap)
+    {
+        if( canReconfigure() )  return BitmapUtils.getByteCount(bitmap);
+        return ((long) bitmap.getWidth() << 32) | bitmap.getHeight();
+    }
+
+    /**
+     * Get bitmap which is cleared to transparent, new bitmap is created when pool has no suitable one.
+     * @param width of bitmap
+     * @param height of bitmap
+     * @param config of bitmap, ARGB_8888 if null
+     * @return mutable bitmap of defined size
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config)
+    {
+        if( config == null )    config = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = getDirty(width, height, config);
+        if( bitmap != null ){
+            bitmap.eraseColor(Color.TRANSPARENT);
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Get bitmap which still contains old pixels, e.g. for decoder which overwrite every pixel.
+     * @param width of bitmap
+     * @param height of bitmap
+     * @param config of bitmap, ARGB_8888 if null
+     * @return mutable bitmap of defined size or null if pool has no suitable one
+     */
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config)
+    {
+        if( config == null )    config = Bitmap.Config.ARGB_8888;
+        TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+        long required = getSizeKey(width, height, config);
+        Long key = null;
+        if( sizes != null ){
+            if( canReconfigure() ){
+                key = sizes.ceilingKey(required);
+                if( key != null && key > required * MAX_SIZE_MULTIPLE )     key = null;
+            }else if( sizes.containsKey(required) ){
+                key = required;
+            }
+        }
+        if( key == null ){
+            missCount++;
+            return null;
+        }
+
+        ArrayDeque<Bitmap> bitmaps = sizes.get(key);
+        Bitmap bitmap = bitmaps.removeLast();
+        if( bitmaps.isEmpty() )     sizes.remove(key);
+        order.remove(bitmap);
+        currentSize -= BitmapUtils.getByteCount(bitmap);
+        hitCount++;
+
+        if( bitmap.getWidth() != width || bitmap.getHeight() != height || bitmap.getConfig() != config )
+            bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * Set {@link BitmapFactory.Options#inBitmap} by bitmap of pool which can hold decoded result.
+     * @param options of decoder which inSampleSize and inPreferredConfig are already defined
+     * @param outWidth of source image
+     * @param outHeight of source image
+     */
+    public void applyInBitmap(BitmapFactory.Options options, int outWidth, int outHeight)
+    {
+        options.inMutable = true;
+        int sampleSize = Math.max(1, options.inSampleSize);
+        // before KitKat decoder can reuse only when it does not sample or scale
+        boolean scaled = options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0;
+        if( !canReconfigure() && (sampleSize != 1 || scaled) )  return;
+
+        // decoder can round sample size down to power of 2 so prepare for biggest result
+        sampleSize = Integer.highestOneBit(sampleSize);
+        int width = (outWidth + sampleSize - 1) / sampleSize;
+        int height = (outHeight + sampleSize - 1) / sampleSize;
+        if( scaled ){
+            float scale = options.inTargetDensity / (float) options.inDensity;
+            width = (int) (width * scale + 0.5f);
+            height = (int) (height * scale + 0.5f);
+        }
+        Bitmap.Config config = options.inPreferredConfig;
+        options.inBitmap = getDirty(width, height, config == null? Bitmap.Config.ARGB_8888: config);
+    }
+
+    /**
+     * Return bitmap to pool, bitmap which cannot be reused is recycled.
+     * Caller must not use bitmap after it was put.
+     * @param bitmap source
+     */
+    public synchronized void put(Bitmap bitmap)
+    {
+        if( bitmap == null || bitmap.isRecycled() || order.contains(bitmap) )     return;
+        int size = BitmapUtils.getByteCount(bitmap);
+        Bitmap.Config config = bitmap.getConfig();
+        if( !bitmap.isMutable() || config == null || size > maxSize ){
+            bitmap.recycle();
+            return;
+        }
+
+        TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(config);
+        if( sizes == null ){
+            sizes = new TreeMap<>();
+            buckets.put(config, sizes);
+        }
+        long key = getSizeKey(bitmap);
+        ArrayDeque<Bitmap> bitmaps = sizes.get(key);
+        if( bitmaps == null ){
+            bitmaps = new ArrayDeque<>();
+            sizes.put(key, bitmaps);
+        }
+        bitmaps.addLast(bitmap);
+        order.add(bitmap);
+        currentSize += size;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Recycle least recently put bitmap until size of pool is not over defined size.
+     * @param size in bytes
+     */
+    public synchronized void trimToSize(int size)
+    {
+        Iterator<Bitmap> iterator = order.iterator();
+        while (currentSize > size && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            TreeMap<Long, ArrayDeque<Bitmap>> sizes = buckets.get(bitmap.getConfig());
+            long key = getSizeKey(bitmap);
+            ArrayDeque<Bitmap> bitmaps = sizes.get(key);
+            bitmaps.remove(bitmap);
+            if( bitmaps.isEmpty() )     sizes.remove(key);
+
+            currentSize -= BitmapUtils.getByteCount(bitmap);
+            evictionCount++;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Recycle every bitmap of pool.
+     */
+    public void clear( )
+    {
+        trimToSize(0);
+    }
+
+    public synchronized int getSize( )
+    {
+        return currentSize;
+    }
+
+    public synchronized int getMaxSize( )
+    {
+        return maxSize;
+    }
+
+    public synchronized int getHitCount( )
+    {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount( )
+    {
+        return missCount;
+    }
+
+    public synchronized int getEvictionCount( )
+    {
+        return evictionCount;
+    }
+}
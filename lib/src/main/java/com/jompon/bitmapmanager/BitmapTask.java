@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous request of {@link BitmapExecutor}.
+ * It is ordered by priority then by submitted order.
+ * @param <T> type of result
+ */
+public class BitmapTask<T> extends FutureTask<T> implements Comparable<BitmapTask<?>> {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final Priority priority;
+    private final long sequence;
+    private final Object tag;
+    private final BitmapCallback<T> callback;
+    private BitmapExecutor executor;
+
+    BitmapTask(Callable<T> callable, Priority priority, Object tag, BitmapCallback<T> callback)
+    {
+        super(callable);
+        this.priority = priority == null? Priority.NORMAL: priority;
+        this.sequence = SEQUENCE.getAndIncrement();
+        this.tag = tag;
+        this.callback = callback;
+    }
+
+    void setExecutor(BitmapExecutor executor)
+    {
+        this.executor = executor;
+    }
+
+    public Priority getPriority( )
+    {
+        return priority;
+    }
+
+    public Object getTag( )
+    {
+        return tag;
+    }
+
+    @Override
+    public int compareTo(BitmapTask<?> another) {
+        if( priority != another.priority )      return another.priority.ordinal() - priority.ordinal();
+        return sequence < another.sequence? -1: (sequence == another.sequence? 0: 1);
+    }
+
+    @Override
+    protected void done( ) {
+        if( executor != null )      executor.onTaskDone(this);
+        if( callback == null || isCancelled() )     return;
+
+        T result = null;
+        Exception exception = null;
+        try {
+            result = get();
+        } catch (CancellationException e) {
+            return;
+        } catch (InterruptedException e) {
+            exception = e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            exception = cause instanceof Exception? (Exception) cause: e;
+        }
+
+        final T finalResult = result;
+        final Exception finalException = exception;
+        MAIN_HANDLER.post(new Runnable() {
+            @Override
+            public void run() {
+                // request may be cancelled after it was finished but before it was delivered
+                if( isCancelled() )     return;
+                if( finalException == null )    callback.onSuccess(finalResult);
+                else                            callback.onFailure(finalException);
+            }
+        });
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+final class BitmapUtils {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    // pixels of source, temp and output are all on heap, e.g. 8MB for source of this size
+    static final int MAX_DOWNSCALE_PIXELS = 2 * 1024 * 1024;
+
+    private BitmapUtils( ) { }
+
+    /**
+     * Get number of bytes that bitmap really hold in memory.
+     * @param bitmap source
+     * @return allocated bytes of bitmap
+     */
+    static int getByteCount(Bitmap bitmap)
+    {
+        if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT )
+            return bitmap.getAllocationByteCount();
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Estimate bytes of bitmap which decoder will allocate.
+     * @param bounds of image which contains outWidth and outHeight
+     * @param options of decoder which contains sample size, density and config
+     * @return estimated bytes of decoded bitmap
+     */
+    static long estimateByteCount(BitmapFactory.Options bounds, BitmapFactory.Options options)
+    {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        double width = (bounds.outWidth + sampleSize - 1) / sampleSize;
+        double height = (bounds.outHeight + sampleSize - 1) / sampleSize;
+        if( options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0 ){
+            double scale = (double) options.inTargetDensity / options.inDensity;
+            width *= scale;
+            height *= scale;
+        }
+        int bytesPerPixel = options.inPreferredConfig == Bitmap.Config.RGB_565? 2: 4;
+        return (long) Math.ceil(width) * (long) Math.ceil(height) * bytesPerPixel;
+    }
+
+    /**
+     * Start time of stage, clock is not read while no listener is set.
+     * @param listener of event, can be null
+     * @return start time in nanoseconds or 0
+     */
+    static long startStage(BitmapEventListener listener)
+    {
+        return listener != null? System.nanoTime(): 0;
+    }
+
+    /**
+     * Report elapsed time of stage which was started by {@link #startStage(BitmapEventListener)}.
+     * @param listener of event, can be null
+     * @param stage which was finished
+     * @param start time in nanoseconds
+     */
+    static void endStage(BitmapEventListener listener, BitmapEventListener.Stage stage, long start)
+    {
+        if( listener != null && start != 0 )    listener.onStage(stage, System.nanoTime() - start);
+    }
+
+    /**
+     * Same as {@link Bitmap#createBitmap(Bitmap, int, int, int, int, Matrix, boolean)}
+     * of whole source but destination is taken from pool.
+     * @param pool of destination bitmap
+     * @param source bitmap
+     * @param matrix which is applied to source
+     * @param filter true if source should be filtered
+     * @return transformed bitmap or source itself if matrix is identity
+     */
+    static Bitmap createBitmap(BitmapPool pool, Bitmap source, Matrix matrix, boolean filter)
+    {
+        if( matrix.isIdentity() )   return source;
+
+        RectF dstRect = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(dstRect);
+        int width = Math.max(1, Math.round(dstRect.width()));
+        int height = Math.max(1, Math.round(dstRect.height()));
+        return createBitmap(pool, source, matrix, width, height, filter);
+    }
+
+    /**
+     * Draw source by matrix into destination of defined size which is taken from pool,
+     * matrix is translated so mapped source start at origin of destination.
+     * @param pool of destination bitmap
+     * @param source bitmap
+     * @param matrix which is applied to source
+     * @param width of destination
+     * @param height of destination
+     * @param filter true if source should be filtered
+     * @return transformed bitmap
+     */
+    static Bitmap createBitmap(BitmapPool pool, Bitmap source, Matrix matrix, int width, int height, boolean filter)
+    {
+        RectF dstRect = new RectF(0, 0, source.getWidth(), source.getHeight());
+        matrix.mapRect(dstRect);
+        Matrix drawMatrix = new Matrix(matrix);
+        drawMatrix.postTranslate(-dstRect.left, -dstRect.top);
+
+        Bitmap.Config config = source.getConfig();
+        boolean transformed = !matrix.rectStaysRect();
+        if( config == null || (transformed && config != Bitmap.Config.ARGB_8888) )
+            config = Bitmap.Config.ARGB_8888;
+
+        Bitmap bitmap = pool.get(width, height, config);
+        bitmap.setHasAlpha(transformed || source.hasAlpha());
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawBitmap(source, drawMatrix, filter? new Paint(Paint.FILTER_BITMAP_FLAG): null);
+        canvas.setBitmap(null);
+        return bitmap;
+    }
+
+    /**
+     * Reduce bitmap by {@link Downscaler} so every source pixel contributes to output, unlike single bilinear draw.
+     * @param downscaler of pixels
+     * @param pool of destination bitmap
+     * @param source bitmap which is not HARDWARE
+     * @param width of destination, not larger than source
+     * @param height of destination, not larger than source
+     * @return reduced bitmap
+     */
+    static Bitmap downscale(Downscaler downscaler, BitmapPool pool, Bitmap source, int width, int height)
+    {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int[] pixels = new int[sourceWidth * sourceHeight];
+        source.getPixels(pixels, 0, sourceWidth, 0, 0, sourceWidth, sourceHeight);
+        int[] output = downscaler.scale(pixels, sourceWidth, sourceHeight, width, height);
+
+        Bitmap.Config config = source.getConfig();
+        if( config == null )    config = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = pool.get(width, height, config);
+        bitmap.setHasAlpha(source.hasAlpha());
+        bitmap.setPixels(output, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * @param downscaler of pixels, null if it is disabled
+     * @param source bitmap
+     * @param width of destination
+     * @param height of destination
+     * @return true if pixels of source can be read, source is small enough to be copied to heap
+     *          and destination is not larger on any side
+     */
+    static boolean canDownscale(Downscaler downscaler, Bitmap source, int width, int height)
+    {
+        return downscaler != null && (long) source.getWidth() * source.getHeight() <= MAX_DOWNSCALE_PIXELS
+                && width <= source.getWidth() && height <= source.getHeight()
+                && (width < source.getWidth() || height < source.getHeight())
+                && !ConfigPolicy.isHardware(source.getConfig());
+    }
+
+    /**
+     * @param format of file
+     * @return extension of file name including dot
+     */
+    static String getExtension(Bitmap.CompressFormat format)
+    {
+        switch (format) {
+            case PNG:
+                return ".png";
+            case WEBP:
+                return ".webp";
+            default:
+                return ".jpg";
+        }
+    }
+
+    /**
+     * Hash text to hex string that safe to use as file name.
+     * @param text source
+     * @return md5 hex of text
+     */
+    static String md5(String text)
+    {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8"));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[digest[i] & 0x0f];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(text.hashCode());
+        } catch (IOException e) {
+            return Integer.toHexString(text.hashCode());
+        }
+    }
+
+    static void closeQuietly(Closeable closeable)
+    {
+        if( closeable == null )     return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) { }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Policy which pick smallest suitable bitmap config of decode by purpose of bitmap.
+ * DISPLAY can use RGB_565 for opaque image and HARDWARE on API 26+ when bitmap is not drawn into,
+ * EDIT and ENCODE always use mutable ARGB_8888 so no color is lost.
+ * Default policy decode everything as ARGB_8888, same as BitmapFactory.
+ * Policy is immutable so one instance can be shared by many managers.
+ */
+public final class ConfigPolicy {
+
+    public enum Purpose {
+        /** bitmap is only shown, e.g. list and preview */
+        DISPLAY,
+        /** bitmap is drawn into or its pixels are modified */
+        EDIT,
+        /** bitmap is compressed to file */
+        ENCODE
+    }
+
+    public static final ConfigPolicy DEFAULT = new Builder().build();
+
+    private final boolean allowRgb565;
+    private final boolean allowHardware;
+    private final Purpose defaultPurpose;
+
+    private ConfigPolicy(Builder builder)
+    {
+        this.allowRgb565 = builder.allowRgb565;
+        this.allowHardware = builder.allowHardware;
+        this.defaultPurpose = builder.defaultPurpose;
+    }
+
+    /**
+     * Get config of decode.
+     * @param purpose of bitmap, null for default purpose of policy
+     * @param mimeType of image, e.g. outMimeType of bounds
+     * @param software true if bitmap will be drawn by canvas, e.g. rotate or scale, so HARDWARE cannot be used
+     * @return config of decoder
+     */
+    public Bitmap.Config select(Purpose purpose, String mimeType, boolean software)
+    {
+        if( purpose == null )   purpose = defaultPurpose;
+        if( purpose != Purpose.DISPLAY )    return Bitmap.Config.ARGB_8888;
+
+        if( allowHardware && !software && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O )
+            return Bitmap.Config.HARDWARE;
+        // only jpeg is known to be opaque before pixels are decoded
+        if( allowRgb565 && "image/jpeg".equals(mimeType) )  return Bitmap.Config.RGB_565;
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Set config of decoder.
+     * @param options of decoder
+     * @param purpose of bitmap, null for default purpose of policy
+     * @param mimeType of image
+     * @param software true if bitmap will be drawn by canvas
+     */
+    public void apply(BitmapFactory.Options options, Purpose purpose, String mimeType, boolean software)
+    {
+        options.inPreferredConfig = select(purpose, mimeType, software);
+    }
+
+    /**
+     * Get bytes which decoded bitmap save from heap compared with ARGB_8888.
+     * @param bitmap which was decoded by config of policy
+     * @return saved bytes, 0 for null
+     */
+    public static long getSavedBytes(Bitmap bitmap)
+    {
+        if( bitmap == null )    return 0;
+        long argbBytes = 4L * bitmap.getWidth() * bitmap.getHeight();
+        // pixels of hardware bitmap are only in graphic memory
+        if( isHardware(bitmap.getConfig()) )    return argbBytes;
+        return Math.max(0, argbBytes - BitmapUtils.getByteCount(bitmap));
+    }
+
+    public boolean isAllowRgb565( )
+    {
+        return allowRgb565;
+    }
+
+    public boolean isAllowHardware( )
+    {
+        return allowHardware;
+    }
+
+    /**
+     * @return purpose of request which does not define its own
+     */
+    public Purpose getDefaultPurpose( )
+    {
+        return defaultPurpose;
+    }
+
+    /**
+     * @return key of every choice which can change decoded config, e.g. to tell apart shared requests
+     */
+    String key( )
+    {
+        return (allowRgb565? "565": "") + (allowHardware? "hw": "") + ':' + defaultPurpose;
+    }
+
+    static boolean isHardware(Bitmap.Config config)
+    {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && config == Bitmap.Config.HARDWARE;
+    }
+
+    public static class Builder {
+
+        private boolean allowRgb565;
+        private boolean allowHardware;
+        private Purpose defaultPurpose = Purpose.EDIT;
+
+        /**
+         * @param allowRgb565 true if opaque image for display can be decoded as RGB_565, default is false
+         */
+        public Builder allowRgb565(boolean allowRgb565)
+        {
+            this.allowRgb565 = allowRgb565;
+            return this;
+        }
+
+        /**
+         * @param allowHardware true if image for display which is not drawn into can be decoded as HARDWARE on API 26+, default is false
+         */
+        public Builder allowHardware(boolean allowHardware)
+        {
+            this.allowHardware = allowHardware;
+            return this;
+        }
+
+        /**
+         * @param purpose of request which does not define its own, default is EDIT
+         */
+        public Builder defaultPurpose(Purpose purpose)
+        {
+            if( purpose == null )   throw new IllegalArgumentException("purpose must not be null");
+            this.defaultPurpose = purpose;
+            return this;
+        }
+
+        public ConfigPolicy build( )
+        {
+            return new ConfigPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+/**
+ * Source which is opened once for both bounds probe and pixel decode.
+ * File descriptor is preferred because decoder does not move its position, byte array is decoded in place,
+ * otherwise stream is buffered and marked so it can be rewound after bounds probe.
+ * Stream which cannot be reopened is read into memory once instead of temp file.
+ */
+final class DecodeSession implements Closeable {
+
+    // bounds probe of jpeg usually read only header but big exif block can take hundreds KB
+    private static final int MARK_LIMIT = 1024 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Open stream of source again, e.g. when previous pass read over mark limit.
+     */
+    interface StreamOpener {
+
+        InputStream open( ) throws IOException;
+    }
+
+    private final Uri uri;
+    private final BitmapEventListener listener;
+    private long bytesRead;
+    private boolean decoded;
+    private StreamOpener opener;
+    private ParcelFileDescriptor parcelFileDescriptor;
+    private FileDescriptor fileDescriptor;
+    private byte[] data;
+    private int dataOffset;
+    private int dataLength;
+    private InputStream stream;
+    private BitmapFactory.Options bounds;
+    private ExifInfo exif;
+
+    private DecodeSession(Uri uri, BitmapEventListener listener)
+    {
+        this.uri = uri;
+        this.listener = listener;
+    }
+
+    /**
+     * Open uri once for decoding.
+     * @param resolver of uri
+     * @param uri of image file path
+     * @return opened session which must be closed
+     * @throws FileNotFoundException if uri cannot be opened
+     */
+    static DecodeSession open(ContentResolver resolver, Uri uri) throws FileNotFoundException
+    {
+        return open(resolver, uri, null);
+    }
+
+    /**
+     * Open uri once for decoding and report every stage to listener.
+     * @param resolver of uri
+     * @param uri of image file path
+     * @param listener of event, can be null
+     * @return opened session which must be closed
+     * @throws FileNotFoundException if uri cannot be opened
+     */
+    static DecodeSession open(final ContentResolver resolver, final Uri uri, BitmapEventListener listener) throws FileNotFoundException
+    {
+        long start = BitmapUtils.startStage(listener);
+        DecodeSession session = new DecodeSession(uri, listener);
+        ParcelFileDescriptor parcelFileDescriptor;
+        try {
+            parcelFileDescriptor = resolver.openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException e) {
+            // some provider can serve only stream
+            parcelFileDescriptor = null;
+        }
+        if( parcelFileDescriptor != null && !isSeekable(parcelFileDescriptor.getFileDescriptor()) ){
+            // pipe cannot be rewound between passes
+            BitmapUtils.closeQuietly(parcelFileDescriptor);
+            parcelFileDescriptor = null;
+        }
+        if( parcelFileDescriptor != null ){
+            session.parcelFileDescriptor = parcelFileDescriptor;
+            session.fileDescriptor = parcelFileDescriptor.getFileDescriptor();
+        } else {
+            session.opener = new StreamOpener() {
+                @Override
+                public InputStream open() throws IOException {
+                    InputStream in = resolver.openInputStream(uri);
+                    if( in == null )    throw new FileNotFoundException("Cannot open " + uri);
+                    return in;
+                }
+            };
+            try {
+                session.openStream();
+            } catch (IOException e) {
+                if( listener != null )  listener.onFailure(BitmapEventListener.Stage.OPEN, uri, e);
+                throw e instanceof FileNotFoundException? (FileNotFoundException) e: new FileNotFoundException(e.getMessage());
+            }
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.OPEN, start);
+        return session;
+    }
+
+    /**
+     * Open local file by its descriptor directly, without content resolver or stream.
+     * @param file of image
+     * @param listener of event, can be null
+     * @return opened session which must be closed
+     * @throws FileNotFoundException if file cannot be opened
+     */
+    static DecodeSession open(File file, BitmapEventListener listener) throws FileNotFoundException
+    {
+        long start = BitmapUtils.startStage(listener);
+        Uri uri = Uri.fromFile(file);
+        DecodeSession session = new DecodeSession(uri, listener);
+        try {
+            session.parcelFileDescriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+            session.fileDescriptor = session.parcelFileDescriptor.getFileDescriptor();
+        } catch (FileNotFoundException e) {
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.OPEN, uri, e);
+            throw e;
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.OPEN, start);
+        return session;
+    }
+
+    /**
+     * Open descriptor which is owned by caller, it is never closed by session.
+     * Descriptor which cannot seek, e.g. pipe, is read into memory once.
+     * @param fileDescriptor of image
+     * @param listener of event, can be null
+     * @return opened session which must be closed
+     * @throws IOException if descriptor cannot be read
+     */
+    static DecodeSession open(FileDescriptor fileDescriptor, BitmapEventListener listener) throws IOException
+    {
+        if( !isSeekable(fileDescriptor) )   return open(new FileInputStream(fileDescriptor), listener);
+        DecodeSession session = new DecodeSession(null, listener);
+        session.fileDescriptor = fileDescriptor;
+        return session;
+    }
+
+    /**
+     * Open stream which can be opened again, e.g. asset.
+     * @param opener of stream
+     * @param uri which identify source, can be null
+     * @param listener of event, can be null
+     * @return opened session which must be closed
+     * @throws IOException if stream cannot be opened
+     */
+    static DecodeSession open(StreamOpener opener, Uri uri, BitmapEventListener listener) throws IOException
+    {
+        long start = BitmapUtils.startStage(listener);
+        DecodeSession session = new DecodeSession(uri, listener);
+        session.opener = opener;
+        try {
+            session.openStream();
+        } catch (IOException e) {
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.OPEN, uri, e);
+            throw e;
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.OPEN, start);
+        return session;
+    }
+
+    /**
+     * Open encoded image in memory, it is decoded in place without copy.
+     * @param data of encoded image
+     * @param offset of image in data
+     * @param length of image
+     * @param listener of event, can be null
+     * @return opened session
+     */
+    static DecodeSession open(byte[] data, int offset, int length, BitmapEventListener listener)
+    {
+        if( offset < 0 || length < 0 || offset + length > data.length )
+            throw new IndexOutOfBoundsException("offset " + offset + " length " + length + " of " + data.length);
+        DecodeSession session = new DecodeSession(null, listener);
+        session.data = data;
+        session.dataOffset = offset;
+        session.dataLength = length;
+        return session;
+    }
+
+    /**
+     * Open stream which can be read only once, it is read into memory so every pass is single read of source.
+     * Stream is closed by this method.
+     * @param in stream of encoded image
+     * @param listener of event, can be null
+     * @return opened session
+     * @throws IOException if stream cannot be read
+     */
+    static DecodeSession open(InputStream in, BitmapEventListener listener) throws IOException
+    {
+        long start = BitmapUtils.startStage(listener);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(BUFFER_SIZE, in.available()));
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.OPEN, null, e);
+            throw e;
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.OPEN, start);
+        byte[] data = out.toByteArray();
+        return open(data, 0, data.length, listener);
+    }
+
+    static boolean isSeekable(FileDescriptor fileDescriptor)
+    {
+        try {
+            FileChannel channel = new FileInputStream(fileDescriptor).getChannel();
+            channel.position(channel.position());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void openStream( ) throws IOException
+    {
+        InputStream in = opener.open();
+        if( listener != null )  in = new CountingInputStream(in);
+        stream = new BufferedInputStream(in, BUFFER_SIZE);
+        stream.mark(MARK_LIMIT);
+    }
+
+    /**
+     * Read dimension and mime type of image without allocate pixels.
+     * Result is kept so it is read only once per session.
+     * @return options which contains outWidth, outHeight and outMimeType
+     * @throws IOException if source cannot be read
+     */
+    BitmapFactory.Options decodeBounds( ) throws IOException
+    {
+        if( bounds != null )    return bounds;
+
+        long start = BitmapUtils.startStage(listener);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeInternal(options);
+        if( options.outWidth <= 0 || options.outHeight <= 0 ){
+            IOException e = new IOException("Cannot decode bounds of " + uri);
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.BOUNDS, uri, e);
+            throw e;
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.BOUNDS, start);
+        bounds = options;
+        return bounds;
+    }
+
+    /**
+     * Read exif orientation and thumbnail from header of image without ExifInterface or real path.
+     * Result is kept so it is read only once per session.
+     * @return exif of image
+     * @throws IOException if source cannot be read
+     */
+    ExifInfo readExif( ) throws IOException
+    {
+        if( exif != null )  return exif;
+
+        if( data != null ){
+            exif = ExifReader.read(new ByteArrayInputStream(data, dataOffset, dataLength));
+        } else if( fileDescriptor != null ){
+            // descriptor is not owned by this stream so it must not be closed
+            FileInputStream in = new FileInputStream(fileDescriptor);
+            FileChannel channel = in.getChannel();
+            long position = channel.position();
+            try {
+                exif = ExifReader.read(new BufferedInputStream(in, BUFFER_SIZE));
+            } finally {
+                channel.position(position);
+            }
+        } else {
+            rewind();
+            exif = ExifReader.read(stream);
+        }
+        return exif;
+    }
+
+    /**
+     * Decode pixels of image.
+     * @param options of decoder, inJustDecodeBounds is ignored
+     * @return bitmap or null if image cannot be decoded
+     * @throws IOException if source cannot be read
+     */
+    Bitmap decode(BitmapFactory.Options options) throws IOException
+    {
+        options.inJustDecodeBounds = false;
+        if( listener == null )  return resetDensity(decodeInternal(options), options);
+
+        long start = BitmapUtils.startStage(listener);
+        Bitmap bitmap = resetDensity(decodeInternal(options), options);
+        decoded = true;
+        if( bitmap == null ){
+            listener.onFailure(BitmapEventListener.Stage.DECODE, uri, null);
+            return null;
+        }
+        BitmapUtils.endStage(listener, BitmapEventListener.Stage.DECODE, start);
+        listener.onDecode(Math.max(1, options.inSampleSize), BitmapUtils.getByteCount(bitmap));
+        return bitmap;
+    }
+
+    /**
+     * Decode pixels of image into bitmap of pool when pool has suitable one.
+     * HARDWARE bitmap is never pooled, it is decoded as ARGB_8888 when decoder cannot create it.
+     * @param options of decoder, inJustDecodeBounds and inBitmap are ignored
+     * @param pool of bitmap
+     * @return bitmap or null if image cannot be decoded
+     * @throws IOException if source cannot be read
+     */
+    Bitmap decode(BitmapFactory.Options options, BitmapPool pool) throws IOException
+    {
+        if( ConfigPolicy.isHardware(options.inPreferredConfig) ){
+            options.inMutable = false;
+            options.inBitmap = null;
+            Bitmap bitmap = decode(options);
+            if( bitmap != null )    return bitmap;
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        }
+
+        BitmapFactory.Options bounds = decodeBounds();
+        pool.applyInBitmap(options, bounds.outWidth, bounds.outHeight);
+        try {
+            return decode(options);
+        } catch (IllegalArgumentException e) {
+            // decoder cannot reuse bitmap e.g. unsupported format, give it back and decode to new bitmap
+            if( options.inBitmap == null )  throw e;
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return decode(options);
+        }
+    }
+
+    /**
+     * Density scale is already applied to pixels, density of target is kept otherwise
+     * so drawable and view scale bitmap again, also when bitmap was reused from pool.
+     */
+    private static Bitmap resetDensity(Bitmap bitmap, BitmapFactory.Options options)
+    {
+        if( bitmap != null && options.inScaled && options.inTargetDensity > 0 )
+            bitmap.setDensity(Bitmap.DENSITY_NONE);
+        return bitmap;
+    }
+
+    private Bitmap decodeInternal(BitmapFactory.Options options) throws IOException
+    {
+        if( data != null )  return BitmapFactory.decodeByteArray(data, dataOffset, dataLength, options);
+        if( fileDescriptor != null )    return BitmapFactory.decodeFileDescriptor(fileDescriptor, null, options);
+
+        rewind();
+        return BitmapFactory.decodeStream(stream, null, options);
+    }
+
+    private void rewind( ) throws IOException
+    {
+        try {
+            stream.reset();
+        } catch (IOException e) {
+            // previous pass read over mark limit, open it again as last resort
+            BitmapUtils.closeQuietly(stream);
+            openStream();
+        }
+        stream.mark(MARK_LIMIT);
+    }
+
+    Uri getUri( )
+    {
+        return uri;
+    }
+
+    @Override
+    public void close( )
+    {
+        if( listener != null ){
+            // decoder read descriptor directly, whole file is counted once pixels were decoded
+            if( parcelFileDescriptor != null && decoded )   bytesRead += Math.max(0, parcelFileDescriptor.getStatSize());
+            if( data != null && decoded )   bytesRead += dataLength;
+            if( bytesRead > 0 )     listener.onBytesRead(bytesRead);
+            bytesRead = 0;
+        }
+        BitmapUtils.closeQuietly(stream);
+        BitmapUtils.closeQuietly(parcelFileDescriptor);
+        stream = null;
+        parcelFileDescriptor = null;
+        // descriptor of caller is never closed
+        fileDescriptor = null;
+    }
+
+    /**
+     * Count bytes which were read from source stream, including bytes which were read again after reopen.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if( b >= 0 )    bytesRead++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if( n > 0 )     bytesRead += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+}
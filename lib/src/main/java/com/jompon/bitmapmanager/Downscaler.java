@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resample ARGB pixels of int array by separable filter, horizontal pass then vertical pass.
+ * Every source pixel under output pixel contributes to it so large reduction never alias like single bilinear scale.
+ * Rows are split into strips which are processed in parallel, calling thread also works on strips
+ * so it never dead lock even when it is worker of same executor.
+ * It is pure Java so it can be tested on JVM without Android.
+ */
+public class Downscaler {
+
+    public enum Filter {
+        /** average of source area which is covered by output pixel */
+        BOX,
+        /** windowed sinc of 3 lobes, sharpest but slowest */
+        LANCZOS,
+        /** average of 2x2 pixels repeatedly until size is within twice of output, then box */
+        HALVING
+    }
+
+    private static final int LANCZOS_RADIUS = 3;
+    private static final int MIN_STRIP_ROWS = 16;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static volatile Executor sharedExecutor;
+
+    private final Filter filter;
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * Create downscaler which split work across every core by shared daemon threads.
+     * @param filter of resample
+     */
+    public Downscaler(Filter filter)
+    {
+        this(filter, getSharedExecutor(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param filter of resample
+     * @param executor which run strips beside calling thread, null for calling thread only
+     * @param parallelism number of thread which work on one image, including calling thread
+     */
+    public Downscaler(Filter filter, Executor executor, int parallelism)
+    {
+        if( filter == null )    throw new IllegalArgumentException("filter must not be null");
+        this.filter = filter;
+        this.executor = executor;
+        this.parallelism = executor == null? 1: Math.max(1, parallelism);
+    }
+
+    public Filter getFilter( )
+    {
+        return filter;
+    }
+
+    private static Executor getSharedExecutor( )
+    {
+        Executor executor = sharedExecutor;
+        if( executor == null ){
+            synchronized (Downscaler.class) {
+                executor = sharedExecutor;
+                if( executor == null ){
+                    int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors());
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    sharedExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Resample pixels into new array.
+     * @param pixels of source in ARGB, row by row
+     * @param width of source
+     * @param height of source
+     * @param dstWidth of output
+     * @param dstHeight of output
+     * @return pixels of output in ARGB, row by row
+     */
+    public int[] scale(int[] pixels, int width, int height, int dstWidth, int dstHeight)
+    {
+        int[] output = new int[dstWidth * dstHeight];
+        scale(pixels, width, height, output, dstWidth, dstHeight);
+        return output;
+    }
+
+    /**
+     * Resample pixels into output array.
+     * @param pixels of source in ARGB, row by row, it is not modified
+     * @param width of source
+     * @param height of source
+     * @param output of at least dstWidth * dstHeight pixels
+     * @param dstWidth of output
+     * @param dstHeight of output
+     */
+    public void scale(int[] pixels, int width, int height, int[] output, int dstWidth, int dstHeight)
+    {
+        if( width <= 0 || height <= 0 || dstWidth <= 0 || dstHeight <= 0 )
+            throw new IllegalArgumentException("size must be positive");
+        if( pixels.length < width * height || output.length < dstWidth * dstHeight )
+            throw new IllegalArgumentException("pixels are fewer than size");
+
+        // colors are averaged by their alpha so transparent pixel never bleed its color
+        boolean opaque = isOpaque(pixels, width * height);
+        int[] source = opaque? pixels: premultiply(pixels, width * height);
+        int sourceWidth = width;
+        int sourceHeight = height;
+        Filter resample = filter;
+        if( filter == Filter.HALVING ){
+            while (sourceWidth >= dstWidth * 2 && sourceHeight >= dstHeight * 2) {
+                source = halve(source, sourceWidth, sourceHeight);
+                sourceWidth /= 2;
+                sourceHeight /= 2;
+            }
+            resample = Filter.BOX;
+        }
+
+        if( sourceWidth == dstWidth && sourceHeight == dstHeight ){
+            System.arraycopy(source, 0, output, 0, dstWidth * dstHeight);
+        } else {
+            Kernel horizontal = Kernel.create(resample, sourceWidth, dstWidth);
+            Kernel vertical = Kernel.create(resample, sourceHeight, dstHeight);
+            int[] temp = new int[dstWidth * sourceHeight];
+            resampleRows(source, sourceWidth, sourceHeight, temp, dstWidth, horizontal);
+            resampleColumns(temp, dstWidth, output, dstHeight, vertical);
+        }
+        if( !opaque )   unpremultiply(output, dstWidth * dstHeight);
+    }
+
+    private void resampleRows(final int[] source, final int width, final int height, final int[] output, final int dstWidth, final Kernel kernel)
+    {
+        runStrips(height, new Strip() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int row = y * width;
+                    int out = y * dstWidth;
+                    for (int x = 0; x < dstWidth; x++) {
+                        int start = kernel.start[x];
+                        int offset = x * kernel.size;
+                        float a = 0, r = 0, g = 0, b = 0;
+                        for (int k = 0; k < kernel.count[x]; k++) {
+                            int pixel = source[row + start + k];
+                            float weight = kernel.weights[offset + k];
+                            a += weight * (pixel >>> 24);
+                            r += weight * ((pixel >> 16) & 0xff);
+                            g += weight * ((pixel >> 8) & 0xff);
+                            b += weight * (pixel & 0xff);
+                        }
+                        output[out + x] = pack(a, r, g, b);
+                    }
+                }
+            }
+        });
+    }
+
+    private void resampleColumns(final int[] source, final int width, final int[] output, final int dstHeight, final Kernel kernel)
+    {
+        runStrips(dstHeight, new Strip() {
+            @Override
+            public void run(int from, int to) {
+                float[] sum = new float[width * 4];
+                for (int y = from; y < to; y++) {
+                    Arrays.fill(sum, 0);
+                    int start = kernel.start[y];
+                    int offset = y * kernel.size;
+                    // whole source row is read at once so access stay sequential
+                    for (int k = 0; k < kernel.count[y]; k++) {
+                        int row = (start + k) * width;
+                        float weight = kernel.weights[offset + k];
+                        for (int x = 0, i = 0; x < width; x++, i += 4) {
+                            int pixel = source[row + x];
+                            sum[i] += weight * (pixel >>> 24);
+                            sum[i + 1] += weight * ((pixel >> 16) & 0xff);
+                            sum[i + 2] += weight * ((pixel >> 8) & 0xff);
+                            sum[i + 3] += weight * (pixel & 0xff);
+                        }
+                    }
+                    int out = y * width;
+                    for (int x = 0, i = 0; x < width; x++, i += 4) {
+                        output[out + x] = pack(sum[i], sum[i + 1], sum[i + 2], sum[i + 3]);
+                    }
+                }
+            }
+        });
+    }
+
+    private int[] halve(final int[] source, final int width, int height)
+    {
+        final int dstWidth = width / 2;
+        final int[] output = new int[dstWidth * (height / 2)];
+        runStrips(height / 2, new Strip() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int top = y * 2 * width;
+                    int bottom = top + width;
+                    int out = y * dstWidth;
+                    for (int x = 0; x < dstWidth; x++) {
+                        int p0 = source[top + x * 2];
+                        int p1 = source[top + x * 2 + 1];
+                        int p2 = source[bottom + x * 2];
+                        int p3 = source[bottom + x * 2 + 1];
+                        int a = ((p0 >>> 24) + (p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + 2) >> 2;
+                        int r = (((p0 >> 16) & 0xff) + ((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff) + 2) >> 2;
+                        int g = (((p0 >> 8) & 0xff) + ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff) + 2) >> 2;
+                        int b = ((p0 & 0xff) + (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff) + 2) >> 2;
+                        output[out + x] = (a << 24) | (r << 16) | (g << 8) | b;
+                    }
+                }
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Split rows into strips which are claimed one by one by calling thread and helpers of executor.
+     */
+    private void runStrips(final int rows, final Strip strip)
+    {
+        int helperCount = Math.min(parallelism, rows / MIN_STRIP_ROWS) - 1;
+        if( helperCount <= 0 ){
+            strip.run(0, rows);
+            return;
+        }
+
+        final int stripRows = Math.max(MIN_STRIP_ROWS, rows / (parallelism * 4));
+        final int stripCount = (rows + stripRows - 1) / stripRows;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(stripCount);
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                int index;
+                while ((index = next.getAndIncrement()) < stripCount) {
+                    try {
+                        int from = index * stripRows;
+                        strip.run(from, Math.min(rows, from + stripRows));
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+        try {
+            for (int i = 0; i < helperCount; i++) {
+                executor.execute(worker);
+            }
+        } catch (RejectedExecutionException e) {
+            // executor was shut down, calling thread claim every strip which is left
+        }
+        worker.run();
+
+        // every strip was claimed, those of helpers are running so wait is short
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if( interrupted )   Thread.currentThread().interrupt();
+        if( failure.get() != null )     throw failure.get();
+    }
+
+    private static boolean isOpaque(int[] pixels, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            if( (pixels[i] >>> 24) != 0xff )    return false;
+        }
+        return true;
+    }
+
+    private static int[] premultiply(int[] pixels, int count)
+    {
+        int[] output = new int[count];
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            int r = ((pixel >> 16) & 0xff) * a / 255;
+            int g = ((pixel >> 8) & 0xff) * a / 255;
+            int b = (pixel & 0xff) * a / 255;
+            output[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+        return output;
+    }
+
+    private static void unpremultiply(int[] pixels, int count)
+    {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int a = pixel >>> 24;
+            if( a == 0 ){
+                pixels[i] = 0;
+            } else if( a != 0xff ){
+                int r = Math.min(255, (((pixel >> 16) & 0xff) * 255 + a / 2) / a);
+                int g = Math.min(255, (((pixel >> 8) & 0xff) * 255 + a / 2) / a);
+                int b = Math.min(255, ((pixel & 0xff) * 255 + a / 2) / a);
+                pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    /**
+     * Round and clamp channels, color is clamped to alpha because it is premultiplied and lanczos can overshoot.
+     */
+    private static int pack(float a, float r, float g, float b)
+    {
+        int alpha = clamp(a, 255);
+        return (alpha << 24) | (clamp(r, alpha) << 16) | (clamp(g, alpha) << 8) | clamp(b, alpha);
+    }
+
+    private static int clamp(float value, int max)
+    {
+        int v = (int) (value + 0.5f);
+        return v < 0? 0: (v > max? max: v);
+    }
+
+    private interface Strip {
+
+        void run(int from, int to);
+    }
+
+    /**
+     * Contribution of source pixels to every output pixel along one axis.
+     */
+    static final class Kernel {
+
+        final int[] start;
+        final int[] count;
+        final float[] weights;
+        final int size;
+
+        private Kernel(int dstSize, int size)
+        {
+            this.start = new int[dstSize];
+            this.count = new int[dstSize];
+            this.weights = new float[dstSize * size];
+            this.size = size;
+        }
+
+        static Kernel create(Filter filter, int srcSize, int dstSize)
+        {
+            double ratio = (double) srcSize / dstSize;
+            // filter is widened when it reduce so it cover every source pixel, it is kept for enlarge
+            double scale = Math.max(1, ratio);
+            double support = filter == Filter.LANCZOS? LANCZOS_RADIUS * scale: 0.5 * scale;
+            int size = (int) Math.ceil(support * 2) + 2;
+            Kernel kernel = new Kernel(dstSize, size);
+            for (int i = 0; i < dstSize; i++) {
+                double center = (i + 0.5) * ratio;
+                int left = Math.max(0, (int) Math.floor(center - support));
+                int right = Math.min(srcSize, (int) Math.ceil(center + support));
+                int offset = i * size;
+                double total = 0;
+                int n = 0;
+                for (int j = left; j < right && n < size; j++, n++) {
+                    double weight;
+                    if( filter == Filter.LANCZOS ){
+                        weight = lanczos((j + 0.5 - center) / scale);
+                    } else {
+                        // overlap of source pixel with area of output pixel
+                        weight = Math.max(0, Math.min(j + 1, center + support) - Math.max(j, center - support));
+                    }
+                    kernel.weights[offset + n] = (float) weight;
+                    total += weight;
+                }
+                if( total == 0 ){
+                    // output pixel is outside of source, e.g. rounding at edge, nearest pixel is used
+                    int nearest = Math.min(srcSize - 1, Math.max(0, (int) center));
+                    left = nearest;
+                    n = 1;
+                    kernel.weights[offset] = 1;
+                } else {
+                    for (int k = 0; k < n; k++) {
+                        kernel.weights[offset + k] /= total;
+                    }
+                }
+                kernel.start[i] = left;
+                kernel.count[i] = n;
+            }
+            return kernel;
+        }
+
+        private static double lanczos(double x)
+        {
+            if( x == 0 )    return 1;
+            if( x <= -LANCZOS_RADIUS || x >= LANCZOS_RADIUS )     return 0;
+            double pix = Math.PI * x;
+            return LANCZOS_RADIUS * Math.sin(pix) * Math.sin(pix / LANCZOS_RADIUS) / (pix * pix);
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Downscaler-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Perceptual hash of every known image keyed by uri or path with modification time of file, so hash is computed once per version.
+ * Hashes are kept in primitive arrays and searched by linear Hamming distance scan, which is fast for tens of thousands images.
+ * Index is loaded from its file on first use and written back atomically by {@link #save()}.
+ * Only one instance should use a file at a time, otherwise the last save of them replaces what the others wrote.
+ * It is pure Java so it can be tested on JVM without Android.
+ */
+public class DuplicateIndex {
+
+    private static final int MAGIC = 0x50484958;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final File file;
+    private final Map<String, Integer> positions = new HashMap<>();
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] modified = new long[INITIAL_CAPACITY];
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private int count;
+    private boolean loaded;
+    private boolean dirty;
+    private int unsavedCount;
+
+    /**
+     * @param file of index, null for memory only
+     */
+    public DuplicateIndex(File file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * @param key of image, e.g. uri
+     * @param lastModified of file when hash was computed
+     * @return true if index has hash of same version of image
+     */
+    public synchronized boolean contains(String key, long lastModified)
+    {
+        ensureLoaded();
+        Integer position = positions.get(key);
+        return position != null && modified[position] == lastModified;
+    }
+
+    /**
+     * @param key of image
+     * @return hash of image, 0 if it is not indexed
+     */
+    public synchronized long getHash(String key)
+    {
+        ensureLoaded();
+        Integer position = positions.get(key);
+        return position != null? hashes[position]: 0;
+    }
+
+    /**
+     * Add or replace hash of image.
+     * @param key of image, e.g. uri
+     * @param lastModified of file when hash was computed
+     * @param hash of image
+     */
+    public synchronized void put(String key, long lastModified, long hash)
+    {
+        ensureLoaded();
+        Integer position = positions.get(key);
+        if( position == null ){
+            if( count == keys.length )  grow();
+            position = count++;
+            keys[position] = key;
+            positions.put(key, position);
+        }
+        modified[position] = lastModified;
+        hashes[position] = hash;
+        dirty = true;
+        unsavedCount++;
+    }
+
+    /**
+     * @param key of image which was deleted or is no longer managed
+     */
+    public synchronized void remove(String key)
+    {
+        ensureLoaded();
+        Integer position = positions.remove(key);
+        if( position == null )  return;
+
+        // last entry fill the hole so arrays stay dense for scan
+        int last = --count;
+        if( position != last ){
+            keys[position] = keys[last];
+            modified[position] = modified[last];
+            hashes[position] = hashes[last];
+            positions.put(keys[position], position);
+        }
+        keys[last] = null;
+        dirty = true;
+        unsavedCount++;
+    }
+
+    /**
+     * Find every image which hash is within distance of hash.
+     * @param hash of image
+     * @param maxDistance of Hamming distance, e.g. {@link PerceptualHash#DEFAULT_MAX_DISTANCE}
+     * @return matches from nearest
+     */
+    public synchronized List<Match> findNear(long hash, int maxDistance)
+    {
+        ensureLoaded();
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int distance = Long.bitCount(hash ^ hashes[i]);
+            if( distance <= maxDistance )   matches.add(new Match(keys[i], hashes[i], distance));
+        }
+        Collections.sort(matches, new Comparator<Match>() {
+            @Override
+            public int compare(Match m1, Match m2) {
+                return m1.distance - m2.distance;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * @return number of puts and removes since index was written, e.g. to write it after batch of changes
+     */
+    public synchronized int getUnsavedCount( )
+    {
+        return unsavedCount;
+    }
+
+    public synchronized int size( )
+    {
+        ensureLoaded();
+        return count;
+    }
+
+    /**
+     * Write index to temp file of same directory, sync it then rename it over index file.
+     * Nothing is written when index was not changed.
+     * @throws IOException if file cannot be written
+     */
+    public synchronized void save( ) throws IOException
+    {
+        if( file == null || !dirty )    return;
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File temp = File.createTempFile("." + file.getName(), ".tmp", dir);
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        boolean success = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeUTF(keys[i]);
+                out.writeLong(modified[i]);
+                out.writeLong(hashes[i]);
+            }
+            out.flush();
+            fos.getFD().sync();
+            success = true;
+        } finally {
+            BitmapUtils.closeQuietly(fos);
+            if( !success )  temp.delete();
+        }
+        if( !temp.renameTo(file) ){
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + file);
+        }
+        dirty = false;
+        unsavedCount = 0;
+    }
+
+    private void ensureLoaded( )
+    {
+        if( loaded )    return;
+        loaded = true;
+        if( file == null || !file.exists() )    return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if( in.readInt() != MAGIC || in.readInt() != VERSION )  return;
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String key = in.readUTF();
+                long lastModified = in.readLong();
+                long hash = in.readLong();
+                if( count == keys.length )  grow();
+                keys[count] = key;
+                modified[count] = lastModified;
+                hashes[count] = hash;
+                positions.put(key, count++);
+            }
+        } catch (IOException e) {
+            // broken index is rebuilt by later puts, entries which were read are kept
+            dirty = true;
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+    }
+
+    private void grow( )
+    {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        modified = Arrays.copyOf(modified, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+    }
+
+    public static class Match {
+
+        private final String key;
+        private final long hash;
+        private final int distance;
+
+        Match(String key, long hash, int distance)
+        {
+            this.key = key;
+            this.hash = hash;
+            this.distance = distance;
+        }
+
+        /**
+         * @return key of image, e.g. uri
+         */
+        public String getKey( )
+        {
+            return key;
+        }
+
+        public long getHash( )
+        {
+            return hash;
+        }
+
+        /**
+         * @return number of bits which differ from searched hash
+         */
+        public int getDistance( )
+        {
+            return distance;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue which compress bitmap to file on its own worker.
+ * File is written atomically: bitmap is compressed into pooled buffer of {@link BitmapEncoder}, written to temp file
+ * of same directory, synced to disk then renamed over target, so crash while writing never corrupt target.
+ * Repeated saves of same file which are still waiting are coalesced into one write of latest bitmap.
+ */
+public class EncodeQueue {
+
+    private final BitmapExecutor executor;
+    private final BitmapEncoder encoder;
+    private final Map<String, Job> pendingJobs = new HashMap<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicInteger encodeCount = new AtomicInteger();
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+    private volatile BitmapEventListener eventListener;
+
+    public EncodeQueue( )
+    {
+        this(1);
+    }
+
+    /**
+     * @param threadCount number of worker which encode in parallel
+     */
+    public EncodeQueue(int threadCount)
+    {
+        executor = new BitmapExecutor(threadCount);
+        encoder = new BitmapEncoder();
+    }
+
+    /**
+     * Get encoder which compress every write, e.g. to encode for upload without file.
+     * @return encoder of queue
+     */
+    public BitmapEncoder getEncoder( )
+    {
+        return encoder;
+    }
+
+    /**
+     * Compress bitmap to file on worker thread.
+     * Caller must not recycle or modify bitmap until callback is called.
+     * @param file target which is replaced
+     * @param bitmap source
+     * @param format of file
+     * @param quality of image
+     * @param callback which is called on main thread, can be null
+     * @return task of write, it can be shared with coalesced request
+     */
+    public BitmapTask<File> enqueue(File file, Bitmap bitmap, Bitmap.CompressFormat format, int quality, BitmapCallback<File> callback)
+    {
+        return enqueue(file, bitmap, EncodeSpec.of(format, quality), callback);
+    }
+
+    /**
+     * Compress bitmap to file by spec on worker thread, e.g. auto format or max bytes.
+     * Caller must not recycle or modify bitmap until callback is called.
+     * @param file target which is replaced
+     * @param bitmap source
+     * @param spec of encode
+     * @param callback which is called on main thread, can be null
+     * @return task of write, it can be shared with coalesced request
+     */
+    public BitmapTask<File> enqueue(File file, Bitmap bitmap, EncodeSpec spec, BitmapCallback<File> callback)
+    {
+        String key = file.getAbsolutePath();
+        synchronized (pendingJobs) {
+            Job job = pendingJobs.get(key);
+            if( job != null ){
+                // not started yet, write only latest bitmap
+                job.bitmap = bitmap;
+                job.spec = spec;
+                if( callback != null )  job.callbacks.add(callback);
+                coalescedCount.incrementAndGet();
+                return job.task;
+            }
+
+            job = new Job(file, bitmap, spec);
+            if( callback != null )  job.callbacks.add(callback);
+            job.task = executor.submit(job, Priority.NORMAL, null, job);
+            pendingJobs.put(key, job);
+            return job.task;
+        }
+    }
+
+    /**
+     * Compress bitmap to temp file of same directory, sync it then rename it over target.
+     * @param file target which is replaced
+     * @param bitmap source
+     * @param format of file
+     * @param quality of image
+     * @return number of written bytes
+     * @throws IOException if bitmap cannot be compressed or file cannot be written
+     */
+    public long write(File file, Bitmap bitmap, Bitmap.CompressFormat format, int quality) throws IOException
+    {
+        return write(file, bitmap, EncodeSpec.of(format, quality)).getByteCount();
+    }
+
+    /**
+     * Compress bitmap by spec into buffer, write it to temp file of same directory, sync it then rename it over target.
+     * @param file target which is replaced
+     * @param bitmap source
+     * @param spec of encode
+     * @return format, quality and size of written file
+     * @throws IOException if bitmap cannot be compressed or file cannot be written
+     */
+    public EncodeResult write(File file, Bitmap bitmap, EncodeSpec spec) throws IOException
+    {
+        BitmapEventListener listener = eventListener;
+        long start = System.nanoTime();
+        // unique temp so concurrent writes of same file never mix, last rename wins
+        File temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        boolean success = false;
+        EncodeResult result;
+        try {
+            // output is written from buffer in one go so it needs no buffered stream
+            result = encoder.encode(bitmap, spec, fos);
+            fos.getFD().sync();
+            success = true;
+        } catch (IOException | RuntimeException e) {
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.COMPRESS, Uri.fromFile(file), e);
+            throw e;
+        } finally {
+            BitmapUtils.closeQuietly(fos);
+            if( !success )  temp.delete();
+        }
+
+        long length = result.getByteCount();
+        if( !temp.renameTo(file) ){
+            temp.delete();
+            IOException e = new IOException("Cannot rename " + temp + " to " + file);
+            if( listener != null )  listener.onFailure(BitmapEventListener.Stage.COMPRESS, Uri.fromFile(file), e);
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        bytesWritten.addAndGet(length);
+        encodeNanos.addAndGet(nanos);
+        encodeCount.incrementAndGet();
+        if( listener != null ){
+            listener.onStage(BitmapEventListener.Stage.COMPRESS, nanos);
+            listener.onBytesWritten(length);
+        }
+        return result;
+    }
+
+    /**
+     * @param listener which is told time and bytes of every write, null for disable
+     */
+    public void setEventListener(BitmapEventListener listener)
+    {
+        this.eventListener = listener;
+    }
+
+    /**
+     * @return number of bytes which were written by every encode
+     */
+    public long getBytesWritten( )
+    {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return number of file which were written
+     */
+    public int getEncodeCount( )
+    {
+        return encodeCount.get();
+    }
+
+    /**
+     * @return number of request which were merged into pending write of same file
+     */
+    public int getCoalescedCount( )
+    {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return written bytes per second of encode and write time
+     */
+    public double getThroughput( )
+    {
+        long nanos = encodeNanos.get();
+        if( nanos == 0 )    return 0;
+        return bytesWritten.get() * 1e9 / nanos;
+    }
+
+    public void shutdown( )
+    {
+        executor.shutdown();
+    }
+
+    private class Job implements Callable<File>, BitmapCallback<File> {
+
+        private final File file;
+        private final List<BitmapCallback<File>> callbacks = new ArrayList<>();
+        private Bitmap bitmap;
+        private EncodeSpec spec;
+        private BitmapTask<File> task;
+
+        Job(File file, Bitmap bitmap, EncodeSpec spec)
+        {
+            this.file = file;
+            this.bitmap = bitmap;
+            this.spec = spec;
+        }
+
+        @Override
+        public File call() throws Exception {
+            Bitmap bitmap;
+            EncodeSpec spec;
+            synchronized (pendingJobs) {
+                // started, next save of same file have to be new write
+                pendingJobs.remove(file.getAbsolutePath());
+                bitmap = this.bitmap;
+                spec = this.spec;
+            }
+            write(file, bitmap, spec);
+            return file;
+        }
+
+        @Override
+        public void onSuccess(File result) {
+            for (BitmapCallback<File> callback : getCallbacks()) {
+                callback.onSuccess(result);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            for (BitmapCallback<File> callback : getCallbacks()) {
+                callback.onFailure(e);
+            }
+        }
+
+        private List<BitmapCallback<File>> getCallbacks( )
+        {
+            synchronized (pendingJobs) {
+                return new ArrayList<>(callbacks);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+
+/**
+ * Format, quality and size of encoded output with number of compress pass it took.
+ */
+public class EncodeResult {
+
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private final long byteCount;
+    private final int passCount;
+    private final boolean targetMet;
+
+    EncodeResult(Bitmap.CompressFormat format, int quality, long byteCount, int passCount, boolean targetMet)
+    {
+        this.format = format;
+        this.quality = quality;
+        this.byteCount = byteCount;
+        this.passCount = passCount;
+        this.targetMet = targetMet;
+    }
+
+    public Bitmap.CompressFormat getFormat( )
+    {
+        return format;
+    }
+
+    public int getQuality( )
+    {
+        return quality;
+    }
+
+    /**
+     * @return bytes of output
+     */
+    public long getByteCount( )
+    {
+        return byteCount;
+    }
+
+    /**
+     * @return number of compress which were run to reach output
+     */
+    public int getPassCount( )
+    {
+        return passCount;
+    }
+
+    /**
+     * @return false if output is still over max bytes of spec even at min quality
+     */
+    public boolean isTargetMet( )
+    {
+        return targetMet;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return format + " q" + quality + " " + byteCount + "B in " + passCount + " pass" + (targetMet? "": " over target");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+
+/**
+ * How bitmap is encoded: format, quality and optional byte size which output must not be over.
+ * Format which is null is chosen by content and alpha of bitmap, see {@link BitmapEncoder#selectFormat(Bitmap, EncodeSpec)}.
+ */
+public final class EncodeSpec {
+
+    public static final int DEFAULT_QUALITY = 90;
+    public static final int DEFAULT_MIN_QUALITY = 30;
+
+    private final Bitmap.CompressFormat format;
+    private final int quality;
+    private final int minQuality;
+    private final long maxBytes;
+    private final boolean allowWebp;
+
+    private EncodeSpec(Builder builder)
+    {
+        this.format = builder.format;
+        this.quality = builder.quality;
+        this.minQuality = Math.min(builder.minQuality, builder.quality);
+        this.maxBytes = builder.maxBytes;
+        this.allowWebp = builder.allowWebp;
+    }
+
+    /**
+     * @param format of output, null for auto selection
+     * @param quality of image
+     * @return spec which encode once by fixed format and quality
+     */
+    public static EncodeSpec of(Bitmap.CompressFormat format, int quality)
+    {
+        return new Builder().format(format).quality(quality).build();
+    }
+
+    /**
+     * @return format of output, null if it is chosen by content of bitmap
+     */
+    public Bitmap.CompressFormat getFormat( )
+    {
+        return format;
+    }
+
+    /**
+     * @return quality of first pass, it is also highest quality of search
+     */
+    public int getQuality( )
+    {
+        return quality;
+    }
+
+    /**
+     * @return lowest quality which search can go down to
+     */
+    public int getMinQuality( )
+    {
+        return minQuality;
+    }
+
+    /**
+     * @return max bytes of output, 0 if output size is not targeted
+     */
+    public long getMaxBytes( )
+    {
+        return maxBytes;
+    }
+
+    /**
+     * @return true if auto selection can choose WEBP
+     */
+    public boolean isAllowWebp( )
+    {
+        return allowWebp;
+    }
+
+    public static class Builder {
+
+        private Bitmap.CompressFormat format;
+        private int quality = DEFAULT_QUALITY;
+        private int minQuality = DEFAULT_MIN_QUALITY;
+        private long maxBytes;
+        private boolean allowWebp;
+
+        /**
+         * @param format of output, default is null which means auto selection
+         */
+        public Builder format(Bitmap.CompressFormat format)
+        {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param quality of first pass, default is {@link #DEFAULT_QUALITY}
+         */
+        public Builder quality(int quality)
+        {
+            if( quality < 0 || quality > 100 )  throw new IllegalArgumentException("quality must be 0..100");
+            this.quality = quality;
+            return this;
+        }
+
+        /**
+         * @param minQuality which search of target size can go down to, default is {@link #DEFAULT_MIN_QUALITY}
+         */
+        public Builder minQuality(int minQuality)
+        {
+            if( minQuality < 0 || minQuality > 100 )    throw new IllegalArgumentException("minQuality must be 0..100");
+            this.minQuality = minQuality;
+            return this;
+        }
+
+        /**
+         * @param maxBytes which output should not be over, e.g. limit of upload, 0 for disable
+         */
+        public Builder maxBytes(long maxBytes)
+        {
+            if( maxBytes < 0 )  throw new IllegalArgumentException("maxBytes must not be negative");
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        /**
+         * @param allowWebp true if auto selection can choose WEBP, default is false because receiver may not read it
+         */
+        public Builder allowWebp(boolean allowWebp)
+        {
+            this.allowWebp = allowWebp;
+            return this;
+        }
+
+        public EncodeSpec build( )
+        {
+            return new EncodeSpec(this);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+/**
+ * Orientation and embedded thumbnail which were read by {@link ExifReader}.
+ * Orientation value is same as ExifInterface.ORIENTATION_*.
+ */
+public class ExifInfo {
+
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    static final ExifInfo NORMAL = new ExifInfo(ORIENTATION_NORMAL, null);
+
+    private final int orientation;
+    private final byte[] thumbnail;
+
+    ExifInfo(int orientation, byte[] thumbnail)
+    {
+        this.orientation = orientation;
+        this.thumbnail = thumbnail;
+    }
+
+    public int getOrientation( )
+    {
+        return orientation;
+    }
+
+    /**
+     * @return angle in degree which image has to be rotated clockwise to be upright
+     */
+    public int getRotationDegrees( )
+    {
+        switch (orientation) {
+            case ORIENTATION_ROTATE_90:
+            case ORIENTATION_TRANSPOSE:
+                return 90;
+            case ORIENTATION_ROTATE_180:
+            case ORIENTATION_FLIP_VERTICAL:
+                return 180;
+            case ORIENTATION_ROTATE_270:
+            case ORIENTATION_TRANSVERSE:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return true if image has to be mirrored horizontally after it was rotated
+     */
+    public boolean isFlipped( )
+    {
+        return orientation == ORIENTATION_FLIP_HORIZONTAL || orientation == ORIENTATION_FLIP_VERTICAL
+                || orientation == ORIENTATION_TRANSPOSE || orientation == ORIENTATION_TRANSVERSE;
+    }
+
+    /**
+     * @return embedded jpeg thumbnail or null if image has no thumbnail
+     */
+    public byte[] getThumbnail( )
+    {
+        return thumbnail;
+    }
+}
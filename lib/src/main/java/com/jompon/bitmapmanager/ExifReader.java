@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Lightweight reader of exif which read only orientation and embedded thumbnail
+ * from stream of JPEG (APP1), PNG (eXIf), WebP (EXIF) or HEIF (Exif item).
+ * It read only header of image instead of parsing whole file like ExifInterface
+ * and it does not need real path, so it works with any stream of content uri.
+ */
+public final class ExifReader {
+
+    // exif of jpeg must fit in one segment, other format should not be bigger
+    private static final int MAX_EXIF_SIZE = 64 * 1024;
+    private static final int MAX_HEIF_META_SIZE = 1024 * 1024;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private final InputStream in;
+    private long position;
+
+    private ExifReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /**
+     * Read exif from current position of stream which should be start of image.
+     * Stream is left somewhere after exif, caller has to rewind it before decode.
+     * @param in stream of image
+     * @return exif of image, orientation is normal when image has no exif or its header is malformed
+     * @throws IOException if stream cannot be read
+     */
+    public static ExifInfo read(InputStream in) throws IOException
+    {
+        ExifReader reader = new ExifReader(in);
+        try {
+            ExifInfo info = reader.readImage();
+            return info != null? info: ExifInfo.NORMAL;
+        } catch (EOFException | MalformedExifException e) {
+            return ExifInfo.NORMAL;
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+            // every length is checked, this only guard against corrupt header which was missed
+            return ExifInfo.NORMAL;
+        }
+    }
+
+    private ExifInfo readImage( ) throws IOException
+    {
+        byte[] signature = readBytes(4);
+        if( (signature[0] & 0xff) == 0xff && (signature[1] & 0xff) == 0xd8 ){
+            return readJpeg(signature);
+        }
+        if( (signature[0] & 0xff) == 0x89 && signature[1] == 'P' && signature[2] == 'N' && signature[3] == 'G' ){
+            skipBytes(4);
+            return readPng();
+        }
+        if( signature[0] == 'R' && signature[1] == 'I' && signature[2] == 'F' && signature[3] == 'F' ){
+            skipBytes(4);
+            byte[] webp = readBytes(4);
+            if( webp[0] == 'W' && webp[1] == 'E' && webp[2] == 'B' && webp[3] == 'P' )     return readWebp();
+            return null;
+        }
+        byte[] type = readBytes(4);
+        if( type[0] == 'f' && type[1] == 't' && type[2] == 'y' && type[3] == 'p' ){
+            return readHeif(toInt(signature, 0, false));
+        }
+        return null;
+    }
+
+    private ExifInfo readJpeg(byte[] signature) throws IOException
+    {
+        // first marker was read together with signature
+        int marker = signature[3] & 0xff;
+        boolean pending = (signature[2] & 0xff) == 0xff;
+        while (true) {
+            if( !pending ){
+                int b = readByte();
+                if( b != 0xff )     return null;
+                marker = readByte();
+            }
+            pending = false;
+            while (marker == 0xff) {
+                marker = readByte();
+            }
+            // start of scan or end of image, exif should be before both
+            if( marker == 0xda || marker == 0xd9 )  return null;
+            if( marker == 0x01 || (marker >= 0xd0 && marker <= 0xd7) )  continue;
+
+            int length = toInt(readBytes(2), 0, 2, false) - 2;
+            if( length < 0 )    return null;
+            if( marker == 0xe1 && length >= 6 ){
+                byte[] segment = readBytes(length);
+                if( segment[0] == 'E' && segment[1] == 'x' && segment[2] == 'i' && segment[3] == 'f'
+                        && segment[4] == 0 && segment[5] == 0 ){
+                    return parseTiff(segment, 6, segment.length - 6);
+                }
+            } else {
+                skipBytes(length);
+            }
+        }
+    }
+
+    private ExifInfo readPng( ) throws IOException
+    {
+        while (true) {
+            byte[] header = readBytes(8);
+            long length = toInt(header, 0, false) & 0xffffffffL;
+            String type = new String(header, 4, 4, "US-ASCII");
+            // exif must be before image data
+            if( type.equals("IDAT") || type.equals("IEND") )    return null;
+            if( type.equals("eXIf") && length <= MAX_EXIF_SIZE ){
+                byte[] data = readBytes((int) length);
+                return parseTiff(data, 0, data.length);
+            }
+            skipBytes(length + 4);
+        }
+    }
+
+    private ExifInfo readWebp( ) throws IOException
+    {
+        boolean extended = false;
+        while (true) {
+            byte[] header = readBytes(8);
+            long length = toInt(header, 4, true) & 0xffffffffL;
+            long padded = length + (length & 1);
+            String type = new String(header, 0, 4, "US-ASCII");
+            if( type.equals("VP8X") ){
+                // VP8X has fixed size of 10 bytes
+                if( length < 4 || padded > MAX_EXIF_SIZE )  return null;
+                byte[] data = readBytes((int) padded);
+                // simple format or extended format which has no exif flag cannot contain exif
+                if( (data[0] & 0x08) == 0 )     return null;
+                extended = true;
+            }else if( !extended ){
+                return null;
+            }else if( type.equals("EXIF") && length <= MAX_EXIF_SIZE ){
+                byte[] data = readBytes((int) length);
+                int start = hasExifPrefix(data)? 6: 0;
+                return parseTiff(data, start, data.length - start);
+            }else{
+                skipBytes(padded);
+            }
+        }
+    }
+
+    private ExifInfo readHeif(int ftypSize) throws IOException
+    {
+        if( ftypSize < 8 )  return null;
+        skipBytes(ftypSize - 8);
+        while (true) {
+            byte[] header = readBytes(8);
+            long size = toInt(header, 0, false) & 0xffffffffL;
+            int headerSize = 8;
+            if( size == 1 ){
+                size = toLong(readBytes(8));
+                headerSize = 16;
+            }
+            String type = new String(header, 4, 4, "US-ASCII");
+            if( size != 0 && size < headerSize )    return null;
+            if( !type.equals("meta") ){
+                if( size == 0 )     return null;
+                skipBytes(size - headerSize);
+                continue;
+            }
+            if( size == 0 || size - headerSize > MAX_HEIF_META_SIZE )   return null;
+
+            byte[] meta = readBytes((int) (size - headerSize));
+            long[] location = findHeifExif(meta);
+            if( location == null || location[0] < position || location[1] <= 8 || location[1] > MAX_EXIF_SIZE )
+                return null;
+            skipBytes(location[0] - position);
+            byte[] data = readBytes((int) location[1]);
+            int start = 4 + toInt(data, 0, false);
+            if( start < 4 || start >= data.length )     return null;
+            if( data.length - start >= 6 && hasExifPrefix(data, start) )    start += 6;
+            return parseTiff(data, start, data.length - start);
+        }
+    }
+
+    /**
+     * Find absolute offset and length of Exif item in content of meta box.
+     */
+    private static long[] findHeifExif(byte[] meta)
+    {
+        // meta is full box, children start after version and flags
+        int exifId = -1;
+        int offset = 4;
+        int ilocStart = -1;
+        int ilocEnd = -1;
+        while (offset + 8 <= meta.length) {
+            int size = toInt(meta, offset, false);
+            String type = new String(meta, offset + 4, 4);
+            if( size < 8 || (long) offset + size > meta.length )    return null;
+            if( type.equals("iinf") )   exifId = findHeifExifId(meta, offset + 8, offset + size);
+            if( type.equals("iloc") ){
+                ilocStart = offset + 8;
+                ilocEnd = offset + size;
+            }
+            offset += size;
+        }
+        if( exifId < 0 || ilocStart < 0 )   return null;
+        return findHeifLocation(meta, ilocStart, ilocEnd, exifId);
+    }
+
+    private static int findHeifExifId(byte[] data, int start, int end)
+    {
+        if( start + 4 > end )   return -1;
+        int version = data[start] & 0xff;
+        int offset = start + 4 + (version == 0? 2: 4);
+        while (offset + 8 <= end) {
+            int size = toInt(data, offset, false);
+            if( size < 8 || (long) offset + size > end )    return -1;
+            String type = new String(data, offset + 4, 4);
+            if( type.equals("infe") && offset + 12 <= end ){
+                int infeVersion = data[offset + 8] & 0xff;
+                int p = offset + 12;
+                // id and protection index have to be inside box
+                if( infeVersion >= 2 && p + (infeVersion == 2? 4: 6) <= offset + size ){
+                    int id = infeVersion == 2? toInt(data, p, 2, false): toInt(data, p, false);
+                    p += (infeVersion == 2? 2: 4) + 2;
+                    if( p + 4 <= offset + size && new String(data, p, 4).equals("Exif") )   return id;
+                }
+            }
+            offset += size;
+        }
+        return -1;
+    }
+
+    private static long[] findHeifLocation(byte[] data, int start, int end, int itemId)
+    {
+        if( start + 8 > end )   return null;
+        int version = data[start] & 0xff;
+        int p = start + 4;
+        int offsetSize = (data[p] >> 4) & 0x0f;
+        int lengthSize = data[p] & 0x0f;
+        int baseOffsetSize = (data[p + 1] >> 4) & 0x0f;
+        int indexSize = version == 1 || version == 2? data[p + 1] & 0x0f: 0;
+        // field of more than 8 bytes is not valid and cannot fit in long
+        if( offsetSize > 8 || lengthSize > 8 || baseOffsetSize > 8 || indexSize > 8 )   return null;
+        p += 2;
+        int idSize = version < 2? 2: 4;
+        if( p + idSize > end )  return null;
+        long itemCount = idSize == 2? toInt(data, p, 2, false): toInt(data, p, false) & 0xffffffffL;
+        p += idSize;
+        int itemHeaderSize = idSize + (version == 1 || version == 2? 2: 0) + 2 + baseOffsetSize + 2;
+        int extentSize = indexSize + offsetSize + lengthSize;
+        for (long i = 0; i < itemCount; i++) {
+            if( p + itemHeaderSize > end )  return null;
+            int id = idSize == 2? toInt(data, p, 2, false): toInt(data, p, false);
+            p += idSize;
+            int constructionMethod = 0;
+            if( version == 1 || version == 2 ){
+                constructionMethod = data[p + 1] & 0x0f;
+                p += 2;
+            }
+            p += 2;
+            long baseOffset = readSized(data, p, baseOffsetSize);
+            p += baseOffsetSize;
+            int extentCount = toInt(data, p, 2, false);
+            p += 2;
+            if( (long) p + (long) extentCount * extentSize > end )  return null;
+            long[] location = null;
+            for (int e = 0; e < extentCount; e++) {
+                p += indexSize;
+                long extentOffset = readSized(data, p, offsetSize);
+                p += offsetSize;
+                long extentLength = readSized(data, p, lengthSize);
+                p += lengthSize;
+                if( e == 0 )    location = new long[]{ baseOffset + extentOffset, extentLength };
+            }
+            // only item which is stored in file offset can be read from stream
+            if( id == itemId )  return constructionMethod == 0 && extentCount == 1? location: null;
+        }
+        return null;
+    }
+
+    private static long readSized(byte[] data, int offset, int size)
+    {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Parse TIFF structure of exif, orientation is in IFD0 and thumbnail is in IFD1.
+     */
+    static ExifInfo parseTiff(byte[] data, int start, int length)
+    {
+        if( length < 8 || start < 0 || (long) start + length > data.length )     return null;
+        boolean littleEndian;
+        if( data[start] == 'I' && data[start + 1] == 'I' )          littleEndian = true;
+        else if( data[start] == 'M' && data[start + 1] == 'M' )     littleEndian = false;
+        else                                                        return null;
+        if( toInt(data, start + 2, 2, littleEndian) != 42 )     return null;
+
+        int orientation = ExifInfo.ORIENTATION_NORMAL;
+        int ifd0 = toInt(data, start + 4, littleEndian);
+        int count = readIfdCount(data, start, length, ifd0, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = start + ifd0 + 2 + i * 12;
+            if( toInt(data, entry, 2, littleEndian) == TAG_ORIENTATION ){
+                orientation = toInt(data, entry + 8, 2, littleEndian);
+            }
+        }
+        if( count < 0 )     return null;
+
+        byte[] thumbnail = null;
+        int next = start + ifd0 + 2 + count * 12;
+        if( next + 4 <= start + length ){
+            int ifd1 = toInt(data, next, littleEndian);
+            int count1 = ifd1 > 0? readIfdCount(data, start, length, ifd1, littleEndian): -1;
+            int thumbnailOffset = -1;
+            int thumbnailLength = -1;
+            for (int i = 0; i < count1; i++) {
+                int entry = start + ifd1 + 2 + i * 12;
+                int tag = toInt(data, entry, 2, littleEndian);
+                if( tag == TAG_THUMBNAIL_OFFSET )   thumbnailOffset = toInt(data, entry + 8, littleEndian);
+                if( tag == TAG_THUMBNAIL_LENGTH )   thumbnailLength = toInt(data, entry + 8, littleEndian);
+            }
+            if( thumbnailOffset > 0 && thumbnailLength > 0 && (long) thumbnailOffset + thumbnailLength <= length ){
+                thumbnail = new byte[thumbnailLength];
+                System.arraycopy(data, start + thumbnailOffset, thumbnail, 0, thumbnailLength);
+            }
+        }
+        return new ExifInfo(orientation, thumbnail);
+    }
+
+    private static int readIfdCount(byte[] data, int start, int length, int ifd, boolean littleEndian)
+    {
+        if( ifd < 8 || (long) ifd + 2 > length )    return -1;
+        int count = toInt(data, start + ifd, 2, littleEndian);
+        if( (long) ifd + 2 + count * 12L > length )     return -1;
+        return count;
+    }
+
+    private static boolean hasExifPrefix(byte[] data)
+    {
+        return data.length >= 6 && hasExifPrefix(data, 0);
+    }
+
+    private static boolean hasExifPrefix(byte[] data, int offset)
+    {
+        return data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i' && data[offset + 3] == 'f'
+                && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    private static int toInt(byte[] data, int offset, boolean littleEndian)
+    {
+        return toInt(data, offset, 4, littleEndian);
+    }
+
+    private static int toInt(byte[] data, int offset, int size, boolean littleEndian)
+    {
+        int value = 0;
+        for (int i = 0; i < size; i++) {
+            int b = data[offset + (littleEndian? size - 1 - i: i)] & 0xff;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private static long toLong(byte[] data)
+    {
+        return readSized(data, 0, 8);
+    }
+
+    private int readByte( ) throws IOException
+    {
+        int b = in.read();
+        if( b < 0 )     throw new EOFException();
+        position++;
+        return b;
+    }
+
+    private byte[] readBytes(int length) throws IOException
+    {
+        if( length < 0 || length > MAX_HEIF_META_SIZE )     throw new MalformedExifException(length);
+        byte[] data = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(data, offset, length - offset);
+            if( read < 0 )  throw new EOFException();
+            offset += read;
+        }
+        position += length;
+        return data;
+    }
+
+    private void skipBytes(long length) throws IOException
+    {
+        long remain = length;
+        while (remain > 0) {
+            long skipped = in.skip(remain);
+            if( skipped <= 0 ){
+                // some stream cannot skip, read it instead
+                if( in.read() < 0 )     throw new EOFException();
+                skipped = 1;
+            }
+            remain -= skipped;
+        }
+        position += length;
+    }
+
+    /**
+     * Length in header is out of range, image is read as it has no exif.
+     */
+    private static class MalformedExifException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        MalformedExifException(long length)
+        {
+            super("Malformed exif length " + length);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Copy engine of files, e.g. backup of camera roll.
+ * Every copy is written to temp file of target directory by looping transferTo until whole source is copied,
+ * verified then renamed over target so target is never left half written.
+ * Copies run concurrently on own workers and share one throughput cap.
+ */
+public class FileCopier {
+
+    public enum Verify {
+        /** nothing is checked after copy */
+        NONE,
+        /** size of target has to be same as source */
+        SIZE,
+        /** size and CRC32 of target have to be same as source */
+        CHECKSUM
+    }
+
+    public static final int DEFAULT_THREAD_COUNT = 2;
+    // chunk of transferTo, it is also granularity of throughput cap
+    private static final long CHUNK_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BitmapExecutor executor;
+    private final long maxBytesPerSecond;
+    private final Verify verify;
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicInteger copyCount = new AtomicInteger();
+    private long nextFreeNanos;
+
+    /**
+     * Create copier which verifies size without throughput cap.
+     */
+    public FileCopier( )
+    {
+        this(DEFAULT_THREAD_COUNT, 0, Verify.SIZE);
+    }
+
+    /**
+     * @param threadCount number of copy which run at the same time
+     * @param maxBytesPerSecond throughput cap which is shared by every copy, 0 for unlimited
+     * @param verify check of target after copy
+     */
+    public FileCopier(int threadCount, long maxBytesPerSecond, Verify verify)
+    {
+        this.executor = new BitmapExecutor(threadCount);
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.verify = verify;
+    }
+
+    /**
+     * Copy file on current thread.
+     * @param sourceFile which is copied
+     * @param destFile target which is replaced
+     * @return number of copied bytes
+     * @throws IOException if source cannot be read, target cannot be written or verification failed
+     */
+    public long copy(File sourceFile, File destFile) throws IOException
+    {
+        if( !sourceFile.isFile() )  throw new FileNotFoundException("Cannot find " + sourceFile);
+
+        FileInputStream in = new FileInputStream(sourceFile);
+        File temp = null;
+        FileOutputStream out = null;
+        boolean success = false;
+        long size;
+        try {
+            // unique temp so concurrent copies to same target never mix, last rename wins
+            temp = File.createTempFile("." + destFile.getName() + ".", ".tmp", destFile.getAbsoluteFile().getParentFile());
+            out = new FileOutputStream(temp);
+            FileChannel source = in.getChannel();
+            FileChannel destination = out.getChannel();
+            size = source.size();
+            long position = 0;
+            while (position < size) {
+                long count = Math.min(CHUNK_SIZE, size - position);
+                throttle(count);
+                // transferTo can copy less than requested, e.g. on some file system or big file
+                long transferred = source.transferTo(position, count, destination);
+                if( transferred <= 0 )  throw new IOException("Cannot copy " + sourceFile + " at " + position + " of " + size);
+                position += transferred;
+            }
+            out.getFD().sync();
+            success = true;
+        } finally {
+            BitmapUtils.closeQuietly(in);
+            BitmapUtils.closeQuietly(out);
+            if( !success && temp != null )  temp.delete();
+        }
+
+        try {
+            verify(sourceFile, temp, size);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        if( !temp.renameTo(destFile) ){
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + destFile);
+        }
+        bytesCopied.addAndGet(size);
+        copyCount.incrementAndGet();
+        return size;
+    }
+
+    /**
+     * Copy file on worker thread.
+     * @param sourceFile which is copied
+     * @param destFile target which is replaced
+     * @param callback which is called on main thread, can be null
+     * @return task of copy
+     */
+    public BitmapTask<File> copyAsync(final File sourceFile, final File destFile, BitmapCallback<File> callback)
+    {
+        return executor.submit(new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                copy(sourceFile, destFile);
+                return destFile;
+            }
+        }, Priority.NORMAL, this, callback);
+    }
+
+    /**
+     * Copy many files concurrently, callback is called once per file.
+     * @param files map of source to target
+     * @param callback which is called on main thread, can be null
+     * @return task of every copy
+     */
+    public List<BitmapTask<File>> copyAll(Map<File, File> files, BitmapCallback<File> callback)
+    {
+        List<BitmapTask<File>> tasks = new ArrayList<>(files.size());
+        for (Map.Entry<File, File> entry : files.entrySet()) {
+            tasks.add(copyAsync(entry.getKey(), entry.getValue(), callback));
+        }
+        return tasks;
+    }
+
+    /**
+     * Cancel every copy which has not finished yet.
+     * @return number of cancelled copy
+     */
+    public int cancelAll( )
+    {
+        return executor.cancel(this);
+    }
+
+    public long getBytesCopied( )
+    {
+        return bytesCopied.get();
+    }
+
+    public int getCopyCount( )
+    {
+        return copyCount.get();
+    }
+
+    public void shutdown( )
+    {
+        executor.shutdown();
+    }
+
+    /**
+     * Reserve time slot of bytes under throughput cap then wait until it starts.
+     */
+    private void throttle(long bytes) throws InterruptedIOException
+    {
+        if( maxBytesPerSecond <= 0 )    return;
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextFreeNanos);
+            nextFreeNanos = start + bytes * 1000000000L / maxBytesPerSecond;
+            waitNanos = start - now;
+        }
+        if( waitNanos <= 0 )    return;
+        try {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for throughput cap");
+        }
+    }
+
+    private void verify(File sourceFile, File copiedFile, long size) throws IOException
+    {
+        if( verify == Verify.NONE )     return;
+        if( copiedFile.length() != size )
+            throw new IOException("Size of " + copiedFile + " is " + copiedFile.length() + " but expected " + size);
+        if( verify == Verify.CHECKSUM && checksum(sourceFile) != checksum(copiedFile) )
+            throw new IOException("Checksum of " + copiedFile + " does not match " + sourceFile);
+    }
+
+    private static long checksum(File file) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+        return crc.getValue();
+    }
+}
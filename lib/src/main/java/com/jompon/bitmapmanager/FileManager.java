@@ -17,24 +17,38 @@
 package com.jompon.bitmapmanager;
 
 import android.content.Context;
-import android.content.Intent;
-import android.net.Uri;
+import android.media.MediaScannerConnection;
 import android.os.Environment;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FileFilter;
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
+/**
+ * Own root directories of one feature and copy file under them.
+ * Instance is immutable so it can be shared by many threads, create one per feature by {@link Builder}
+ * or use shared default instance of {@link #getInstance(Context)}.
+ */
 public class FileManager {
 
     private static final String TAG = FileManager.class.getSimpleName();
-    private static File rootExt = new File(Environment.getExternalStorageDirectory() + File.separator + "Lib" + File.separator + "BitmapManager" + File.separator);
-    private static File rootInt = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM) + File.separator + "Lib" + File.separator + "BitmapManager" + File.separator);
-    protected static FileManager fileManager;
-    protected Context context;
-    private static File getRoot( )
+    static final String DEFAULT_ROOT_EXT = Environment.getExternalStorageDirectory() + File.separator + "Lib" + File.separator + "BitmapManager" + File.separator;
+    static final String DEFAULT_ROOT_INT = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM) + File.separator + "Lib" + File.separator + "BitmapManager" + File.separator;
+    private static final String THUMBNAIL_DIRECTORY = "thumbnails";
+    private static final String JOURNAL_FILE = ".journal";
+    private static volatile FileManager instance;
+    protected final Context context;
+    private final File rootExt;
+    private final File rootInt;
+    private final FileCopier fileCopier;
+    private final boolean ownFileCopier;
+    private final FolderScanner folderScanner;
+
+    private File getRoot( )
     {
         File root = (isExternalStorageAvailable())? rootExt: rootInt;
         root.mkdirs();
@@ -47,15 +61,59 @@ public class FileManager {
         return state.equals(Environment.MEDIA_MOUNTED);
     }
 
+    /**
+     * Get shared instance of default roots, it is created once even when many threads ask for it at the same time.
+     * @param context of application
+     * @return shared file manager
+     */
     public static FileManager getInstance(Context context)
     {
-        if( fileManager == null )      fileManager = new FileManager(context);
-        return fileManager;
+        FileManager manager = instance;
+        if( manager == null ){
+            synchronized (FileManager.class) {
+                manager = instance;
+                if( manager == null ){
+                    manager = new Builder(context).build();
+                    instance = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * @param context of application, activity is never kept
+     * @param rootExt root directory when external storage is mounted
+     * @param rootInt root directory otherwise
+     * @param fileCopier copier of file, null for own copier
+     */
+    protected FileManager(Context context, String rootExt, String rootInt, FileCopier fileCopier)
+    {
+        Context application = context.getApplicationContext();
+        this.context = application != null? application: context;
+        this.rootExt = new File(rootExt);
+        this.rootInt = new File(rootInt);
+        this.ownFileCopier = fileCopier == null;
+        this.fileCopier = fileCopier != null? fileCopier: new FileCopier();
+        this.folderScanner = new FolderScanner(getPrivateFile(JOURNAL_FILE), new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().equals(THUMBNAIL_DIRECTORY) && FolderScanner.IMAGE_FILTER.accept(file);
+            }
+        });
     }
 
-    protected FileManager(Context context)
+    /**
+     * Get file of app private storage which belongs to roots of this manager,
+     * so managers of different roots never share it and it is never on external storage.
+     * Only one manager should be alive for same roots.
+     * @param name of file
+     * @return file under files directory of app
+     */
+    protected File getPrivateFile(String name)
     {
-        this.context = context;
+        String roots = rootExt.getAbsolutePath() + File.pathSeparator + rootInt.getAbsolutePath();
+        return new File(context.getFilesDir(), name + '_' + BitmapUtils.md5(roots));
     }
 
     private String getUniqueImageFilename( )
@@ -65,45 +123,170 @@ public class FileManager {
 
     public File getDestinationImageFilename( )
     {
-        File root = FileManager.getRoot( );
+        File root = getRoot( );
         String imgName = getUniqueImageFilename();
         return new File(root, imgName);
     }
 
-    public void setRootExt(String path)
+    /**
+     * Get directory which keep cache of downsampled bitmap under root.
+     * @return cache directory
+     */
+    public File getCacheDirectory( )
     {
-        rootExt = new File(path);
+        File dir = new File(getRoot( ), ".cache");
+        dir.mkdirs();
+        return dir;
     }
 
-    public void setRootInt(String path)
+    /**
+     * Get directory which keep generated thumbnail under root.
+     * @return thumbnail directory
+     */
+    public File getThumbnailDirectory( )
     {
-        rootInt = new File(path);
+        File dir = new File(getRoot( ), THUMBNAIL_DIRECTORY);
+        dir.mkdirs();
+        return dir;
     }
 
+    public File getRootExt( )
+    {
+        return rootExt;
+    }
+
+    public File getRootInt( )
+    {
+        return rootInt;
+    }
+
+    /**
+     * Copy whole file, target is replaced only when copy is complete and its size is verified.
+     * @param sourceFile which is copied
+     * @param destFile target
+     * @throws IOException if source not exist or copy failed
+     */
     public void copyFile(File sourceFile, File destFile) throws IOException {
-        if (!sourceFile.exists()) {
-            throw new IOException();
+        fileCopier.copy(sourceFile, destFile);
+    }
+
+    /**
+     * Get copier of {@link #copyFile(File, File)}, e.g. to copy many files concurrently on worker threads.
+     * Create own {@link FileCopier} for throughput cap or checksum verification.
+     * @return copier of file
+     */
+    public FileCopier getFileCopier( )
+    {
+        return fileCopier;
+    }
+
+    public void scanMediaFile(File photo) {
+        scanMediaFiles(Collections.singletonList(photo));
+    }
+
+    /**
+     * Tell media scanner about many files by one connection instead of one broadcast per file.
+     * File which no longer exist is removed from MediaStore.
+     * @param files which were added, changed or removed
+     */
+    public void scanMediaFiles(Collection<File> files)
+    {
+        if( files.isEmpty() )   return;
+        String[] paths = new String[files.size()];
+        int i = 0;
+        for (File file : files) {
+            paths[i++] = file.getAbsolutePath();
+        }
+        MediaScannerConnection.scanFile(context, paths, null, null);
+    }
+
+    /**
+     * Get scanner which keep journal of every image under roots.
+     * @return scanner of roots
+     */
+    public FolderScanner getFolderScanner( )
+    {
+        return folderScanner;
+    }
+
+    /**
+     * Walk both roots and tell media scanner only about images which were added, changed or removed since last scan,
+     * e.g. for periodic sync which cost depends on changes instead of size of library.
+     * Hidden directories, e.g. cache, and thumbnail directory are skipped.
+     * @return images which differ from last scan
+     * @throws IOException if journal cannot be written
+     */
+    public FolderScanner.ScanResult scanFolders( ) throws IOException
+    {
+        List<File> roots = new ArrayList<>();
+        if( isExternalStorageAvailable() )  roots.add(rootExt);
+        if( !rootInt.equals(rootExt) )      roots.add(rootInt);
+        FolderScanner.ScanResult result = folderScanner.scan(roots);
+
+        List<File> files = new ArrayList<>(result.getAdded());
+        files.addAll(result.getChanged());
+        files.addAll(result.getRemoved());
+        scanMediaFiles(files);
+        return result;
+    }
+
+    /**
+     * Stop workers which were created by this instance, e.g. when feature is closed.
+     * Copier which was given to builder is shared so it is kept running.
+     */
+    public void shutdown( )
+    {
+        if( ownFileCopier )     fileCopier.shutdown();
+    }
+
+    public static class Builder {
+
+        protected final Context context;
+        protected String rootExt = DEFAULT_ROOT_EXT;
+        protected String rootInt = DEFAULT_ROOT_INT;
+        protected FileCopier fileCopier;
+
+        /**
+         * @param context of application
+         */
+        public Builder(Context context)
+        {
+            if( context == null )   throw new IllegalArgumentException("context must not be null");
+            this.context = context;
         }
 
-        FileChannel source = null;
-        FileChannel destination = null;
-        source = new FileInputStream(sourceFile).getChannel();
-        destination = new FileOutputStream(destFile).getChannel();
-        if (destination != null && source != null) {
-            destination.transferFrom(source, 0, source.size());
+        /**
+         * @param path of root directory when external storage is mounted
+         */
+        public Builder rootExt(String path)
+        {
+            if( path == null )  throw new IllegalArgumentException("path must not be null");
+            this.rootExt = path;
+            return this;
         }
-        if (source != null) {
-            source.close();
+
+        /**
+         * @param path of root directory when external storage is not mounted
+         */
+        public Builder rootInt(String path)
+        {
+            if( path == null )  throw new IllegalArgumentException("path must not be null");
+            this.rootInt = path;
+            return this;
         }
-        if (destination != null) {
-            destination.close();
+
+        /**
+         * @param fileCopier which is shared with other instance, default is own copier
+         */
+        public Builder fileCopier(FileCopier fileCopier)
+        {
+            this.fileCopier = fileCopier;
+            return this;
         }
-    }
 
-    public void scanMediaFile(File photo) {
-        Intent mediaScanIntent = new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE);
-        Uri contentUri = Uri.fromFile(photo);
-        mediaScanIntent.setData(contentUri);
-        context.sendBroadcast(mediaScanIntent);
+        public FileManager build( )
+        {
+            return new FileManager(context, rootExt, rootInt, fileCopier);
+        }
     }
 }
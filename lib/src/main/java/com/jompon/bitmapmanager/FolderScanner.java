@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Walk image folders and tell only images which were added, changed or removed since last scan.
+ * Path, size, modification time and fingerprint of every image are kept in journal file,
+ * so unchanged image costs one stat and only image which size or time differ is read for its fingerprint.
+ * Image which was touched but has same content is not reported as changed.
+ * Only one instance should use a journal at a time, otherwise the last save of them replaces what the others wrote.
+ * It is pure Java so it can be tested on JVM without Android.
+ */
+public class FolderScanner {
+
+    private static final int MAGIC = 0x464a524e;
+    private static final int VERSION = 1;
+    /** bytes of head and of tail which are read for fingerprint */
+    private static final int FINGERPRINT_CHUNK = 64 * 1024;
+
+    /**
+     * Accept visible image file and visible directory, e.g. hidden cache directory is skipped.
+     */
+    public static final FileFilter IMAGE_FILTER = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            String name = file.getName();
+            if( name.startsWith(".") )  return false;
+            if( file.isDirectory() )    return true;
+            int dot = name.lastIndexOf('.');
+            if( dot < 0 )   return false;
+            String extension = name.substring(dot + 1).toLowerCase(Locale.US);
+            return extension.equals("jpg") || extension.equals("jpeg") || extension.equals("png")
+                    || extension.equals("webp") || extension.equals("gif") || extension.equals("bmp")
+                    || extension.equals("heic") || extension.equals("heif");
+        }
+    };
+
+    private final File journal;
+    private final FileFilter filter;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean loaded;
+
+    /**
+     * @param journal file which keep result of last scan, null for memory only
+     * @param filter of file and directory which is walked, null for {@link #IMAGE_FILTER}
+     */
+    public FolderScanner(File journal, FileFilter filter)
+    {
+        this.journal = journal;
+        this.filter = filter != null? filter: IMAGE_FILTER;
+    }
+
+    /**
+     * Walk every root, update journal and write it back when anything changed.
+     * Root which does not exist or cannot be listed, e.g. external storage which is unmounted,
+     * keeps its entries so its images are not reported as removed.
+     * @param roots directories which are walked
+     * @return images which were added, changed or removed since last scan
+     * @throws IOException if journal cannot be written
+     */
+    public synchronized ScanResult scan(List<File> roots) throws IOException
+    {
+        long start = System.nanoTime();
+        ensureLoaded();
+
+        List<File> added = new ArrayList<>();
+        List<File> changed = new ArrayList<>();
+        List<File> removed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        List<String> walkedRoots = new ArrayList<>();
+        int fileCount = 0;
+        int readCount = 0;
+
+        for (File root : roots) {
+            if( !root.isDirectory() || !root.canRead() )    continue;
+            walkedRoots.add(root.getAbsolutePath() + File.separator);
+
+            Deque<File> directories = new ArrayDeque<>();
+            directories.push(root);
+            while( !directories.isEmpty() ){
+                File[] files = directories.pop().listFiles(filter);
+                if( files == null )     continue;
+                for (File file : files) {
+                    if( file.isDirectory() ){
+                        directories.push(file);
+                        continue;
+                    }
+                    String path = file.getAbsolutePath();
+                    if( !seen.add(path) )   continue;
+                    fileCount++;
+
+                    long size = file.length();
+                    long lastModified = file.lastModified();
+                    Entry entry = entries.get(path);
+                    if( entry != null && entry.size == size && entry.lastModified == lastModified )     continue;
+
+                    long fingerprint;
+                    try {
+                        fingerprint = fingerprint(file, size);
+                    } catch (IOException e) {
+                        // file is still written or cannot be read now, its entry is kept until next scan
+                        continue;
+                    }
+                    readCount++;
+                    if( entry == null ){
+                        added.add(file);
+                    } else if( entry.size != size || entry.fingerprint != fingerprint ){
+                        changed.add(file);
+                    }
+                    entries.put(path, new Entry(size, lastModified, fingerprint));
+                }
+            }
+        }
+
+        Iterator<String> iterator = entries.keySet().iterator();
+        while( iterator.hasNext() ){
+            String path = iterator.next();
+            if( seen.contains(path) || !isUnder(path, walkedRoots) )     continue;
+            iterator.remove();
+            removed.add(new File(path));
+        }
+
+        // touched file also change journal, so it is written whenever anything was read
+        if( readCount > 0 || !removed.isEmpty() )   save();
+        return new ScanResult(added, changed, removed, fileCount, readCount, (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Forget every image so next scan report every image as added, e.g. after library was imported again.
+     * @throws IOException if journal cannot be deleted
+     */
+    public synchronized void reset( ) throws IOException
+    {
+        entries.clear();
+        loaded = true;
+        if( journal != null && journal.exists() && !journal.delete() )
+            throw new IOException("Cannot delete " + journal);
+    }
+
+    /**
+     * @return number of images in journal
+     */
+    public synchronized int size( )
+    {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    private static boolean isUnder(String path, List<String> roots)
+    {
+        for (String root : roots) {
+            if( path.startsWith(root) )     return true;
+        }
+        return false;
+    }
+
+    /**
+     * CRC of size, head and tail of file, enough to tell in-place edit from touch without reading whole file.
+     */
+    static long fingerprint(File file, long size) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[(int) Math.min(size, FINGERPRINT_CHUNK)];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.readFully(buffer);
+            crc.update(buffer);
+            if( size > FINGERPRINT_CHUNK ){
+                in.seek(Math.max(FINGERPRINT_CHUNK, size - FINGERPRINT_CHUNK));
+                int length = (int) Math.min(FINGERPRINT_CHUNK, size - FINGERPRINT_CHUNK);
+                in.readFully(buffer, 0, length);
+                crc.update(buffer, 0, length);
+            }
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+        return (size << 32) ^ crc.getValue();
+    }
+
+    private void save( ) throws IOException
+    {
+        if( journal == null )   return;
+
+        File dir = journal.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File temp = File.createTempFile("." + journal.getName(), ".tmp", dir);
+        FileOutputStream fos;
+        try {
+            fos = new FileOutputStream(temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        boolean success = false;
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().fingerprint);
+            }
+            out.flush();
+            fos.getFD().sync();
+            success = true;
+        } finally {
+            BitmapUtils.closeQuietly(fos);
+            if( !success )  temp.delete();
+        }
+        if( !temp.renameTo(journal) ){
+            temp.delete();
+            throw new IOException("Cannot rename " + temp + " to " + journal);
+        }
+    }
+
+    private void ensureLoaded( )
+    {
+        if( loaded )    return;
+        loaded = true;
+        if( journal == null || !journal.exists() )  return;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)));
+            if( in.readInt() != MAGIC || in.readInt() != VERSION )  return;
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = in.readUTF();
+                entries.put(path, new Entry(in.readLong(), in.readLong(), in.readLong()));
+            }
+        } catch (IOException e) {
+            // broken journal only cost one full read, entries which were read are kept
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+    }
+
+    private static final class Entry {
+
+        final long size;
+        final long lastModified;
+        final long fingerprint;
+
+        Entry(long size, long lastModified, long fingerprint)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Images which differ from last scan.
+     */
+    public static class ScanResult {
+
+        private final List<File> added;
+        private final List<File> changed;
+        private final List<File> removed;
+        private final int fileCount;
+        private final int readCount;
+        private final long elapsed;
+
+        ScanResult(List<File> added, List<File> changed, List<File> removed, int fileCount, int readCount, long elapsed)
+        {
+            this.added = Collections.unmodifiableList(added);
+            this.changed = Collections.unmodifiableList(changed);
+            this.removed = Collections.unmodifiableList(removed);
+            this.fileCount = fileCount;
+            this.readCount = readCount;
+            this.elapsed = elapsed;
+        }
+
+        public List<File> getAdded( )
+        {
+            return added;
+        }
+
+        /**
+         * @return images which content was changed, touched image with same content is not here
+         */
+        public List<File> getChanged( )
+        {
+            return changed;
+        }
+
+        public List<File> getRemoved( )
+        {
+            return removed;
+        }
+
+        /**
+         * @return true if nothing was added, changed or removed
+         */
+        public boolean isEmpty( )
+        {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+
+        /**
+         * @return number of images which were found under roots
+         */
+        public int getFileCount( )
+        {
+            return fileCount;
+        }
+
+        /**
+         * @return number of images which were read for fingerprint, e.g. to measure cost of scan
+         */
+        public int getReadCount( )
+        {
+            return readCount;
+        }
+
+        /**
+         * @return time of scan in millisecond
+         */
+        public long getElapsed( )
+        {
+            return elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return "ScanResult{added=" + added.size() + ", changed=" + changed.size() + ", removed=" + removed.size()
+                    + ", files=" + fileCount + ", read=" + readCount + ", elapsed=" + elapsed + "ms}";
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative value with power of two buckets.
+ * Percentile is estimated by upper bound of bucket so it is at most twice of real value.
+ */
+public final class Histogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param value which is recorded, negative value is recorded as 0
+     */
+    public void record(long value)
+    {
+        if( value < 0 )     value = 0;
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    public void reset( )
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * Copy current values, recording which run at same time may be partly included.
+     * @return immutable copy of histogram
+     */
+    public Snapshot snapshot( )
+    {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = buckets.get(i);
+        }
+        long n = count.get();
+        return new Snapshot(copy, n, sum.get(), n == 0? 0: min.get(), n == 0? 0: max.get());
+    }
+
+    private static int bucketOf(long value)
+    {
+        // bucket i contain value which is less than 2^i
+        return Math.min(BUCKET_COUNT - 1, BUCKET_COUNT - Long.numberOfLeadingZeros(value));
+    }
+
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long min, long max)
+        {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount( )
+        {
+            return count;
+        }
+
+        public long getSum( )
+        {
+            return sum;
+        }
+
+        public long getMin( )
+        {
+            return min;
+        }
+
+        public long getMax( )
+        {
+            return max;
+        }
+
+        public long getMean( )
+        {
+            return count == 0? 0: sum / count;
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return upper bound of bucket which contain percentile, 0 if histogram is empty
+         */
+        public long getPercentile(double percentile)
+        {
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if( seen >= rank && seen > 0 ){
+                    long upper = i >= 63? Long.MAX_VALUE: (1L << i) - 1;
+                    return Math.max(min, Math.min(max, upper));
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString( )
+        {
+            return String.format(Locale.US, "count=%d mean=%d p50=%d p90=%d p99=%d max=%d",
+                    count, getMean(), getPercentile(50), getPercentile(90), getPercentile(99), max);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+/**
+ * Path, size, mime type, bounds, exif orientation and last modified time of image.
+ * It is resolved once per uri and cached until file of uri is modified.
+ * Field which is not known yet is 0, or null for path and mime type.
+ */
+public class ImageMetadata {
+
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final String mimeType;
+    private final int width;
+    private final int height;
+    private final int orientation;
+
+    ImageMetadata(String path, long size, long lastModified, String mimeType, int width, int height, int orientation)
+    {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.mimeType = mimeType;
+        this.width = width;
+        this.height = height;
+        this.orientation = orientation;
+    }
+
+    /**
+     * Create metadata which unknown fields are taken from another.
+     * @param another metadata of same uri
+     * @return merged metadata
+     */
+    ImageMetadata merge(ImageMetadata another)
+    {
+        if( another == null )   return this;
+        return new ImageMetadata(
+                path != null? path: another.path,
+                size > 0? size: another.size,
+                lastModified > 0? lastModified: another.lastModified,
+                mimeType != null? mimeType: another.mimeType,
+                width > 0? width: another.width,
+                height > 0? height: another.height,
+                orientation > 0? orientation: another.orientation);
+    }
+
+    /**
+     * @return real path of file or null if uri has no path
+     */
+    public String getPath( )
+    {
+        return path;
+    }
+
+    /**
+     * @return size of file in bytes
+     */
+    public long getSize( )
+    {
+        return size;
+    }
+
+    /**
+     * @return last modified time of file in milliseconds
+     */
+    public long getLastModified( )
+    {
+        return lastModified;
+    }
+
+    public String getMimeType( )
+    {
+        return mimeType;
+    }
+
+    /**
+     * @return width of encoded image before orientation is applied
+     */
+    public int getWidth( )
+    {
+        return width;
+    }
+
+    /**
+     * @return height of encoded image before orientation is applied
+     */
+    public int getHeight( )
+    {
+        return height;
+    }
+
+    /**
+     * @return true if width and height are known
+     */
+    public boolean hasBounds( )
+    {
+        return width > 0 && height > 0;
+    }
+
+    /**
+     * @return exif orientation, same value as ExifInterface.ORIENTATION_*, 0 if it is not known
+     */
+    public int getOrientation( )
+    {
+        return orientation;
+    }
+
+    /**
+     * @return angle in degree which image has to be rotated clockwise to be upright
+     */
+    public int getRotationDegrees( )
+    {
+        return new ExifInfo(orientation, null).getRotationDegrees();
+    }
+
+    /**
+     * @return true if image has to be mirrored horizontally after it was rotated
+     */
+    public boolean isFlipped( )
+    {
+        return new ExifInfo(orientation, null).isFlipped();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Where encoded image is read from, e.g. file, descriptor, content uri, asset, memory or stream.
+ * Every source is opened into same decode session so load, transform and save work on any of them.
+ * One-shot stream is read into memory once instead of temp file.
+ * Region, tile and progressive loads and rotation by exif still take uri only, since they open their source again per request.
+ */
+public abstract class ImageSource {
+
+    private static final String ASSET_PREFIX = "file:///android_asset/";
+
+    private final Uri uri;
+
+    private ImageSource(Uri uri)
+    {
+        this.uri = uri;
+    }
+
+    /**
+     * @param uri of image file path
+     * @return source which is opened by content resolver
+     */
+    public static ImageSource fromUri(Uri uri)
+    {
+        if( uri == null )   throw new IllegalArgumentException("uri must not be null");
+        return new UriSource(uri);
+    }
+
+    /**
+     * @param file of image
+     * @return source which is opened by its descriptor
+     */
+    public static ImageSource fromFile(File file)
+    {
+        if( file == null )  throw new IllegalArgumentException("file must not be null");
+        return new FileSource(file);
+    }
+
+    /**
+     * Descriptor is owned by caller, it is never closed and must be kept open until request is finished.
+     * @param fileDescriptor of image
+     * @return source which is decoded from descriptor directly
+     */
+    public static ImageSource fromFileDescriptor(FileDescriptor fileDescriptor)
+    {
+        if( fileDescriptor == null )    throw new IllegalArgumentException("fileDescriptor must not be null");
+        return new FileDescriptorSource(fileDescriptor);
+    }
+
+    /**
+     * @param assetManager of application
+     * @param path of image in assets
+     * @return source which is opened from assets
+     */
+    public static ImageSource fromAsset(AssetManager assetManager, String path)
+    {
+        if( assetManager == null || path == null )  throw new IllegalArgumentException("assetManager and path must not be null");
+        return new AssetSource(assetManager, path);
+    }
+
+    /**
+     * Array is not copied so it must not be modified until request is finished.
+     * @param data of encoded image
+     * @return source which is decoded in place
+     */
+    public static ImageSource fromBytes(byte[] data)
+    {
+        if( data == null )  throw new IllegalArgumentException("data must not be null");
+        return fromBytes(data, 0, data.length);
+    }
+
+    /**
+     * Array is not copied so it must not be modified until request is finished.
+     * @param data of encoded image
+     * @param offset of image in data
+     * @param length of image
+     * @return source which is decoded in place
+     */
+    public static ImageSource fromBytes(byte[] data, int offset, int length)
+    {
+        if( data == null )  throw new IllegalArgumentException("data must not be null");
+        if( offset < 0 || length < 0 || offset + length > data.length )
+            throw new IndexOutOfBoundsException("offset " + offset + " length " + length + " of " + data.length);
+        return new BytesSource(data, offset, length);
+    }
+
+    /**
+     * Remaining bytes of buffer are used, backing array is decoded in place
+     * and only direct buffer is copied. Position of buffer is not changed.
+     * @param buffer of encoded image
+     * @return source which is decoded from memory
+     */
+    public static ImageSource fromByteBuffer(ByteBuffer buffer)
+    {
+        if( buffer == null )    throw new IllegalArgumentException("buffer must not be null");
+        if( buffer.hasArray() )     return fromBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return fromBytes(data);
+    }
+
+    /**
+     * Stream can be read only once, it is read fully into memory when source is opened then closed.
+     * @param in stream of encoded image
+     * @return source which can be opened only once
+     */
+    public static ImageSource fromStream(InputStream in)
+    {
+        if( in == null )    throw new IllegalArgumentException("in must not be null");
+        return new StreamSource(in);
+    }
+
+    /**
+     * @return uri which identify source in cache, null if source is not cached, e.g. memory or stream
+     */
+    public Uri getUri( )
+    {
+        return uri;
+    }
+
+    /**
+     * Open source into session which probe bounds, exif and pixels from one opened source.
+     * @param context of application
+     * @param listener of event, can be null
+     * @return opened session which must be closed
+     * @throws IOException if source cannot be opened
+     */
+    abstract DecodeSession open(Context context, BitmapEventListener listener) throws IOException;
+
+    @Override
+    public String toString( )
+    {
+        return getClass().getSimpleName() + (uri != null? "(" + uri + ")": "");
+    }
+
+    private static final class UriSource extends ImageSource {
+
+        UriSource(Uri uri)
+        {
+            super(uri);
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener) throws IOException
+        {
+            return DecodeSession.open(context.getContentResolver(), getUri(), listener);
+        }
+    }
+
+    private static final class FileSource extends ImageSource {
+
+        private final File file;
+
+        FileSource(File file)
+        {
+            super(Uri.fromFile(file));
+            this.file = file;
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener) throws IOException
+        {
+            return DecodeSession.open(file, listener);
+        }
+    }
+
+    private static final class FileDescriptorSource extends ImageSource {
+
+        private final FileDescriptor fileDescriptor;
+
+        FileDescriptorSource(FileDescriptor fileDescriptor)
+        {
+            super(null);
+            this.fileDescriptor = fileDescriptor;
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener) throws IOException
+        {
+            return DecodeSession.open(fileDescriptor, listener);
+        }
+    }
+
+    private static final class AssetSource extends ImageSource {
+
+        private final AssetManager assetManager;
+        private final String path;
+
+        AssetSource(AssetManager assetManager, String path)
+        {
+            super(Uri.parse(ASSET_PREFIX + path));
+            this.assetManager = assetManager;
+            this.path = path;
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener) throws IOException
+        {
+            return DecodeSession.open(new DecodeSession.StreamOpener() {
+                @Override
+                public InputStream open() throws IOException {
+                    return assetManager.open(path, AssetManager.ACCESS_RANDOM);
+                }
+            }, getUri(), listener);
+        }
+    }
+
+    private static final class BytesSource extends ImageSource {
+
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        BytesSource(byte[] data, int offset, int length)
+        {
+            super(null);
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener)
+        {
+            return DecodeSession.open(data, offset, length, listener);
+        }
+    }
+
+    private static final class StreamSource extends ImageSource {
+
+        private final InputStream in;
+        private final AtomicBoolean opened = new AtomicBoolean();
+
+        StreamSource(InputStream in)
+        {
+            super(null);
+            this.in = in;
+        }
+
+        @Override
+        DecodeSession open(Context context, BitmapEventListener listener) throws IOException
+        {
+            if( !opened.compareAndSet(false, true) )    throw new IllegalStateException("Stream source can be opened only once");
+            return DecodeSession.open(in, listener);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+/**
+ * Bytes of bitmap which can be allocated at the same time.
+ * Decode which would exceed budget waits until other decode release its bytes,
+ * request which is bigger than whole budget is granted whole budget so it runs alone.
+ * Budget can be nested under parent, e.g. budget of batch under budget of manager, so bytes are taken from both.
+ */
+public class MemoryBudget {
+
+    private final long capacity;
+    private final MemoryBudget parent;
+    private long used;
+
+    /**
+     * @param capacity of budget in bytes
+     */
+    public MemoryBudget(long capacity)
+    {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity of budget in bytes, it is never larger than capacity of parent
+     * @param parent budget which every grant is also taken from, can be null
+     */
+    public MemoryBudget(long capacity, MemoryBudget parent)
+    {
+        if( capacity <= 0 )     throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = parent != null? Math.min(capacity, parent.capacity): capacity;
+        this.parent = parent;
+    }
+
+    /**
+     * Wait until bytes are available in this budget and its parent then take them.
+     * @param bytes which is going to be allocated
+     * @return granted bytes which must be given back by {@link #release(long)}
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public long acquire(long bytes) throws InterruptedException
+    {
+        long granted;
+        synchronized (this) {
+            granted = Math.max(0, Math.min(bytes, capacity));
+            while (used + granted > capacity) {
+                wait();
+            }
+            used += granted;
+        }
+        if( parent != null ){
+            // lock of this budget is not held so release of other request is never blocked while parent is full
+            try {
+                parent.acquire(granted);
+            } catch (InterruptedException e) {
+                releaseOwn(granted);
+                throw e;
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Give back bytes which were granted by {@link #acquire(long)}.
+     * @param granted bytes
+     */
+    public void release(long granted)
+    {
+        releaseOwn(granted);
+        if( parent != null )    parent.release(granted);
+    }
+
+    private synchronized void releaseOwn(long granted)
+    {
+        used = Math.max(0, used - granted);
+        notifyAll();
+    }
+
+    public long getCapacity( )
+    {
+        return capacity;
+    }
+
+    public synchronized long getUsed( )
+    {
+        return used;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keep bitmap memory of manager under control.
+ * It tracks bytes of bitmap which were issued to caller and not released yet,
+ * makes large decodes wait on shared {@link MemoryBudget} so they do not run all at once,
+ * and sheds cache and pool by trim level when it is registered as {@link ComponentCallbacks2}.
+ */
+public class MemoryGovernor implements ComponentCallbacks2 {
+
+    /** Decode which is smaller than this, e.g. thumbnail, is never throttled. */
+    public static final long DEFAULT_LARGE_DECODE_BYTES = 4L * 1024 * 1024;
+
+    private final BitmapCache bitmapCache;
+    private final BitmapPool bitmapPool;
+    private final TileDecoder tileDecoder;
+    private final MemoryBudget budget;
+    private final long largeDecodeBytes;
+    private final Map<Bitmap, Boolean> outstanding = new WeakHashMap<>();
+    private volatile int lastTrimLevel;
+
+    /**
+     * Create governor which budget is 1/4 of max heap.
+     */
+    public MemoryGovernor(BitmapCache bitmapCache, BitmapPool bitmapPool, TileDecoder tileDecoder)
+    {
+        this(bitmapCache, bitmapPool, tileDecoder, Runtime.getRuntime().maxMemory() / 4, DEFAULT_LARGE_DECODE_BYTES);
+    }
+
+    /**
+     * @param bitmapCache which is trimmed
+     * @param bitmapPool which is trimmed
+     * @param tileDecoder which decoders are closed in background
+     * @param budgetBytes bytes which large decodes can allocate at the same time
+     * @param largeDecodeBytes decode which is at least this size is throttled
+     */
+    public MemoryGovernor(BitmapCache bitmapCache, BitmapPool bitmapPool, TileDecoder tileDecoder, long budgetBytes, long largeDecodeBytes)
+    {
+        this.bitmapCache = bitmapCache;
+        this.bitmapPool = bitmapPool;
+        this.tileDecoder = tileDecoder;
+        this.budget = new MemoryBudget(budgetBytes);
+        this.largeDecodeBytes = largeDecodeBytes;
+    }
+
+    /**
+     * Wait until large decode can allocate its bytes, small decode is never blocked.
+     * @param bytes which is going to be allocated
+     * @return granted bytes which must be given back by {@link #release(long)}
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public long acquire(long bytes) throws InterruptedException
+    {
+        if( bytes < largeDecodeBytes )  return 0;
+        return budget.acquire(bytes);
+    }
+
+    /**
+     * @param granted bytes which were returned by {@link #acquire(long)}
+     */
+    public void release(long granted)
+    {
+        if( granted > 0 )   budget.release(granted);
+    }
+
+    /**
+     * Remember bitmap which was issued to caller, it is forgotten when it is garbage collected.
+     * @param bitmap which was issued
+     * @return same bitmap
+     */
+    public Bitmap track(Bitmap bitmap)
+    {
+        if( bitmap == null )    return null;
+        synchronized (outstanding) {
+            outstanding.put(bitmap, Boolean.TRUE);
+        }
+        return bitmap;
+    }
+
+    /**
+     * @param bitmap which was given back, e.g. to pool
+     */
+    public void untrack(Bitmap bitmap)
+    {
+        if( bitmap == null )    return;
+        synchronized (outstanding) {
+            outstanding.remove(bitmap);
+        }
+    }
+
+    /**
+     * @return bytes of bitmap which were issued and are still alive
+     */
+    public long getOutstandingBytes( )
+    {
+        long bytes = 0;
+        synchronized (outstanding) {
+            for (Bitmap bitmap : outstanding.keySet()) {
+                if( bitmap != null && !bitmap.isRecycled() )    bytes += BitmapUtils.getByteCount(bitmap);
+            }
+        }
+        return bytes;
+    }
+
+    public int getOutstandingCount( )
+    {
+        synchronized (outstanding) {
+            return outstanding.size();
+        }
+    }
+
+    public MemoryBudget getBudget( )
+    {
+        return budget;
+    }
+
+    /**
+     * @return level of last {@link #onTrimMemory(int)}, 0 if it was never called
+     */
+    public int getLastTrimLevel( )
+    {
+        return lastTrimLevel;
+    }
+
+    /**
+     * Shrink cache and pool to ratio of their max size.
+     * @param ratio from 0 for clear to 1 for keep everything
+     */
+    public void trim(float ratio)
+    {
+        ratio = Math.max(0, Math.min(1, ratio));
+        bitmapCache.trimMemory(ratio);
+        bitmapPool.trimToSize((int) (bitmapPool.getMaxSize() * ratio));
+        // every open decoder hold file descriptor and native buffer
+        if( ratio <= 0.5f )     tileDecoder.closeAll();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        lastTrimLevel = level;
+        trim(getKeepRatio(level));
+    }
+
+    /**
+     * Ratio of cache which is kept, process which is more likely to be killed keep less.
+     */
+    static float getKeepRatio(int level)
+    {
+        if( level >= TRIM_MEMORY_COMPLETE )     return 0;
+        if( level >= TRIM_MEMORY_MODERATE )     return 0.25f;
+        if( level >= TRIM_MEMORY_UI_HIDDEN )    return 0.5f;
+        if( level >= TRIM_MEMORY_RUNNING_CRITICAL )     return 0.25f;
+        if( level >= TRIM_MEMORY_RUNNING_LOW )  return 0.5f;
+        if( level >= TRIM_MEMORY_RUNNING_MODERATE )     return 0.75f;
+        return 1;
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(0);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
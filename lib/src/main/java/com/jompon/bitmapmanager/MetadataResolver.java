@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolve and cache metadata of uri, e.g. real path, size, mime type, bounds and orientation.
+ * Cached metadata which file is accessible is checked against size and last modified time
+ * of file so it is dropped when file is modified. Many uris of MediaStore are resolved by
+ * one query per table instead of one query per uri.
+ * Orientation is never taken from MediaStore, its column has no mirror so it is read from exif of image instead.
+ */
+public class MetadataResolver {
+
+    public static final int DEFAULT_CACHE_SIZE = 512;
+    // sqlite allows at most 999 arguments per query
+    private static final int MAX_QUERY_ARGUMENTS = 500;
+    private static final String[] PROJECTION = {
+            MediaStore.Images.Media._ID,
+            MediaStore.Images.Media.DATA,
+            MediaStore.Images.Media.SIZE,
+            MediaStore.Images.Media.MIME_TYPE,
+            MediaStore.Images.Media.WIDTH,
+            MediaStore.Images.Media.HEIGHT,
+            MediaStore.Images.Media.DATE_MODIFIED
+    };
+
+    private final ContentResolver resolver;
+    private final LruCache<String, ImageMetadata> cache;
+
+    public MetadataResolver(ContentResolver resolver)
+    {
+        this(resolver, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param resolver of uri
+     * @param cacheSize number of uri which metadata is cached
+     */
+    public MetadataResolver(ContentResolver resolver, int cacheSize)
+    {
+        this.resolver = resolver;
+        this.cache = new LruCache<>(cacheSize);
+    }
+
+    /**
+     * Get metadata of uri from cache or query it.
+     * @param uri of image file path
+     * @return metadata, field which cannot be resolved is 0 or null
+     */
+    public ImageMetadata resolve(Uri uri)
+    {
+        ImageMetadata metadata = getCached(uri);
+        if( metadata != null )  return metadata;
+
+        if( ContentResolver.SCHEME_FILE.equals(uri.getScheme()) ){
+            metadata = resolveFile(uri.getPath());
+        } else {
+            metadata = query(uri);
+        }
+        cache.put(uri.toString(), metadata);
+        return metadata;
+    }
+
+    /**
+     * Get metadata of many uris, uris of same MediaStore table are resolved by one query.
+     * @param uris of image file path
+     * @return metadata of every uri in same order
+     */
+    public Map<Uri, ImageMetadata> resolve(Collection<Uri> uris)
+    {
+        Map<Uri, ImageMetadata> result = new LinkedHashMap<>();
+        Map<Uri, List<Uri>> tables = new HashMap<>();
+        for (Uri uri : uris) {
+            ImageMetadata metadata = getCached(uri);
+            Uri table = metadata == null? getMediaTable(uri): null;
+            if( metadata == null && table != null ){
+                List<Uri> members = tables.get(table);
+                if( members == null ){
+                    members = new ArrayList<>();
+                    tables.put(table, members);
+                }
+                members.add(uri);
+            }
+            // keep order of request, value is replaced later
+            result.put(uri, metadata != null || table != null? metadata: resolve(uri));
+        }
+
+        for (Map.Entry<Uri, List<Uri>> entry : tables.entrySet()) {
+            List<Uri> members = entry.getValue();
+            for (int start = 0; start < members.size(); start += MAX_QUERY_ARGUMENTS) {
+                List<Uri> chunk = members.subList(start, Math.min(members.size(), start + MAX_QUERY_ARGUMENTS));
+                queryTable(entry.getKey(), chunk, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merge metadata which was read from image itself, e.g. bounds and exif orientation.
+     * @param uri of image file path
+     * @param metadata which was read
+     * @return merged metadata
+     */
+    public ImageMetadata put(Uri uri, ImageMetadata metadata)
+    {
+        String key = uri.toString();
+        ImageMetadata merged = metadata.merge(cache.get(key));
+        cache.put(key, merged);
+        return merged;
+    }
+
+    /**
+     * Get cached metadata without query.
+     * @param uri of image file path
+     * @return metadata or null if it is not cached or file was modified
+     */
+    public ImageMetadata getCached(Uri uri)
+    {
+        String key = uri.toString();
+        ImageMetadata metadata = cache.get(key);
+        if( metadata == null )  return null;
+
+        if( isModified(metadata) ){
+            cache.remove(key);
+            return null;
+        }
+        return metadata;
+    }
+
+    /**
+     * Drop cached metadata of uri, e.g. when it was modified.
+     * @param uri of image file path
+     */
+    public void invalidate(Uri uri)
+    {
+        cache.remove(uri.toString());
+    }
+
+    public void clear( )
+    {
+        cache.evictAll();
+    }
+
+    private static boolean isModified(ImageMetadata metadata)
+    {
+        if( metadata.getPath() == null )    return false;
+        File file = new File(metadata.getPath());
+        // file which cannot be accessed can be checked only by explicit invalidate
+        if( !file.canRead() )   return false;
+        return file.lastModified() != metadata.getLastModified() || file.length() != metadata.getSize();
+    }
+
+    private static ImageMetadata resolveFile(String path)
+    {
+        if( path == null )  return new ImageMetadata(null, 0, 0, null, 0, 0, 0);
+        File file = new File(path);
+        return new ImageMetadata(path, file.length(), file.lastModified(), null, 0, 0, 0);
+    }
+
+    /**
+     * Get table of MediaStore uri which ends with id, e.g. content://media/external/images/media/12.
+     */
+    private static Uri getMediaTable(Uri uri)
+    {
+        if( !ContentResolver.SCHEME_CONTENT.equals(uri.getScheme()) || !MediaStore.AUTHORITY.equals(uri.getAuthority()) )
+            return null;
+        String id = uri.getLastPathSegment();
+        if( id == null || !id.matches("\\d+") )    return null;
+        String text = uri.toString();
+        return Uri.parse(text.substring(0, text.lastIndexOf('/')));
+    }
+
+    private ImageMetadata query(Uri uri)
+    {
+        Cursor cursor = null;
+        try {
+            boolean media = MediaStore.AUTHORITY.equals(uri.getAuthority());
+            cursor = resolver.query(uri, media? PROJECTION: null, null, null, null);
+            if( cursor != null && cursor.moveToFirst() )    return read(cursor);
+        } catch (RuntimeException e) {
+            // provider does not support query or projection
+        } finally {
+            if( cursor != null )    cursor.close();
+        }
+        return new ImageMetadata(null, 0, 0, null, 0, 0, 0);
+    }
+
+    private void queryTable(Uri table, List<Uri> uris, Map<Uri, ImageMetadata> result)
+    {
+        Map<Long, Uri> ids = new HashMap<>();
+        StringBuilder selection = new StringBuilder(MediaStore.Images.Media._ID).append(" IN (");
+        String[] args = new String[uris.size()];
+        for (int i = 0; i < uris.size(); i++) {
+            Uri uri = uris.get(i);
+            long id = ContentUris.parseId(uri);
+            ids.put(id, uri);
+            args[i] = String.valueOf(id);
+            selection.append(i == 0? "?": ",?");
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(table, PROJECTION, selection.toString(), args, null);
+            if( cursor != null ){
+                int idIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+                while (cursor.moveToNext()) {
+                    Uri uri = ids.remove(cursor.getLong(idIndex));
+                    if( uri == null )   continue;
+                    ImageMetadata metadata = read(cursor);
+                    cache.put(uri.toString(), metadata);
+                    result.put(uri, metadata);
+                }
+            }
+        } catch (RuntimeException e) {
+            // fall back to one query per uri below
+        } finally {
+            if( cursor != null )    cursor.close();
+        }
+        for (Uri uri : ids.values()) {
+            result.put(uri, resolve(uri));
+        }
+    }
+
+    private static ImageMetadata read(Cursor cursor)
+    {
+        String path = getString(cursor, MediaStore.Images.Media.DATA);
+        long size = getLong(cursor, MediaStore.Images.Media.SIZE);
+        long lastModified = getLong(cursor, MediaStore.Images.Media.DATE_MODIFIED) * 1000;
+        if( path != null ){
+            // prefer file itself so modification can be detected later
+            File file = new File(path);
+            if( file.canRead() ){
+                size = file.length();
+                lastModified = file.lastModified();
+            }
+        }
+        return new ImageMetadata(path, size, lastModified,
+                getString(cursor, MediaStore.Images.Media.MIME_TYPE),
+                (int) getLong(cursor, MediaStore.Images.Media.WIDTH),
+                (int) getLong(cursor, MediaStore.Images.Media.HEIGHT),
+                0);
+    }
+
+    private static String getString(Cursor cursor, String column)
+    {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index)? null: cursor.getString(index);
+    }
+
+    private static long getLong(Cursor cursor, String column)
+    {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 || cursor.isNull(index)? 0: cursor.getLong(index);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+/**
+ * Difference hash of image: 64 bits which tell whether brightness rise or fall between neighbour cells of 9x8 grid.
+ * Near-duplicate images, e.g. re-encoded, resized or slightly edited copy, have hashes of small Hamming distance.
+ * It is pure Java so it can be tested on JVM without Android.
+ */
+public final class PerceptualHash {
+
+    /** Images which hashes differ by at most this many bits are near-duplicate. */
+    public static final int DEFAULT_MAX_DISTANCE = 10;
+    /** Side of tiny image which is enough for hash, e.g. target of sampled decode. */
+    public static final int SAMPLE_SIZE = 32;
+
+    private static final int GRID_WIDTH = 9;
+    private static final int GRID_HEIGHT = 8;
+    private static final Downscaler DOWNSCALER = new Downscaler(Downscaler.Filter.BOX, null, 1);
+
+    private PerceptualHash( )
+    {
+    }
+
+    /**
+     * @param pixels of image in ARGB, row by row
+     * @param width of image
+     * @param height of image
+     * @return difference hash of image
+     */
+    public static long dHash(int[] pixels, int width, int height)
+    {
+        int[] grid = DOWNSCALER.scale(pixels, width, height, GRID_WIDTH, GRID_HEIGHT);
+        int[] luma = new int[grid.length];
+        for (int i = 0; i < grid.length; i++) {
+            int pixel = grid[i];
+            luma[i] = 299 * ((pixel >> 16) & 0xff) + 587 * ((pixel >> 8) & 0xff) + 114 * (pixel & 0xff);
+        }
+
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            int row = y * GRID_WIDTH;
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                hash <<= 1;
+                if( luma[row + x] > luma[row + x + 1] )     hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return number of bits which differ between two hashes, 0 for identical image
+     */
+    public static int distance(long hash1, long hash2)
+    {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
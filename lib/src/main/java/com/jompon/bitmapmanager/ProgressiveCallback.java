@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+
+/**
+ * Callback of progressive load which receive small preview before result.
+ * Every method is called on main thread and nothing is called after request was cancelled.
+ */
+public interface ProgressiveCallback extends BitmapCallback<TransformResult> {
+
+    /**
+     * Called once before {@link #onSuccess(Object)} when preview could be decoded.
+     * @param preview oriented small bitmap, it should be released when result arrives
+     */
+    void onPreview(Bitmap preview);
+}
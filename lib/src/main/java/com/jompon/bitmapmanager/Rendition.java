@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+/**
+ * One size of image which is generated by {@link RenditionGenerator}, e.g. thumbnail, medium or large.
+ */
+public class Rendition {
+
+    private final String name;
+    private final int maxSize;
+    private final EncodeSpec spec;
+
+    /**
+     * @param name which is appended to file name, e.g. "thumb"
+     * @param maxSize of longer side in pixel, image is never upscaled
+     * @param spec of encode, e.g. format, quality or max bytes
+     */
+    public Rendition(String name, int maxSize, EncodeSpec spec)
+    {
+        if( name == null || spec == null )  throw new IllegalArgumentException("name and spec must not be null");
+        if( maxSize <= 0 )  throw new IllegalArgumentException("maxSize must be positive");
+        this.name = name;
+        this.maxSize = maxSize;
+        this.spec = spec;
+    }
+
+    public String getName( )
+    {
+        return name;
+    }
+
+    public int getMaxSize( )
+    {
+        return maxSize;
+    }
+
+    public EncodeSpec getSpec( )
+    {
+        return spec;
+    }
+}
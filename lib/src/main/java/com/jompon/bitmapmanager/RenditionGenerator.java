@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generate every size of one image, e.g. thumbnail, medium and large of upload, from single decode.
+ * Image is decoded once at sample of largest rendition, every smaller one is cascaded down from the next larger one
+ * by {@link Downscaler} of manager when it is enabled and source is small, otherwise by native filter,
+ * and each rendition is encoded by its own spec on worker thread while next one is being scaled.
+ * Files are named like {@link FileManager#getDestinationImageFilename()} with name of rendition appended.
+ * Worker threads are kept by generator and reused by every call, idle ones stop after a while.
+ */
+public class RenditionGenerator {
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final BitmapManager bitmapManager;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Create generator which use every core.
+     * @param bitmapManager which decode and encode renditions
+     */
+    public RenditionGenerator(BitmapManager bitmapManager)
+    {
+        this(bitmapManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param bitmapManager which decode and encode renditions
+     * @param threadCount number of rendition which is encoded in parallel
+     */
+    public RenditionGenerator(BitmapManager bitmapManager, int threadCount)
+    {
+        this.bitmapManager = bitmapManager;
+        int threads = Math.max(1, threadCount);
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("RenditionGenerator"));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decode source once then scale and encode every rendition.
+     * @param source of image
+     * @param renditions sizes which are generated
+     * @return result of every rendition in same order
+     * @throws IOException if source cannot be read or decoded
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public RenditionResult generate(ImageSource source, List<Rendition> renditions) throws IOException, InterruptedException
+    {
+        if( renditions.isEmpty() )  throw new IllegalArgumentException("renditions must not be empty");
+        long start = System.currentTimeMillis();
+
+        // largest first so every smaller rendition is scaled from nearest larger bitmap
+        List<Rendition> sorted = new ArrayList<>(renditions);
+        Collections.sort(sorted, new Comparator<Rendition>() {
+            @Override
+            public int compare(Rendition r1, Rendition r2) {
+                return r2.getMaxSize() - r1.getMaxSize();
+            }
+        });
+        int largest = sorted.get(0).getMaxSize();
+        Transformation transformation = new Transformation.Builder()
+                .fit(largest, largest)
+                .upscale(false)
+                .purpose(ConfigPolicy.Purpose.ENCODE)
+                .build();
+        Bitmap bitmap = bitmapManager.transform(source, transformation).getBitmap();
+
+        File base = bitmapManager.getDestinationImageFilename();
+        String baseName = base.getName();
+        int dot = baseName.lastIndexOf('.');
+        final File dir = base.getParentFile();
+        final String stem = dot > 0? baseName.substring(0, dot): baseName;
+
+        Map<Rendition, Future<RenditionResult.Item>> futures = new IdentityHashMap<>();
+        List<Bitmap> bitmaps = new ArrayList<>();
+        bitmaps.add(bitmap);
+        try {
+            for (final Rendition rendition : sorted) {
+                // encode of larger rendition keep reading its bitmap while this one is scaled from it
+                bitmap = downscale(bitmap, rendition.getMaxSize());
+                if( bitmap != bitmaps.get(bitmaps.size() - 1) )     bitmaps.add(bitmap);
+                final Bitmap output = bitmap;
+                futures.put(rendition, executor.submit(new Callable<RenditionResult.Item>() {
+                    @Override
+                    public RenditionResult.Item call() throws Exception {
+                        return encode(output, rendition, dir, stem);
+                    }
+                }));
+            }
+
+            List<RenditionResult.Item> items = new ArrayList<>(renditions.size());
+            for (Rendition rendition : renditions) {
+                try {
+                    items.add(futures.get(rendition).get());
+                } catch (ExecutionException e) {
+                    // every failure is caught by item so it should not happen
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return new RenditionResult(items, System.currentTimeMillis() - start);
+        } finally {
+            // bitmaps are given back only after every encode finished reading them
+            if( awaitAll(futures.values()) ){
+                for (Bitmap b : bitmaps) {
+                    bitmapManager.release(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop worker threads, encode which is running is interrupted.
+     */
+    public void shutdown( )
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Wait until every encode is done even when thread is interrupted, interrupt is restored afterward.
+     * @return false if encode was dropped by shutdown so its bitmap may still be read
+     */
+    private static boolean awaitAll(Collection<Future<RenditionResult.Item>> futures)
+    {
+        boolean interrupted = false;
+        boolean done = true;
+        for (Future<RenditionResult.Item> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    done = false;
+                    break;
+                }
+            }
+        }
+        if( interrupted )   Thread.currentThread().interrupt();
+        return done;
+    }
+
+    /**
+     * Scale bitmap so its longer side fit maxSize by {@link Downscaler} of manager when it can, so filter never skip source pixels.
+     * @return scaled bitmap or source itself if it already fit
+     */
+    private Bitmap downscale(Bitmap source, int maxSize)
+    {
+        float scale = (float) maxSize / Math.max(source.getWidth(), source.getHeight());
+        if( scale >= 1 )    return source;
+        int width = Math.max(1, Math.round(source.getWidth() * scale));
+        int height = Math.max(1, Math.round(source.getHeight() * scale));
+        if( BitmapUtils.canDownscale(bitmapManager.getDownscaler(), source, width, height) ){
+            return BitmapUtils.downscale(bitmapManager.getDownscaler(), bitmapManager.getBitmapPool(), source, width, height);
+        }
+        Matrix matrix = new Matrix();
+        matrix.postScale((float) width / source.getWidth(), (float) height / source.getHeight());
+        return BitmapUtils.createBitmap(bitmapManager.getBitmapPool(), source, matrix, width, height, true);
+    }
+
+    private RenditionResult.Item encode(Bitmap bitmap, Rendition rendition, File dir, String stem)
+    {
+        EncodeSpec spec = rendition.getSpec();
+        String prefix = stem + "_" + rendition.getName();
+        File file = new File(dir, prefix + BitmapUtils.getExtension(BitmapEncoder.selectFormat(bitmap, spec)));
+        try {
+            EncodeResult result = bitmapManager.getEncodeQueue().write(file, bitmap, spec);
+            File named = new File(dir, prefix + BitmapUtils.getExtension(result.getFormat()));
+            // format of auto selection can change while searching target size
+            if( !named.equals(file) && file.renameTo(named) )   file = named;
+            return new RenditionResult.Item(rendition, file, bitmap.getWidth(), bitmap.getHeight(), result, null);
+        } catch (IOException | RuntimeException e) {
+            return new RenditionResult.Item(rendition, null, 0, 0, null, e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of every rendition of one image.
+ */
+public class RenditionResult {
+
+    private final List<Item> items;
+    private final long elapsedMillis;
+
+    RenditionResult(List<Item> items, long elapsedMillis)
+    {
+        this.items = Collections.unmodifiableList(items);
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return result of every rendition in order of request
+     */
+    public List<Item> getItems( )
+    {
+        return items;
+    }
+
+    /**
+     * @param name of rendition
+     * @return result of rendition or null if it was not requested
+     */
+    public Item getItem(String name)
+    {
+        for (Item item : items) {
+            if( item.getRendition().getName().equals(name) )    return item;
+        }
+        return null;
+    }
+
+    public long getElapsedMillis( )
+    {
+        return elapsedMillis;
+    }
+
+    public boolean isSuccess( )
+    {
+        for (Item item : items) {
+            if( !item.isSuccess() )     return false;
+        }
+        return true;
+    }
+
+    public static class Item {
+
+        private final Rendition rendition;
+        private final File file;
+        private final int width;
+        private final int height;
+        private final EncodeResult encodeResult;
+        private final Exception error;
+
+        Item(Rendition rendition, File file, int width, int height, EncodeResult encodeResult, Exception error)
+        {
+            this.rendition = rendition;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.encodeResult = encodeResult;
+            this.error = error;
+        }
+
+        public Rendition getRendition( )
+        {
+            return rendition;
+        }
+
+        /**
+         * @return written file or null if rendition failed
+         */
+        public File getFile( )
+        {
+            return file;
+        }
+
+        public int getWidth( )
+        {
+            return width;
+        }
+
+        public int getHeight( )
+        {
+            return height;
+        }
+
+        /**
+         * @return format, quality and size of file or null if rendition failed
+         */
+        public EncodeResult getEncodeResult( )
+        {
+            return encodeResult;
+        }
+
+        public Exception getError( )
+        {
+            return error;
+        }
+
+        public boolean isSuccess( )
+        {
+            return error == null;
+        }
+    }
+}
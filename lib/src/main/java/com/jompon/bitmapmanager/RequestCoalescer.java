@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Share one decode between concurrent requests of same key, e.g. several views of feed which ask for same image and size.
+ * First request decodes on its own thread while later requests wait for its result instead of reading image again.
+ * Shared bitmap is reference counted, one reference per consumer, so it is released only when last consumer is done.
+ */
+public class RequestCoalescer {
+
+    private final Map<String, Request<?>> inFlight = new HashMap<>();
+    private final Map<Bitmap, int[]> references = new WeakHashMap<>();
+    private final AtomicInteger coalescedCount = new AtomicInteger();
+    private final Recycler recycler;
+
+    /**
+     * Create coalescer which only count references, bitmap which is released by last consumer is left to caller.
+     */
+    public RequestCoalescer( )
+    {
+        this(null);
+    }
+
+    /**
+     * @param recycler which is given bitmap when its last reference was released, can be null
+     */
+    public RequestCoalescer(Recycler recycler)
+    {
+        this.recycler = recycler;
+    }
+
+    /**
+     * Run request or join same request which is already running.
+     * Bitmap of result is retained once for every consumer, including the one which decoded it.
+     * @param key of request, e.g. source, size, config and transformation
+     * @param callable which decodes result, it is called only by first consumer
+     * @return result which is shared by every consumer of key
+     * @throws IOException if decode failed or thread was interrupted while waiting
+     */
+    public <T> T execute(String key, Callable<T> callable) throws IOException
+    {
+        return execute(key, callable, null);
+    }
+
+    /**
+     * Run request or join same request which is already running, result is published by first consumer,
+     * e.g. put to cache, only after every consumer was counted, so late request or eviction never see released bitmap.
+     * @param key of request, e.g. source, size, config and transformation
+     * @param callable which decodes result, it is called only by first consumer
+     * @param publisher which is given result before request stop accepting joiners, can be null
+     * @return result which is shared by every consumer of key
+     * @throws IOException if decode failed or thread was interrupted while waiting
+     */
+    public <T> T execute(String key, Callable<T> callable, Publisher<T> publisher) throws IOException
+    {
+        Request<T> request;
+        boolean owner = false;
+        synchronized (inFlight) {
+            @SuppressWarnings("unchecked")
+            Request<T> running = (Request<T>) inFlight.get(key);
+            if( running != null ){
+                running.consumers++;
+                coalescedCount.incrementAndGet();
+                request = running;
+            } else {
+                request = new Request<>(callable);
+                inFlight.put(key, request);
+                owner = true;
+            }
+        }
+
+        if( owner ){
+            try {
+                request.run();
+            } finally {
+                synchronized (inFlight) {
+                    try {
+                        retain(request.getBitmap(), request.consumers);
+                        request.retained = true;
+                        T result = request.getResult();
+                        if( publisher != null && result != null )   publisher.publish(result);
+                    } finally {
+                        inFlight.remove(key);
+                    }
+                }
+            }
+        }
+
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            // consumer which gave up must not keep its reference
+            boolean retained;
+            synchronized (inFlight) {
+                retained = request.retained;
+                if( !retained )     request.consumers--;
+            }
+            if( retained )  release(request.getBitmap());
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for shared request " + key);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if( cause instanceof IOException )          throw (IOException) cause;
+            if( cause instanceof RuntimeException )     throw (RuntimeException) cause;
+            if( cause instanceof Error )                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Add reference of consumer, e.g. when bitmap is handed out from cache.
+     * @param bitmap which is shared
+     * @return same bitmap
+     */
+    public Bitmap retain(Bitmap bitmap)
+    {
+        retain(bitmap, 1);
+        return bitmap;
+    }
+
+    private void retain(Bitmap bitmap, int count)
+    {
+        if( bitmap == null || count <= 0 )  return;
+        synchronized (references) {
+            int[] reference = references.get(bitmap);
+            if( reference == null ){
+                references.put(bitmap, new int[]{ count });
+            } else {
+                reference[0] += count;
+            }
+        }
+    }
+
+    /**
+     * Remove reference of consumer, bitmap is given to recycler when no reference is left.
+     * @param bitmap which consumer is done with
+     * @return true if no consumer is left so bitmap can be recycled, also true for bitmap which was never shared
+     */
+    public boolean release(Bitmap bitmap)
+    {
+        if( bitmap == null )    return false;
+        synchronized (references) {
+            int[] reference = references.get(bitmap);
+            if( reference != null ){
+                if( --reference[0] > 0 )    return false;
+                references.remove(bitmap);
+            }
+        }
+        if( recycler != null )  recycler.recycle(bitmap);
+        return true;
+    }
+
+    /**
+     * @param bitmap which is shared
+     * @return number of consumer which did not release bitmap yet
+     */
+    public int getReferenceCount(Bitmap bitmap)
+    {
+        synchronized (references) {
+            int[] reference = references.get(bitmap);
+            return reference != null? reference[0]: 0;
+        }
+    }
+
+    /**
+     * @return number of request which joined running request instead of decoding itself
+     */
+    public int getCoalescedCount( )
+    {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return number of request which are decoding now
+     */
+    public int getInFlightCount( )
+    {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Hand out result of request to later request, e.g. put it to cache.
+     * @param <T> type of result
+     */
+    public interface Publisher<T> {
+
+        /**
+         * @param result of request which every consumer already hold reference of
+         */
+        void publish(T result);
+    }
+
+    /**
+     * Owner of memory of bitmap which no consumer hold anymore, e.g. pool.
+     */
+    public interface Recycler {
+
+        /**
+         * @param bitmap which last reference was released, it must not be handed out again
+         */
+        void recycle(Bitmap bitmap);
+    }
+
+    private static class Request<T> extends FutureTask<T> {
+
+        // guarded by inFlight
+        int consumers = 1;
+        boolean retained;
+
+        Request(Callable<T> callable)
+        {
+            super(callable);
+        }
+
+        T getResult( )
+        {
+            if( !isDone() || isCancelled() )    return null;
+            try {
+                return get();
+            } catch (InterruptedException | ExecutionException e) {
+                // failed request has nothing to retain
+                return null;
+            }
+        }
+
+        Bitmap getBitmap( )
+        {
+            Object result = getResult();
+            if( result instanceof Bitmap )              return (Bitmap) result;
+            if( result instanceof TransformResult )     return ((TransformResult) result).getBitmap();
+            return null;
+        }
+    }
+}
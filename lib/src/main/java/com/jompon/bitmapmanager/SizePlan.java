@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Plan of decode which produce close to target pixels directly from decoder.
+ * Largest power of 2 inSampleSize which does not go below target is chosen first,
+ * then remaining downscale is done by inDensity and inTargetDensity so no oversized
+ * intermediate bitmap and no extra scaled copy is created. Decoder never upscales,
+ * size which is larger than source is left to {@link #needsFinalScale()}.
+ */
+public final class SizePlan {
+
+    public enum Mode {
+        /** Keep ratio, whole image is inside target. */
+        FIT,
+        /** Keep ratio, image cover target, e.g. min size of both side. */
+        FILL,
+        /** Target size exactly, decoder produce FILL size then it is scaled to target. */
+        EXACT,
+        /** Keep ratio, number of pixels is not over target width * height. */
+        MAX_PIXELS
+    }
+
+    private final Mode mode;
+    private final int srcWidth;
+    private final int srcHeight;
+    private final int sampleSize;
+    private final int density;
+    private final int targetDensity;
+    private final int outWidth;
+    private final int outHeight;
+    private final int targetWidth;
+    private final int targetHeight;
+
+    private SizePlan(Mode mode, int srcWidth, int srcHeight, int sampleSize, int density, int targetDensity, int outWidth, int outHeight, int targetWidth, int targetHeight)
+    {
+        this.mode = mode;
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.sampleSize = sampleSize;
+        this.density = density;
+        this.targetDensity = targetDensity;
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+    }
+
+    public static SizePlan fit(int srcWidth, int srcHeight, int width, int height)
+    {
+        checkTarget(width, height);
+        return create(Mode.FIT, srcWidth, srcHeight, Math.min((double) width / srcWidth, (double) height / srcHeight), width, height);
+    }
+
+    public static SizePlan fill(int srcWidth, int srcHeight, int width, int height)
+    {
+        checkTarget(width, height);
+        return create(Mode.FILL, srcWidth, srcHeight, Math.max((double) width / srcWidth, (double) height / srcHeight), width, height);
+    }
+
+    public static SizePlan exact(int srcWidth, int srcHeight, int width, int height)
+    {
+        checkTarget(width, height);
+        return create(Mode.EXACT, srcWidth, srcHeight, Math.max((double) width / srcWidth, (double) height / srcHeight), width, height);
+    }
+
+    /**
+     * @param srcWidth of encoded image
+     * @param srcHeight of encoded image
+     * @param maxPixels number of pixels of output
+     * @return plan of decode
+     */
+    public static SizePlan maxPixels(int srcWidth, int srcHeight, long maxPixels)
+    {
+        if( maxPixels <= 0 )    throw new IllegalArgumentException("Invalid max pixels " + maxPixels);
+        return create(Mode.MAX_PIXELS, srcWidth, srcHeight, Math.sqrt((double) maxPixels / ((long) srcWidth * srcHeight)), 0, 0);
+    }
+
+    private static void checkTarget(int width, int height)
+    {
+        if( width <= 0 || height <= 0 )     throw new IllegalArgumentException("Invalid target " + width + "x" + height);
+    }
+
+    private static SizePlan create(Mode mode, int srcWidth, int srcHeight, double scale, int width, int height)
+    {
+        if( srcWidth <= 0 || srcHeight <= 0 )   throw new IllegalArgumentException("Invalid source " + srcWidth + "x" + srcHeight);
+        scale = Math.min(1, scale);
+
+        // fill has to cover target so it is rounded up, others must stay inside so they are rounded down
+        int decodeWidth = round(srcWidth * scale, mode);
+        int decodeHeight = round(srcHeight * scale, mode);
+        if( mode != Mode.EXACT ){
+            width = decodeWidth;
+            height = decodeHeight;
+        }
+
+        int sampleSize = 1;
+        while (sampled(srcWidth, sampleSize * 2) >= decodeWidth && sampled(srcHeight, sampleSize * 2) >= decodeHeight) {
+            sampleSize *= 2;
+        }
+        return withDensity(mode, srcWidth, srcHeight, sampleSize, decodeWidth, decodeHeight, width, height);
+    }
+
+    private static SizePlan withDensity(Mode mode, int srcWidth, int srcHeight, int sampleSize, int decodeWidth, int decodeHeight, int width, int height)
+    {
+        int sampledWidth = sampled(srcWidth, sampleSize);
+        int sampledHeight = sampled(srcHeight, sampleSize);
+        if( sampledWidth == decodeWidth && sampledHeight == decodeHeight ){
+            return new SizePlan(mode, srcWidth, srcHeight, sampleSize, 0, 0, sampledWidth, sampledHeight, width, height);
+        }
+
+        // density of longer side is more precise, other side is rounded same as decoder does
+        boolean byWidth = sampledWidth >= sampledHeight;
+        int density = byWidth? sampledWidth: sampledHeight;
+        int targetDensity = byWidth? decodeWidth: decodeHeight;
+        float scale = targetDensity / (float) density;
+        int outWidth = Math.max(1, (int) (sampledWidth * scale + 0.5f));
+        int outHeight = Math.max(1, (int) (sampledHeight * scale + 0.5f));
+        return new SizePlan(mode, srcWidth, srcHeight, sampleSize, density, targetDensity, outWidth, outHeight, width, height);
+    }
+
+    private static int sampled(int size, int sampleSize)
+    {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    private static int round(double size, Mode mode)
+    {
+        // tolerate float error of scale which was computed from same size
+        double value = mode == Mode.FILL || mode == Mode.EXACT? Math.ceil(size - 1e-6): Math.floor(size + 1e-6);
+        return Math.max(1, (int) value);
+    }
+
+    /**
+     * Force sample size to be at least minimum, e.g. caller which always wants miniature.
+     * Density scale is dropped when minimum is larger than planned sample size.
+     * @param minSampleSize minimum of inSampleSize
+     * @return plan which sample size is not less than minimum
+     */
+    public SizePlan withMinSampleSize(int minSampleSize)
+    {
+        int min = Integer.highestOneBit(Math.max(1, minSampleSize));
+        if( min <= sampleSize )     return this;
+        int width = sampled(srcWidth, min);
+        int height = sampled(srcHeight, min);
+        return new SizePlan(mode, srcWidth, srcHeight, min, 0, 0, width, height,
+                mode == Mode.EXACT? targetWidth: width, mode == Mode.EXACT? targetHeight: height);
+    }
+
+    /**
+     * Set inSampleSize and density of decoder.
+     * @param options of decoder
+     */
+    public void apply(BitmapFactory.Options options)
+    {
+        options.inSampleSize = sampleSize;
+        if( density > 0 ){
+            options.inScaled = true;
+            options.inDensity = density;
+            options.inTargetDensity = targetDensity;
+        } else {
+            options.inScaled = false;
+        }
+    }
+
+    public Mode getMode( )
+    {
+        return mode;
+    }
+
+    public int getSampleSize( )
+    {
+        return sampleSize;
+    }
+
+    /**
+     * @return inDensity of decoder, 0 if decoder does not scale
+     */
+    public int getDensity( )
+    {
+        return density;
+    }
+
+    /**
+     * @return inTargetDensity of decoder, 0 if decoder does not scale
+     */
+    public int getTargetDensity( )
+    {
+        return targetDensity;
+    }
+
+    /**
+     * @return expected width of decoded bitmap
+     */
+    public int getOutWidth( )
+    {
+        return outWidth;
+    }
+
+    /**
+     * @return expected height of decoded bitmap
+     */
+    public int getOutHeight( )
+    {
+        return outHeight;
+    }
+
+    public int getTargetWidth( )
+    {
+        return targetWidth;
+    }
+
+    public int getTargetHeight( )
+    {
+        return targetHeight;
+    }
+
+    /**
+     * @return true if decoded bitmap has to be scaled to target, e.g. exact size of other ratio or upscale
+     */
+    public boolean needsFinalScale( )
+    {
+        return outWidth != targetWidth || outHeight != targetHeight;
+    }
+
+    @Override
+    public String toString( )
+    {
+        return mode + " sample=" + sampleSize + " density=" + density + "/" + targetDensity
+                + " out=" + outWidth + "x" + outHeight + " target=" + targetWidth + "x" + targetHeight;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generate thumbnail of many images across every core.
+ * Every item probe bounds, decode with sample, scale and encode to file under
+ * thumbnail directory of {@link FileManager} root. Decode waits while bitmaps of
+ * other items would exceed memory budget, so big batch never run out of memory.
+ * Worker threads are kept by generator and reused by every batch, idle ones stop after a while.
+ */
+public class ThumbnailGenerator {
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private final BitmapManager bitmapManager;
+    private final ThreadPoolExecutor executor;
+    private final MemoryBudget memoryBudget;
+    private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+    private int quality = 85;
+
+    /**
+     * Create generator which use every core and whole budget of {@link MemoryGovernor} of manager.
+     * @param bitmapManager which decode and encode thumbnail
+     */
+    public ThumbnailGenerator(BitmapManager bitmapManager)
+    {
+        this(bitmapManager, Runtime.getRuntime().availableProcessors(), bitmapManager.getMemoryGovernor().getBudget().getCapacity());
+    }
+
+    /**
+     * @param bitmapManager which decode and encode thumbnail
+     * @param threadCount number of item which is processed in parallel
+     * @param memoryBudget bytes of bitmap which can be allocated at the same time,
+     *                     they are taken from budget of {@link MemoryGovernor} of manager also
+     */
+    public ThumbnailGenerator(BitmapManager bitmapManager, int threadCount, long memoryBudget)
+    {
+        this.bitmapManager = bitmapManager;
+        int threads = Math.max(1, threadCount);
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory("ThumbnailGenerator"));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.memoryBudget = new MemoryBudget(memoryBudget, bitmapManager.getMemoryGovernor().getBudget());
+    }
+
+    /**
+     * @param format of thumbnail file, default is JPEG
+     * @param quality of thumbnail file, default is 85
+     * @return this generator
+     */
+    public ThumbnailGenerator setOutput(Bitmap.CompressFormat format, int quality)
+    {
+        this.format = format;
+        this.quality = quality;
+        return this;
+    }
+
+    /**
+     * Generate thumbnail of every image in MediaStore which match selection.
+     * @param selection of MediaStore images query, null for every image
+     * @param selectionArgs of selection
+     * @param maxSize of longer side of thumbnail in pixel
+     * @return result of every image
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public BatchResult generate(String selection, String[] selectionArgs, int maxSize) throws InterruptedException
+    {
+        List<Uri> uris = new ArrayList<>();
+        Cursor cursor = bitmapManager.context.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[]{ MediaStore.Images.Media._ID }, selection, selectionArgs, null);
+        if( cursor != null ){
+            try {
+                int idIndex = cursor.getColumnIndexOrThrow(MediaStore.Images.Media._ID);
+                while (cursor.moveToNext()) {
+                    uris.add(ContentUris.withAppendedId(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, cursor.getLong(idIndex)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return generate(uris, maxSize);
+    }
+
+    /**
+     * Generate thumbnail of every uri.
+     * @param uris of image file path
+     * @param maxSize of longer side of thumbnail in pixel
+     * @return result of every uri in same order
+     * @throws InterruptedException if thread was interrupted while waiting
+     */
+    public BatchResult generate(Collection<Uri> uris, int maxSize) throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        final Transformation transformation = new Transformation.Builder().fit(maxSize, maxSize).purpose(ConfigPolicy.Purpose.ENCODE).build();
+        final File dir = bitmapManager.getThumbnailDirectory();
+        final String suffix = "_" + maxSize + BitmapUtils.getExtension(format);
+
+        List<Future<BatchResult.Item>> futures = new ArrayList<>(uris.size());
+        try {
+            for (final Uri uri : uris) {
+                futures.add(executor.submit(new Callable<BatchResult.Item>() {
+                    @Override
+                    public BatchResult.Item call() throws Exception {
+                        return generate(uri, transformation, new File(dir, BitmapUtils.md5(uri.toString()) + suffix));
+                    }
+                }));
+            }
+
+            List<BatchResult.Item> items = new ArrayList<>(futures.size());
+            for (Future<BatchResult.Item> future : futures) {
+                try {
+                    items.add(future.get());
+                } catch (ExecutionException e) {
+                    // every failure is caught by item so it should not happen
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return new BatchResult(items, System.currentTimeMillis() - start);
+        } finally {
+            // item which did not start yet is dropped when batch failed or was interrupted
+            for (Future<BatchResult.Item> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Stop worker threads, batch which is running is interrupted.
+     */
+    public void shutdown( )
+    {
+        executor.shutdownNow();
+    }
+
+    private BatchResult.Item generate(Uri uri, Transformation transformation, File file)
+    {
+        long start = System.currentTimeMillis();
+        Bitmap bitmap = null;
+        long held = 0;
+        try {
+            TransformResult result = bitmapManager.transform(uri, transformation, memoryBudget);
+            bitmap = result.getBitmap();
+            held = result.getHeldBytes();
+            long bytes = bitmapManager.getEncodeQueue().write(file, bitmap, format, quality);
+            return new BatchResult.Item(uri, file, bitmap.getWidth(), bitmap.getHeight(), bytes,
+                    System.currentTimeMillis() - start, null);
+        } catch (IOException | RuntimeException e) {
+            return new BatchResult.Item(uri, null, 0, 0, 0, System.currentTimeMillis() - start, e);
+        } finally {
+            // output is counted in budget until it was encoded
+            if( bitmap != null )    bitmapManager.release(bitmap);
+            memoryBudget.release(held);
+        }
+    }
+}
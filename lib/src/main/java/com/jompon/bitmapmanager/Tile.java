@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Rect;
+
+/**
+ * Region of image which is decoded at sample size, one cell of {@link TileGrid}.
+ */
+public class Tile {
+
+    private final Rect region;
+    private final int sampleSize;
+    private final int row;
+    private final int column;
+
+    Tile(Rect region, int sampleSize, int row, int column)
+    {
+        this.region = region;
+        this.sampleSize = sampleSize;
+        this.row = row;
+        this.column = column;
+    }
+
+    /**
+     * @return region of tile in coordinate of full size image
+     */
+    public Rect getRegion( )
+    {
+        return region;
+    }
+
+    public int getSampleSize( )
+    {
+        return sampleSize;
+    }
+
+    public int getRow( )
+    {
+        return row;
+    }
+
+    public int getColumn( )
+    {
+        return column;
+    }
+
+    /**
+     * @return key which is unique in image, e.g. for cache of decoded tile
+     */
+    public String getKey( )
+    {
+        return sampleSize + "/" + row + "/" + column;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decode arbitrary region of image by {@link BitmapRegionDecoder}.
+ * Region decoder of recently used sources are kept open, so decoding
+ * many tiles of one image parse its header only once.
+ */
+public class TileDecoder {
+
+    public static final int DEFAULT_MAX_DECODERS = 4;
+
+    private final ContentResolver resolver;
+    private final BitmapPool pool;
+    private final LruCache<String, Entry> decoders;
+
+    /**
+     * @param resolver of uri
+     * @param pool of decoded tile
+     * @param maxDecoders number of source which region decoder is kept open
+     */
+    public TileDecoder(ContentResolver resolver, BitmapPool pool, int maxDecoders)
+    {
+        this.resolver = resolver;
+        this.pool = pool;
+        this.decoders = new LruCache<String, Entry>(maxDecoders){
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Entry oldValue, Entry newValue) {
+                oldValue.close();
+            }
+        };
+    }
+
+    /**
+     * Get size of full size image.
+     * @param uri of image file path
+     * @return width and height of image
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public int[] getImageSize(Uri uri) throws IOException
+    {
+        Entry entry = getEntry(uri);
+        synchronized (entry) {
+            return new int[]{ entry.decoder.getWidth(), entry.decoder.getHeight() };
+        }
+    }
+
+    /**
+     * Create grid of tile over image.
+     * @param uri of image file path
+     * @param tileSize of decoded tile in pixel
+     * @return grid of image
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public TileGrid createGrid(Uri uri, int tileSize) throws IOException
+    {
+        int[] size = getImageSize(uri);
+        return new TileGrid(size[0], size[1], tileSize);
+    }
+
+    /**
+     * Decode region of image.
+     * @param uri of image file path
+     * @param region in coordinate of full size image
+     * @param sampleSize of decoder
+     * @return bitmap of region or null if region is outside image
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public Bitmap decodeRegion(Uri uri, Rect region, int sampleSize) throws IOException
+    {
+        Entry entry = getEntry(uri);
+        synchronized (entry) {
+            if( !entry.decoder.isRecycled() )   return decodeRegion(entry, region, sampleSize);
+        }
+        // decoder was evicted by other source after it was taken, so it is opened once again
+        entry = getEntry(uri);
+        synchronized (entry) {
+            if( entry.decoder.isRecycled() )    throw new IOException("Decoder of " + uri + " was closed");
+            return decodeRegion(entry, region, sampleSize);
+        }
+    }
+
+    /**
+     * Decode region by decoder which is locked by caller.
+     */
+    private Bitmap decodeRegion(Entry entry, Rect region, int sampleSize)
+    {
+        Rect bounded = new Rect(region);
+        if( !bounded.intersect(0, 0, entry.decoder.getWidth(), entry.decoder.getHeight()) )
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = Math.max(1, sampleSize);
+        // before KitKat reused bitmap must be exactly same size which sampled region cannot guarantee
+        if( Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ){
+            int width = (bounded.width() + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (bounded.height() + options.inSampleSize - 1) / options.inSampleSize;
+            options.inBitmap = pool.getDirty(width, height, Bitmap.Config.ARGB_8888);
+        }
+        try {
+            return entry.decoder.decodeRegion(bounded, options);
+        } catch (IllegalArgumentException e) {
+            if( options.inBitmap == null )  throw e;
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return entry.decoder.decodeRegion(bounded, options);
+        }
+    }
+
+    /**
+     * Decode tile of grid.
+     * @param uri of image file path
+     * @param tile of grid
+     * @return bitmap of tile
+     * @throws IOException if file not exist or it is not supported by region decoder
+     */
+    public Bitmap decodeTile(Uri uri, Tile tile) throws IOException
+    {
+        return decodeRegion(uri, tile.getRegion(), tile.getSampleSize());
+    }
+
+    /**
+     * Close region decoder of uri, e.g. when viewer is closed or file was modified.
+     * @param uri of image file path
+     */
+    public void close(Uri uri)
+    {
+        decoders.remove(uri.toString());
+    }
+
+    /**
+     * Close every region decoder.
+     */
+    public void closeAll( )
+    {
+        decoders.evictAll();
+    }
+
+    private synchronized Entry getEntry(Uri uri) throws IOException
+    {
+        String key = uri.toString();
+        Entry entry = decoders.get(key);
+        if( entry != null )     return entry;
+
+        entry = open(uri);
+        decoders.put(key, entry);
+        return entry;
+    }
+
+    private Entry open(Uri uri) throws IOException
+    {
+        ParcelFileDescriptor parcelFileDescriptor = null;
+        try {
+            parcelFileDescriptor = resolver.openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException | UnsupportedOperationException e) {
+            // some provider can serve only stream
+        }
+        if( parcelFileDescriptor != null ){
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(parcelFileDescriptor.getFileDescriptor(), false);
+                return new Entry(decoder, parcelFileDescriptor);
+            } catch (IOException e) {
+                BitmapUtils.closeQuietly(parcelFileDescriptor);
+                throw e;
+            }
+        }
+
+        InputStream in = resolver.openInputStream(uri);
+        if( in == null )    throw new FileNotFoundException("Cannot open " + uri);
+        try {
+            return new Entry(BitmapRegionDecoder.newInstance(in, false), null);
+        } finally {
+            BitmapUtils.closeQuietly(in);
+        }
+    }
+
+    private static class Entry {
+
+        private final BitmapRegionDecoder decoder;
+        private final ParcelFileDescriptor parcelFileDescriptor;
+
+        Entry(BitmapRegionDecoder decoder, ParcelFileDescriptor parcelFileDescriptor)
+        {
+            this.decoder = decoder;
+            this.parcelFileDescriptor = parcelFileDescriptor;
+        }
+
+        synchronized void close( )
+        {
+            decoder.recycle();
+            BitmapUtils.closeQuietly(parcelFileDescriptor);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Grid of tile over full size image for zoomable viewer.
+ * Every tile is decoded to about tileSize pixel whatever zoom level is,
+ * so memory depends on size of viewport instead of size of image.
+ */
+public class TileGrid {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int tileSize;
+
+    /**
+     * @param imageWidth of full size image
+     * @param imageHeight of full size image
+     * @param tileSize of decoded tile in pixel
+     */
+    public TileGrid(int imageWidth, int imageHeight, int tileSize)
+    {
+        if( imageWidth <= 0 || imageHeight <= 0 || tileSize <= 0 )
+            throw new IllegalArgumentException("size must be positive");
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        this.tileSize = tileSize;
+    }
+
+    public int getImageWidth( )
+    {
+        return imageWidth;
+    }
+
+    public int getImageHeight( )
+    {
+        return imageHeight;
+    }
+
+    public int getTileSize( )
+    {
+        return tileSize;
+    }
+
+    /**
+     * Get sample size of zoom level, it is biggest power of 2 which is not over 1 / scale.
+     * @param scale of displayed image to full size image, e.g. 0.25 when image is shown at quarter size
+     * @return sample size of decoder
+     */
+    public static int getSampleSize(float scale)
+    {
+        int sampleSize = 1;
+        if( scale <= 0 )    return sampleSize;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Get tiles which are visible in viewport.
+     * @param viewport in coordinate of full size image
+     * @param scale of displayed image to full size image
+     * @return visible tiles ordered by row then column
+     */
+    public List<Tile> getTiles(Rect viewport, float scale)
+    {
+        int sampleSize = getSampleSize(scale);
+        int step = tileSize * sampleSize;
+        int left = Math.max(0, viewport.left);
+        int top = Math.max(0, viewport.top);
+        int right = Math.min(imageWidth, viewport.right);
+        int bottom = Math.min(imageHeight, viewport.bottom);
+
+        List<Tile> tiles = new ArrayList<>();
+        if( left >= right || top >= bottom )    return tiles;
+
+        for (int row = top / step; row * step < bottom; row++) {
+            for (int column = left / step; column * step < right; column++) {
+                Rect region = new Rect(column * step, row * step,
+                        Math.min(imageWidth, (column + 1) * step),
+                        Math.min(imageHeight, (row + 1) * step));
+                tiles.add(new Tile(region, sampleSize, row, column));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Get every tile of zoom level.
+     * @param scale of displayed image to full size image
+     * @return all tiles ordered by row then column
+     */
+    public List<Tile> getTiles(float scale)
+    {
+        return getTiles(new Rect(0, 0, imageWidth, imageHeight), scale);
+    }
+}
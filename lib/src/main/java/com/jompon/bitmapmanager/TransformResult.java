@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+
+/**
+ * Output of {@link Transformation} with memory which was used to create it.
+ */
+public class TransformResult {
+
+    private final Bitmap bitmap;
+    private final int sampleSize;
+    private final long peakBytes;
+    private final long heldBytes;
+
+    TransformResult(Bitmap bitmap, int sampleSize, long peakBytes)
+    {
+        this(bitmap, sampleSize, peakBytes, 0);
+    }
+
+    /**
+     * @param heldBytes of caller budget which are still granted to output, caller release them when output is done
+     */
+    TransformResult(Bitmap bitmap, int sampleSize, long peakBytes, long heldBytes)
+    {
+        this.bitmap = bitmap;
+        this.sampleSize = sampleSize;
+        this.peakBytes = peakBytes;
+        this.heldBytes = heldBytes;
+    }
+
+    public Bitmap getBitmap( )
+    {
+        return bitmap;
+    }
+
+    /**
+     * @return inSampleSize which source was decoded by
+     */
+    public int getSampleSize( )
+    {
+        return sampleSize;
+    }
+
+    /**
+     * @return bytes of bitmap which were alive at the same time while output was created
+     */
+    public long getPeakBytes( )
+    {
+        return peakBytes;
+    }
+
+    /**
+     * @return bytes of caller budget which output still hold, 0 if output was not created by budget of caller
+     */
+    long getHeldBytes( )
+    {
+        return heldBytes;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+/**
+ * Geometric steps which is applied to image while it is loaded:
+ * source -> sample -> orient -> scale/crop -> rotate -> output.
+ * Every step is composed into single matrix so only one output bitmap is created
+ * from sampled decode, instead of one copy per step.
+ */
+public class Transformation {
+
+    public enum ScaleType {
+        /** keep size of oriented image */
+        NONE,
+        /** scale by keeping ratio so whole image is inside width and height */
+        FIT,
+        /** scale by keeping ratio so image cover width and height, nothing is cropped */
+        FILL,
+        /** scale by keeping ratio so image cover width and height then crop center */
+        CENTER_CROP,
+        /** scale to width and height exactly without keeping ratio */
+        EXACT
+    }
+
+    private final ScaleType scaleType;
+    private final int width;
+    private final int height;
+    private final boolean orient;
+    private final float rotate;
+    private final boolean filter;
+    private final boolean upscale;
+    private final ConfigPolicy.Purpose purpose;
+
+    private Transformation(Builder builder)
+    {
+        this.scaleType = builder.scaleType;
+        this.width = builder.width;
+        this.height = builder.height;
+        this.orient = builder.orient;
+        this.rotate = builder.rotate;
+        this.filter = builder.filter;
+        this.upscale = builder.upscale;
+        this.purpose = builder.purpose;
+    }
+
+    public ScaleType getScaleType( )
+    {
+        return scaleType;
+    }
+
+    public int getWidth( )
+    {
+        return width;
+    }
+
+    public int getHeight( )
+    {
+        return height;
+    }
+
+    /**
+     * @return true if image is oriented by its exif
+     */
+    public boolean isOrient( )
+    {
+        return orient;
+    }
+
+    /**
+     * @return angle in degree which is applied after scale
+     */
+    public float getRotate( )
+    {
+        return rotate;
+    }
+
+    /**
+     * @return false if image which is smaller than width and height is kept in its size
+     */
+    public boolean isUpscale( )
+    {
+        return upscale;
+    }
+
+    /**
+     * @return purpose of output bitmap, null for default purpose of {@link ConfigPolicy}
+     */
+    public ConfigPolicy.Purpose getPurpose( )
+    {
+        return purpose;
+    }
+
+    /**
+     * @return key of every step, e.g. to tell apart shared requests of same image
+     */
+    String key( )
+    {
+        return scaleType + ":" + width + "x" + height + ":" + orient + ":" + rotate + ":" + filter + ":" + upscale + ":" + purpose;
+    }
+
+    /**
+     * Predict whether decoded bitmap has to be drawn into output, e.g. to decide it can be HARDWARE.
+     * @param plan of decoder
+     * @param orientation of source image in degree
+     * @param flip true if source image has to be mirrored
+     * @return true if output is not decoded bitmap itself
+     */
+    boolean needsDraw(SizePlan plan, int orientation, boolean flip)
+    {
+        if( orientation % 360 != 0 || flip || rotate % 360 != 0 || plan.needsFinalScale() )  return true;
+        return scaleType == ScaleType.CENTER_CROP && (plan.getOutWidth() != width || plan.getOutHeight() != height);
+    }
+
+    /**
+     * Get plan of decoder which decoded image is still not smaller than scaled size.
+     * @param srcWidth of source image
+     * @param srcHeight of source image
+     * @param orientation of source image in degree
+     * @return sample size and density scale of decoder
+     */
+    SizePlan plan(int srcWidth, int srcHeight, int orientation)
+    {
+        if( scaleType == ScaleType.NONE )   return SizePlan.fit(srcWidth, srcHeight, srcWidth, srcHeight);
+
+        // decoder works on encoded image so oriented target is swapped back
+        boolean swap = orientation % 180 != 0;
+        int targetWidth = swap? height: width;
+        int targetHeight = swap? width: height;
+        switch (scaleType) {
+            case FIT:
+                return SizePlan.fit(srcWidth, srcHeight, targetWidth, targetHeight);
+            case EXACT:
+                return SizePlan.exact(srcWidth, srcHeight, targetWidth, targetHeight);
+            default:
+                return SizePlan.fill(srcWidth, srcHeight, targetWidth, targetHeight);
+        }
+    }
+
+    /**
+     * Get scale of x and y which is applied to oriented image.
+     */
+    private float[] computeScale(int orientWidth, int orientHeight)
+    {
+        float scaleX = (float) width / orientWidth;
+        float scaleY = (float) height / orientHeight;
+        switch (scaleType) {
+            case FIT:
+                scaleX = scaleY = Math.min(scaleX, scaleY);
+                break;
+            case FILL:
+            case CENTER_CROP:
+                scaleX = scaleY = Math.max(scaleX, scaleY);
+                break;
+            case EXACT:
+                break;
+            default:
+                scaleX = scaleY = 1;
+                break;
+        }
+        if( !upscale ){
+            scaleX = Math.min(1, scaleX);
+            scaleY = Math.min(1, scaleY);
+        }
+        return new float[]{ scaleX, scaleY };
+    }
+
+    /**
+     * Apply every step to decoded bitmap by drawing it once into output bitmap.
+     * @param decoded bitmap which is sampled by {@link #plan(int, int, int)}
+     * @param orientation of source image in degree
+     * @param pool of output bitmap
+     * @return output bitmap or decoded bitmap itself if there is nothing to transform
+     */
+    Bitmap apply(Bitmap decoded, int orientation, BitmapPool pool)
+    {
+        return apply(decoded, orientation, false, pool);
+    }
+
+    /**
+     * Apply every step to decoded bitmap by drawing it once into output bitmap.
+     * @param decoded bitmap which is sampled by {@link #plan(int, int, int)}
+     * @param orientation of source image in degree
+     * @param flip true if source image has to be mirrored after it was rotated
+     * @param pool of output bitmap
+     * @return output bitmap or decoded bitmap itself if there is nothing to transform
+     */
+    Bitmap apply(Bitmap decoded, int orientation, boolean flip, BitmapPool pool)
+    {
+        Bitmap source = decoded;
+        int decodedWidth = decoded.getWidth();
+        int decodedHeight = decoded.getHeight();
+
+        // orient and move it back to origin
+        Matrix matrix = new Matrix();
+        if( orientation != 0 || flip ){
+            matrix.postRotate(orientation);
+            if( flip )  matrix.postScale(-1, 1);
+            RectF bounds = new RectF(0, 0, decodedWidth, decodedHeight);
+            matrix.mapRect(bounds);
+            matrix.postTranslate(-bounds.left, -bounds.top);
+        }
+        boolean swap = orientation % 180 != 0;
+        int orientWidth = swap? decodedHeight: decodedWidth;
+        int orientHeight = swap? decodedWidth: decodedHeight;
+
+        // scale and crop
+        float[] scale = computeScale(orientWidth, orientHeight);
+        matrix.postScale(scale[0], scale[1]);
+        int windowWidth = Math.max(1, Math.round(orientWidth * scale[0]));
+        int windowHeight = Math.max(1, Math.round(orientHeight * scale[1]));
+        if( scaleType == ScaleType.CENTER_CROP ){
+            matrix.postTranslate((width - windowWidth) / 2f, (height - windowHeight) / 2f);
+            windowWidth = width;
+            windowHeight = height;
+        }
+
+        // rotate window and move it back to origin
+        Matrix rotateMatrix = new Matrix();
+        int outWidth = windowWidth;
+        int outHeight = windowHeight;
+        if( rotate % 360 != 0 ){
+            rotateMatrix.postRotate(rotate);
+            RectF bounds = new RectF(0, 0, windowWidth, windowHeight);
+            rotateMatrix.mapRect(bounds);
+            rotateMatrix.postTranslate(-bounds.left, -bounds.top);
+            outWidth = Math.max(1, Math.round(bounds.width()));
+            outHeight = Math.max(1, Math.round(bounds.height()));
+        }
+
+        if( matrix.isIdentity() && rotateMatrix.isIdentity()
+                && outWidth == decodedWidth && outHeight == decodedHeight )
+            return decoded;
+
+        Bitmap.Config config = decoded.getConfig();
+        if( ConfigPolicy.isHardware(config) ){
+            // canvas cannot read hardware bitmap, e.g. decoder rounded size differently from plan
+            source = decoded.copy(Bitmap.Config.ARGB_8888, false);
+            config = Bitmap.Config.ARGB_8888;
+        }
+        boolean transparent = !rotateMatrix.rectStaysRect() || decoded.hasAlpha();
+        if( config == null || (transparent && config != Bitmap.Config.ARGB_8888) )
+            config = Bitmap.Config.ARGB_8888;
+
+        Bitmap output = pool.get(outWidth, outHeight, config);
+        output.setHasAlpha(transparent);
+        Canvas canvas = new Canvas(output);
+        canvas.concat(rotateMatrix);
+        canvas.clipRect(0, 0, windowWidth, windowHeight);
+        canvas.drawBitmap(source, matrix, filter? new Paint(Paint.FILTER_BITMAP_FLAG): null);
+        canvas.setBitmap(null);
+        if( source != decoded )     source.recycle();
+        return output;
+    }
+
+    public static class Builder {
+
+        private ScaleType scaleType = ScaleType.NONE;
+        private int width;
+        private int height;
+        private boolean orient = true;
+        private float rotate;
+        private boolean filter = true;
+        private boolean upscale = true;
+        private ConfigPolicy.Purpose purpose;
+
+        /**
+         * Scale by keeping ratio so whole image is inside width and height.
+         */
+        public Builder fit(int width, int height)
+        {
+            return scale(ScaleType.FIT, width, height);
+        }
+
+        /**
+         * Scale by keeping ratio so image cover width and height, e.g. min size of both side.
+         */
+        public Builder fill(int width, int height)
+        {
+            return scale(ScaleType.FILL, width, height);
+        }
+
+        /**
+         * Scale by keeping ratio so image cover width and height then crop center.
+         */
+        public Builder centerCrop(int width, int height)
+        {
+            return scale(ScaleType.CENTER_CROP, width, height);
+        }
+
+        /**
+         * Scale to width and height exactly.
+         */
+        public Builder resize(int width, int height)
+        {
+            return scale(ScaleType.EXACT, width, height);
+        }
+
+        private Builder scale(ScaleType scaleType, int width, int height)
+        {
+            if( width <= 0 || height <= 0 )
+                throw new IllegalArgumentException("width and height must be positive");
+            this.scaleType = scaleType;
+            this.width = width;
+            this.height = height;
+            return this;
+        }
+
+        /**
+         * @param orient true if image is oriented by its exif, default is true
+         */
+        public Builder orient(boolean orient)
+        {
+            this.orient = orient;
+            return this;
+        }
+
+        /**
+         * @param degree which image is rotated after scale
+         */
+        public Builder rotate(float degree)
+        {
+            this.rotate = degree;
+            return this;
+        }
+
+        /**
+         * @param filter true if bitmap should be filtered when it is scaled, default is true
+         */
+        public Builder filter(boolean filter)
+        {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * @param upscale false if image which is smaller than width and height should keep its size, default is true
+         */
+        public Builder upscale(boolean upscale)
+        {
+            this.upscale = upscale;
+            return this;
+        }
+
+        /**
+         * @param purpose of output bitmap, default is purpose of {@link ConfigPolicy} of manager
+         */
+        public Builder purpose(ConfigPolicy.Purpose purpose)
+        {
+            this.purpose = purpose;
+            return this;
+        }
+
+        public Transformation build( )
+        {
+            return new Transformation(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownscalerTest {
+
+    private static int[] fill(int width, int height, int color)
+    {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = color;
+        }
+        return pixels;
+    }
+
+    private static int[] checkerboard(int width, int height)
+    {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = ((x + y) & 1) == 0? 0xff000000: 0xffffffff;
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void uniformColorIsKept() throws Exception {
+        for (Downscaler.Filter filter : Downscaler.Filter.values()) {
+            int[] output = new Downscaler(filter, null, 1).scale(fill(300, 200, 0xff336699), 300, 200, 37, 23);
+            for (int pixel : output) {
+                assertEquals(filter.name(), 0xff336699, pixel);
+            }
+        }
+    }
+
+    @Test
+    public void boxAverageBlocks() throws Exception {
+        int[] pixels = {
+                0xff000000, 0xff0000ff, 0xffff0000, 0xffff0000,
+                0xff0000ff, 0xff000000, 0xffff0000, 0xffff0000,
+                0xff00ff00, 0xff00ff00, 0xffffffff, 0xffffffff,
+                0xff00ff00, 0xff00ff00, 0xffffffff, 0xffffffff,
+        };
+        int[] output = new Downscaler(Downscaler.Filter.BOX, null, 1).scale(pixels, 4, 4, 2, 2);
+        assertArrayEquals(new int[]{ 0xff000080, 0xffff0000, 0xff00ff00, 0xffffffff }, output);
+    }
+
+    @Test
+    public void largeReductionDoesNotAlias() throws Exception {
+        // single bilinear scale of one pixel checkerboard pick either black or white, area filters give gray
+        for (Downscaler.Filter filter : Downscaler.Filter.values()) {
+            int[] output = new Downscaler(filter, null, 1).scale(checkerboard(512, 512), 512, 512, 32, 32);
+            for (int pixel : output) {
+                int gray = pixel & 0xff;
+                assertTrue(filter.name() + " " + gray, Math.abs(gray - 128) <= 8);
+            }
+        }
+    }
+
+    @Test
+    public void transparentColorDoesNotBleed() throws Exception {
+        int[] pixels = { 0x00ff0000, 0xff0000ff };
+        int[] output = new Downscaler(Downscaler.Filter.BOX, null, 1).scale(pixels, 2, 1, 1, 1);
+        assertEquals(0x80, output[0] >>> 24);
+        assertEquals(0x0000ff, output[0] & 0xffffff);
+    }
+
+    @Test
+    public void parallelStripsMatchSingleThread() throws Exception {
+        Random random = new Random(42);
+        int width = 640;
+        int height = 480;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (Downscaler.Filter filter : Downscaler.Filter.values()) {
+                int[] expected = new Downscaler(filter, null, 1).scale(pixels, width, height, 100, 75);
+                int[] actual = new Downscaler(filter, executor, 4).scale(pixels, width, height, 100, 75);
+                assertArrayEquals(filter.name(), expected, actual);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectEmptySize() throws Exception {
+        new Downscaler(Downscaler.Filter.BOX).scale(new int[4], 2, 2, 0, 1);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateIndexTest {
+
+    private static int[] scene(int width, int height, long seed)
+    {
+        // few large blobs, like photo seen from far away
+        Random random = new Random(seed);
+        int[] cx = new int[6];
+        int[] cy = new int[6];
+        int[] color = new int[6];
+        for (int i = 0; i < cx.length; i++) {
+            cx[i] = random.nextInt(width);
+            cy[i] = random.nextInt(height);
+            color[i] = 0xff000000 | random.nextInt(0xffffff);
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int nearest = 0;
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < cx.length; i++) {
+                    long d = (long) (x - cx[i]) * (x - cx[i]) + (long) (y - cy[i]) * (y - cy[i]);
+                    if( d < best ){
+                        best = d;
+                        nearest = i;
+                    }
+                }
+                pixels[y * width + x] = color[nearest];
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] addNoise(int[] pixels, int amount, long seed)
+    {
+        Random random = new Random(seed);
+        int[] output = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int r = clamp(((pixels[i] >> 16) & 0xff) + random.nextInt(2 * amount + 1) - amount);
+            int g = clamp(((pixels[i] >> 8) & 0xff) + random.nextInt(2 * amount + 1) - amount);
+            int b = clamp((pixels[i] & 0xff) + random.nextInt(2 * amount + 1) - amount);
+            output[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        return output;
+    }
+
+    private static int clamp(int value)
+    {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    @Test
+    public void resizedAndNoisyCopyIsNear() throws Exception {
+        int[] original = scene(640, 480, 1);
+        long hash = PerceptualHash.dHash(original, 640, 480);
+        int[] small = new Downscaler(Downscaler.Filter.BOX, null, 1).scale(original, 640, 480, 160, 120);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(small, 160, 120)) <= PerceptualHash.DEFAULT_MAX_DISTANCE);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(addNoise(original, 6, 2), 640, 480)) <= PerceptualHash.DEFAULT_MAX_DISTANCE);
+        assertTrue(PerceptualHash.distance(hash, PerceptualHash.dHash(scene(640, 480, 3), 640, 480)) > PerceptualHash.DEFAULT_MAX_DISTANCE);
+    }
+
+    @Test
+    public void findNearIsOrderedByDistance() throws Exception {
+        DuplicateIndex index = new DuplicateIndex(null);
+        index.put("a", 1, 0L);
+        index.put("b", 1, 0x7L);
+        index.put("c", 1, 0x1L);
+        index.put("d", 1, -1L);
+        List<DuplicateIndex.Match> matches = index.findNear(0L, 3);
+        assertEquals(3, matches.size());
+        assertEquals("a", matches.get(0).getKey());
+        assertEquals("c", matches.get(1).getKey());
+        assertEquals("b", matches.get(2).getKey());
+        assertEquals(3, matches.get(2).getDistance());
+    }
+
+    @Test
+    public void modifiedImageIsNotFresh() throws Exception {
+        DuplicateIndex index = new DuplicateIndex(null);
+        index.put("a", 100, 42L);
+        assertTrue(index.contains("a", 100));
+        assertFalse(index.contains("a", 200));
+        index.put("a", 200, 43L);
+        assertEquals(1, index.size());
+        assertEquals(43L, index.getHash("a"));
+    }
+
+    @Test
+    public void removeKeepsOtherEntries() throws Exception {
+        DuplicateIndex index = new DuplicateIndex(null);
+        for (int i = 0; i < 100; i++) {
+            index.put("k" + i, i, i);
+        }
+        index.remove("k10");
+        index.remove("k99");
+        index.remove("missing");
+        assertEquals(98, index.size());
+        assertFalse(index.contains("k10", 10));
+        assertTrue(index.contains("k50", 50));
+        assertEquals(50L, index.getHash("k50"));
+        assertEquals(0, index.findNear(99L, 0).size());
+    }
+
+    @Test
+    public void savedIndexIsLoaded() throws Exception {
+        File file = File.createTempFile("phash", ".idx");
+        try {
+            DuplicateIndex index = new DuplicateIndex(file);
+            index.put("content://media/external/images/media/1", 1000, 0x123456789abcdefL);
+            index.put("file:///sdcard/a.jpg", 2000, -2L);
+            assertEquals(2, index.getUnsavedCount());
+            index.save();
+            assertEquals(0, index.getUnsavedCount());
+
+            DuplicateIndex loaded = new DuplicateIndex(file);
+            assertEquals(2, loaded.size());
+            assertTrue(loaded.contains("content://media/external/images/media/1", 1000));
+            assertEquals(-2L, loaded.getHash("file:///sdcard/a.jpg"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.jompon.bitmapmanager;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ExifReaderTest {
+
+    private static final byte[] THUMBNAIL = { (byte) 0xff, (byte) 0xd8, 1, 2, 3, (byte) 0xff, (byte) 0xd9 };
+
+    @Test
+    public void readJpegOrientationAndThumbnail() throws Exception {
+        ExifInfo info = ExifReader.read(new ByteArrayInputStream(jpeg(tiff(ExifInfo.ORIENTATION_ROTATE_90, true, true))));
+
+        assertEquals(ExifInfo.ORIENTATION_ROTATE_90, info.getOrientation());
+        assertEquals(90, info.getRotationDegrees());
+        assertFalse(info.isFlipped());
+        assertArrayEquals(THUMBNAIL, info.getThumbnail());
+    }
+
+    @Test
+    public void readBigEndianJpeg() throws Exception {
+        ExifInfo info = ExifReader.read(new ByteArrayInputStream(jpeg(tiff(ExifInfo.ORIENTATION_TRANSVERSE, false, false))));
+
+        assertEquals(270, info.getRotationDegrees());
+        assertTrue(info.isFlipped());
+        assertNull(info.getThumbnail());
+    }
+
+    @Test
+    public void readJpegWithoutExif() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ (byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe0, 0, 4, 0, 0, (byte) 0xff, (byte) 0xda, 0, 2 });
+
+        ExifInfo info = ExifReader.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, info.getOrientation());
+    }
+
+    @Test
+    public void readPngExifChunk() throws Exception {
+        byte[] tiff = tiff(ExifInfo.ORIENTATION_ROTATE_180, true, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+        chunk(out, "IHDR", new byte[13], false);
+        chunk(out, "eXIf", tiff, false);
+        chunk(out, "IDAT", new byte[4], false);
+
+        assertEquals(180, ExifReader.read(new ByteArrayInputStream(out.toByteArray())).getRotationDegrees());
+    }
+
+    @Test
+    public void readWebpExifChunk() throws Exception {
+        byte[] tiff = tiff(ExifInfo.ORIENTATION_ROTATE_270, true, false);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(new byte[]{ 'W', 'E', 'B', 'P' });
+        chunk(body, "VP8X", new byte[]{ 0x08, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, true);
+        chunk(body, "VP8 ", new byte[5], true);
+        chunk(body, "EXIF", tiff, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ 'R', 'I', 'F', 'F' });
+        writeInt(out, body.size(), true);
+        body.writeTo(out);
+
+        assertEquals(270, ExifReader.read(new ByteArrayInputStream(out.toByteArray())).getRotationDegrees());
+    }
+
+    @Test
+    public void readHeifExifItem() throws Exception {
+        byte[] tiff = tiff(ExifInfo.ORIENTATION_ROTATE_90, false, false);
+        ByteArrayOutputStream exif = new ByteArrayOutputStream();
+        writeInt(exif, 6, false);
+        exif.write(new byte[]{ 'E', 'x', 'i', 'f', 0, 0 });
+        exif.write(tiff);
+
+        ByteArrayOutputStream infe = new ByteArrayOutputStream();
+        infe.write(new byte[]{ 2, 0, 0, 0, 0, 7, 0, 0, 'E', 'x', 'i', 'f', 0 });
+        ByteArrayOutputStream iinf = new ByteArrayOutputStream();
+        iinf.write(new byte[]{ 0, 0, 0, 0, 0, 1 });
+        box(iinf, "infe", infe.toByteArray());
+
+        int ftypSize = 16;
+        int ilocSize = 8 + 4 + 2 + 2 + 2 + 2 + 2 + 4 + 4;
+        int iinfSize = 8 + iinf.size();
+        int metaSize = 8 + 4 + iinfSize + ilocSize;
+        int exifOffset = ftypSize + metaSize + 8;
+
+        ByteArrayOutputStream iloc = new ByteArrayOutputStream();
+        iloc.write(new byte[]{ 0, 0, 0, 0, 0x44, 0x00, 0, 1, 0, 7, 0, 0, 0, 1 });
+        writeInt(iloc, exifOffset, false);
+        writeInt(iloc, exif.size(), false);
+
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.write(new byte[4]);
+        box(meta, "iinf", iinf.toByteArray());
+        box(meta, "iloc", iloc.toByteArray());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", new byte[]{ 'h', 'e', 'i', 'c', 0, 0, 0, 0 });
+        box(out, "meta", meta.toByteArray());
+        box(out, "mdat", exif.toByteArray());
+
+        assertEquals(90, ExifReader.read(new ByteArrayInputStream(out.toByteArray())).getRotationDegrees());
+    }
+
+    @Test
+    public void readTruncatedStream() throws Exception {
+        byte[] jpeg = jpeg(tiff(ExifInfo.ORIENTATION_ROTATE_90, true, true));
+        byte[] truncated = new byte[20];
+        System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(truncated)).getOrientation());
+    }
+
+    @Test
+    public void readWebpWithOversizedOrEmptyHeader() throws Exception {
+        ByteArrayOutputStream oversized = new ByteArrayOutputStream();
+        oversized.write(new byte[]{ 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P', 'V', 'P', '8', 'X' });
+        writeInt(oversized, 0x7fffffff, true);
+        oversized.write(new byte[16]);
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(oversized.toByteArray())).getOrientation());
+
+        ByteArrayOutputStream empty = new ByteArrayOutputStream();
+        empty.write(new byte[]{ 'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P' });
+        chunk(empty, "VP8X", new byte[0], true);
+        chunk(empty, "EXIF", tiff(ExifInfo.ORIENTATION_ROTATE_90, true, false), true);
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(empty.toByteArray())).getOrientation());
+    }
+
+    @Test
+    public void readTiffWithOverflowingThumbnail() throws Exception {
+        byte[] tiff = tiff(ExifInfo.ORIENTATION_ROTATE_90, true, true);
+        // offset and length of thumbnail entries of IFD1
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        writeInt(value, 0x7ffffff0, true);
+        writeInt(value, 0x20, true);
+        System.arraycopy(value.toByteArray(), 0, tiff, 36, 4);
+        System.arraycopy(value.toByteArray(), 4, tiff, 48, 4);
+
+        ExifInfo info = ExifReader.read(new ByteArrayInputStream(jpeg(tiff)));
+
+        assertEquals(90, info.getRotationDegrees());
+        assertNull(info.getThumbnail());
+    }
+
+    @Test
+    public void readTiffWithTruncatedIfd() throws Exception {
+        byte[] tiff = tiff(ExifInfo.ORIENTATION_ROTATE_90, false, false);
+        // IFD0 claims more entries than exif has
+        tiff[8] = (byte) 0xff;
+        tiff[9] = (byte) 0xff;
+
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(jpeg(tiff))).getOrientation());
+    }
+
+    @Test
+    public void readHeifWithOversizedBox() throws Exception {
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.write(new byte[4]);
+        writeInt(meta, 0x7ffffff8, false);
+        meta.write(new byte[]{ 'i', 'i', 'n', 'f', 0, 0, 0, 0, 0, 1 });
+        box(meta, "iloc", new byte[]{ 2, 0, 0, 0, 0x44, 0x00, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", new byte[]{ 'h', 'e', 'i', 'c', 0, 0, 0, 0 });
+        box(out, "meta", meta.toByteArray());
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(out.toByteArray())).getOrientation());
+
+        ByteArrayOutputStream huge = new ByteArrayOutputStream();
+        box(huge, "ftyp", new byte[]{ 'h', 'e', 'i', 'c', 0, 0, 0, 0 });
+        writeInt(huge, 1, false);
+        huge.write(new byte[]{ 'm', 'e', 't', 'a' });
+        writeInt(huge, 0x7fffffff, false);
+        writeInt(huge, 0, false);
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(huge.toByteArray())).getOrientation());
+    }
+
+    @Test
+    public void readHeifWithItemOutsideLocationBox() throws Exception {
+        // iloc claims one item but has no room for it
+        ByteArrayOutputStream infe = new ByteArrayOutputStream();
+        infe.write(new byte[]{ 2, 0, 0, 0, 0, 7, 0, 0, 'E', 'x', 'i', 'f', 0 });
+        ByteArrayOutputStream iinf = new ByteArrayOutputStream();
+        iinf.write(new byte[]{ 0, 0, 0, 0, 0, 1 });
+        box(iinf, "infe", infe.toByteArray());
+        ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        meta.write(new byte[4]);
+        box(meta, "iinf", iinf.toByteArray());
+        box(meta, "iloc", new byte[]{ 0, 0, 0, 0, 0x44, 0x00, 0, 1, 0, 7 });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        box(out, "ftyp", new byte[]{ 'h', 'e', 'i', 'c', 0, 0, 0, 0 });
+        box(out, "meta", meta.toByteArray());
+        assertEquals(ExifInfo.ORIENTATION_NORMAL, ExifReader.read(new ByteArrayInputStream(out.toByteArray())).getOrientation());
+    }
+
+    private static byte[] jpeg(byte[] tiff) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{ (byte) 0xff, (byte) 0xd8 });
+        out.write(new byte[]{ (byte) 0xff, (byte) 0xe0, 0, 4, 0, 0 });
+        out.write(new byte[]{ (byte) 0xff, (byte) 0xe1 });
+        writeShort(out, tiff.length + 8, false);
+        out.write(new byte[]{ 'E', 'x', 'i', 'f', 0, 0 });
+        out.write(tiff);
+        out.write(new byte[]{ (byte) 0xff, (byte) 0xda, 0, 2 });
+        return out.toByteArray();
+    }
+
+    private static byte[] tiff(int orientation, boolean littleEndian, boolean thumbnail) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(littleEndian? new byte[]{ 'I', 'I' }: new byte[]{ 'M', 'M' });
+        writeShort(out, 42, littleEndian);
+        writeInt(out, 8, littleEndian);
+        // IFD0 with orientation, next IFD follows it
+        writeShort(out, 1, littleEndian);
+        writeEntry(out, 0x0112, 3, orientation, littleEndian, true);
+        int ifd1 = 8 + 2 + 12 + 4;
+        writeInt(out, thumbnail? ifd1: 0, littleEndian);
+        if( thumbnail ){
+            int data = ifd1 + 2 + 2 * 12 + 4;
+            writeShort(out, 2, littleEndian);
+            writeEntry(out, 0x0201, 4, data, littleEndian, false);
+            writeEntry(out, 0x0202, 4, THUMBNAIL.length, littleEndian, false);
+            writeInt(out, 0, littleEndian);
+            out.write(THUMBNAIL);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeEntry(ByteArrayOutputStream out, int tag, int type, int value, boolean littleEndian, boolean shortValue) {
+        writeShort(out, tag, littleEndian);
+        writeShort(out, type, littleEndian);
+        writeInt(out, 1, littleEndian);
+        if( shortValue ){
+            writeShort(out, value, littleEndian);
+            writeShort(out, 0, littleEndian);
+        }else{
+            writeInt(out, value, littleEndian);
+        }
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data, boolean riff) throws IOException {
+        if( riff ){
+            out.write(type.getBytes("US-ASCII"));
+            writeInt(out, data.length, true);
+            out.write(data);
+            if( (data.length & 1) == 1 )    out.write(0);
+        }else{
+            writeInt(out, data.length, false);
+            out.write(type.getBytes("US-ASCII"));
+            out.write(data);
+            writeInt(out, 0, false);
+        }
+    }
+
+    private static void box(ByteArrayOutputStream out, String type, byte[] data) throws IOException {
+        writeInt(out, data.length + 8, false);
+        out.write(type.getBytes("US-ASCII"));
+        out.write(data);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if( littleEndian ){
+            out.write(value & 0xff);
+            out.write((value >> 8) & 0xff);
+        }else{
+            out.write((value >> 8) & 0xff);
+            out.write(value & 0xff);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if( littleEndian ){
+            writeShort(out, value & 0xffff, true);
+            writeShort(out, (value >>> 16) & 0xffff, true);
+        }else{
+            writeShort(out, (value >>> 16) & 0xffff, false);
+            writeShort(out, value & 0xffff, false);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FolderScannerTest {
+
+    private File dir;
+    private File root;
+    private File journal;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("scanner", "");
+        dir.delete();
+        root = new File(dir, "root");
+        journal = new File(dir, ".journal");
+        new File(root, "album/.cache").mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        delete(dir);
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if( files != null ){
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static File write(File file, int seed) throws IOException
+    {
+        byte[] data = new byte[200 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private FolderScanner.ScanResult scan() throws IOException
+    {
+        // new scanner every time so journal is read back from file
+        return new FolderScanner(journal, null).scan(Collections.singletonList(root));
+    }
+
+    @Test
+    public void onlyChangesAreReported() throws Exception {
+        File a = write(new File(root, "a.jpg"), 1);
+        File b = write(new File(root, "album/b.PNG"), 2);
+        File c = write(new File(root, "album/c.jpg"), 3);
+        write(new File(root, "notes.txt"), 4);
+        write(new File(root, "album/.cache/d.jpg"), 5);
+
+        FolderScanner.ScanResult first = scan();
+        assertEquals(3, first.getAdded().size());
+        assertEquals(3, first.getReadCount());
+
+        FolderScanner.ScanResult second = scan();
+        assertTrue(second.isEmpty());
+        assertEquals(3, second.getFileCount());
+        assertEquals(0, second.getReadCount());
+
+        // touched with same content is read but not reported, edit of same size is caught by fingerprint
+        assertTrue(a.setLastModified(a.lastModified() - 10000));
+        write(b, 9);
+        assertTrue(b.setLastModified(b.lastModified() - 20000));
+        assertTrue(c.delete());
+        File e = write(new File(root, "album/e.webp"), 6);
+
+        FolderScanner.ScanResult third = scan();
+        assertEquals(Arrays.asList(e), third.getAdded());
+        assertEquals(Arrays.asList(b), third.getChanged());
+        assertEquals(Arrays.asList(c), third.getRemoved());
+        assertEquals(3, third.getReadCount());
+        assertTrue(scan().isEmpty());
+    }
+
+    @Test
+    public void missingRootKeepsItsImages() throws Exception {
+        write(new File(root, "a.jpg"), 1);
+        assertEquals(1, scan().getAdded().size());
+
+        File moved = new File(dir, "moved");
+        assertTrue(root.renameTo(moved));
+        assertTrue(scan().isEmpty());
+        assertTrue(moved.renameTo(root));
+
+        FolderScanner scanner = new FolderScanner(journal, null);
+        assertEquals(1, scanner.size());
+        scanner.reset();
+        List<File> added = scanner.scan(Collections.singletonList(root)).getAdded();
+        assertEquals(1, added.size());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 jompons.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jompon.bitmapmanager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SizePlanTest {
+
+    @Test
+    public void fitByPowerOfTwoOnly() throws Exception {
+        SizePlan plan = SizePlan.fit(4000, 3000, 1000, 1000);
+        assertEquals(4, plan.getSampleSize());
+        assertEquals(0, plan.getDensity());
+        assertEquals(1000, plan.getOutWidth());
+        assertEquals(750, plan.getOutHeight());
+        assertFalse(plan.needsFinalScale());
+    }
+
+    @Test
+    public void fitScaleRemainderByDensity() throws Exception {
+        SizePlan plan = SizePlan.fit(4000, 3000, 600, 600);
+        assertEquals(4, plan.getSampleSize());
+        assertEquals(1000, plan.getDensity());
+        assertEquals(600, plan.getTargetDensity());
+        assertEquals(600, plan.getOutWidth());
+        assertEquals(450, plan.getOutHeight());
+        assertFalse(plan.needsFinalScale());
+    }
+
+    @Test
+    public void fillCoverTarget() throws Exception {
+        SizePlan plan = SizePlan.fill(4032, 3024, 600, 600);
+        assertEquals(4, plan.getSampleSize());
+        assertEquals(1008, plan.getDensity());
+        assertEquals(800, plan.getTargetDensity());
+        assertEquals(800, plan.getOutWidth());
+        assertEquals(600, plan.getOutHeight());
+    }
+
+    @Test
+    public void maxPixelsStayInsideBudget() throws Exception {
+        SizePlan plan = SizePlan.maxPixels(4000, 3000, 1000000);
+        assertEquals(2, plan.getSampleSize());
+        assertEquals(1154, plan.getOutWidth());
+        assertTrue(Math.abs(plan.getOutHeight() - 866) <= 1);
+        assertTrue((long) plan.getOutWidth() * plan.getOutHeight() <= 1000000);
+    }
+
+    @Test
+    public void exactNeedsFinalScaleOfOtherRatio() throws Exception {
+        SizePlan plan = SizePlan.exact(4000, 3000, 500, 500);
+        assertEquals(4, plan.getSampleSize());
+        assertEquals(667, plan.getOutWidth());
+        assertEquals(500, plan.getOutHeight());
+        assertEquals(500, plan.getTargetWidth());
+        assertTrue(plan.needsFinalScale());
+    }
+
+    @Test
+    public void neverUpscaleInDecoder() throws Exception {
+        SizePlan fit = SizePlan.fit(300, 200, 1000, 1000);
+        assertEquals(1, fit.getSampleSize());
+        assertEquals(0, fit.getDensity());
+        assertEquals(300, fit.getOutWidth());
+        assertFalse(fit.needsFinalScale());
+
+        SizePlan exact = SizePlan.exact(300, 200, 600, 400);
+        assertEquals(300, exact.getOutWidth());
+        assertTrue(exact.needsFinalScale());
+    }
+
+    @Test
+    public void minSampleSizeDropDensity() throws Exception {
+        SizePlan plan = SizePlan.fit(4000, 3000, 3000, 3000).withMinSampleSize(3);
+        assertEquals(2, plan.getSampleSize());
+        assertEquals(0, plan.getDensity());
+        assertEquals(2000, plan.getOutWidth());
+        assertEquals(1500, plan.getOutHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectEmptyTarget() throws Exception {
+        SizePlan.fit(4000, 3000, 0, 600);
+    }
+}